@@ -0,0 +1,196 @@
+/*
+    Corpora for the JMH benchmarks.
+
+    "cranfield" is the cran.all.1400 / cran.qry pair shipped with the
+    repository. "synthetic-N" is an N document corpus in the same SMART
+    format, with words drawn from a Zipf distribution over a fixed
+    vocabulary, written to a temporary file the first time it is asked for.
+*/
+
+package vsmir;
+
+// Java
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+final class BenchmarkCorpora {
+    // Directory holding cran.all.1400 and cran.qry, overridable with -Dvsm.cranfield=...
+    static final String CRANFIELD_DIR = System.getProperty("vsm.cranfield", "cranfield-corpus");
+
+    static final String SYNTHETIC_PREFIX = "synthetic-";
+
+    // Words per title and per abstract of a synthetic document
+    static final int SYNTHETIC_TITLE_WORDS = 8;
+    static final int SYNTHETIC_ABSTRACT_WORDS = 90;
+    static final int SYNTHETIC_QUERY_WORDS = 15;
+    static final int SYNTHETIC_QUERIES = 225;
+    static final int SYNTHETIC_VOCABULARY = 50_000;
+
+    // Generated corpora, shared by every benchmark in the same JVM
+    private static final HashMap<String, File> generated = new HashMap<String, File>();
+
+    private BenchmarkCorpora() {
+    }
+
+    /*
+     * Path of the corpus file for a benchmark parameter
+     */
+    static synchronized String CorpusPath(String corpus) {
+        if (corpus.equals("cranfield")) {
+            return Cranfield("cran.all.1400").getPath();
+        }
+        if (!corpus.startsWith(SYNTHETIC_PREFIX)) {
+            throw new IllegalArgumentException("Unknown corpus " + corpus);
+        }
+        File file = generated.get(corpus);
+        if (file == null) {
+            int numDocs = Integer.parseInt(corpus.substring(SYNTHETIC_PREFIX.length()));
+            file = WriteSynthetic(numDocs);
+            generated.put(corpus, file);
+        }
+        return file.getPath();
+    }
+
+    /*
+     * Query texts for a benchmark parameter, cran.qry for Cranfield and
+     * random queries over the same vocabulary for synthetic corpora
+     */
+    static String[] Queries(String corpus) {
+        if (corpus.equals("cranfield")) {
+            VectorSpaceModelIR queries = new VectorSpaceModelIR();
+            queries.BuildQueryList(Cranfield("cran.qry").getPath());
+            ArrayList<String> texts = new ArrayList<String>();
+            for (String queryID : queries.GetQueryIDs()) {
+                texts.add(queries.GetQuery(queryID));
+            }
+            return texts.toArray(new String[0]);
+        }
+
+        Zipf words = new Zipf(new Random(7));
+        String[] texts = new String[SYNTHETIC_QUERIES];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = words.Sentence(SYNTHETIC_QUERY_WORDS);
+        }
+        return texts;
+    }
+
+    /*
+     * Records of a corpus file as lists of lines, each starting at its .I line
+     */
+    static ArrayList<ArrayList<String>> Records(String corpusPath) {
+        ArrayList<ArrayList<String>> records = new ArrayList<ArrayList<String>>();
+        try (BufferedReader br = new BufferedReader(new FileReader(corpusPath))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(".I")) {
+                    records.add(new ArrayList<String>());
+                }
+                if (!records.isEmpty()) {
+                    records.get(records.size() - 1).add(line);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return records;
+    }
+
+    private static File Cranfield(String name) {
+        // Benchmarks may be launched from the repository root or a module directory
+        for (String dir : new String[] { CRANFIELD_DIR, "../" + CRANFIELD_DIR }) {
+            File file = new File(dir, name);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        throw new IllegalStateException("Cannot find " + name + ", set -Dvsm.cranfield=<cranfield-corpus dir>");
+    }
+
+    private static File WriteSynthetic(int numDocs) {
+        try {
+            File file = File.createTempFile("vsm-synthetic-" + numDocs + "-", ".all");
+            file.deleteOnExit();
+
+            Zipf words = new Zipf(new Random(42));
+            try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16))) {
+                for (int docID = 1; docID <= numDocs; docID++) {
+                    out.println(".I " + docID);
+                    out.println(".T");
+                    out.println(words.Sentence(SYNTHETIC_TITLE_WORDS) + " .");
+                    out.println(".A");
+                    out.println("author,a.");
+                    out.println(".B");
+                    out.println("synthetic, " + docID);
+                    out.println(".W");
+                    // Wrap abstracts at 12 words per line like the real corpus
+                    for (int written = 0; written < SYNTHETIC_ABSTRACT_WORDS; written += 12) {
+                        out.println(words.Sentence(Math.min(12, SYNTHETIC_ABSTRACT_WORDS - written)));
+                    }
+                }
+            }
+            return file;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /*
+     * Random lowercase words whose ranks follow a Zipf distribution
+     */
+    static final class Zipf {
+        private final Random random;
+        private final String[] vocabulary;
+        private final double[] cumulative;
+
+        Zipf(Random random) {
+            this.random = random;
+
+            // The vocabulary itself is the same for every generator
+            Random letters = new Random(1);
+            this.vocabulary = new String[SYNTHETIC_VOCABULARY];
+            for (int i = 0; i < this.vocabulary.length; i++) {
+                char[] word = new char[3 + letters.nextInt(8)];
+                for (int j = 0; j < word.length; j++) {
+                    word[j] = (char) ('a' + letters.nextInt(26));
+                }
+                this.vocabulary[i] = new String(word);
+            }
+
+            this.cumulative = new double[this.vocabulary.length];
+            double sum = 0;
+            for (int i = 0; i < this.cumulative.length; i++) {
+                sum += 1.0 / (i + 1);
+                this.cumulative[i] = sum;
+            }
+            for (int i = 0; i < this.cumulative.length; i++) {
+                this.cumulative[i] /= sum;
+            }
+        }
+
+        String Word() {
+            int rank = Arrays.binarySearch(this.cumulative, this.random.nextDouble());
+            return this.vocabulary[Math.min(rank < 0 ? -rank - 1 : rank, this.vocabulary.length - 1)];
+        }
+
+        String Sentence(int numWords) {
+            StringBuilder sentence = new StringBuilder();
+            for (int i = 0; i < numWords; i++) {
+                if (i > 0) {
+                    sentence.append(' ');
+                }
+                sentence.append(Word());
+            }
+            return sentence.toString();
+        }
+    }
+}
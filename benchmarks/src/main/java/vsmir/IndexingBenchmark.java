@@ -0,0 +1,87 @@
+/*
+    JMH benchmarks for building the index: BuildData end to end,
+    the tokenize + stem + count loop on its own, and CalcTFXIDF.
+*/
+
+package vsmir;
+
+// Java
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+// JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "--add-modules", "jdk.incubator.vector" })
+public class IndexingBenchmark {
+    @Param({ "cranfield", "synthetic-10000", "synthetic-100000" })
+    public String corpus;
+
+    private String corpusPath;
+    private ArrayList<ArrayList<String>> records;
+
+    // Built once per trial for CalcTFXIDF
+    private VectorSpaceModelIR built;
+
+    @Setup(Level.Trial)
+    public void Setup() {
+        this.corpusPath = BenchmarkCorpora.CorpusPath(this.corpus);
+        this.records = BenchmarkCorpora.Records(this.corpusPath);
+
+        this.built = new VectorSpaceModelIR();
+        this.built.BuildData(this.corpusPath, 1);
+    }
+
+    // Worker threads for BuildData and CalcTFXIDF, the other benchmarks run on one thread
+    @State(Scope.Benchmark)
+    public static class Threads {
+        @Param({ "1", "4" })
+        public int threads;
+    }
+
+    /*
+     * Read, split, tokenize, stem and count the whole corpus
+     */
+    @Benchmark
+    public VectorSpaceModelIR BuildData(Threads threads) {
+        VectorSpaceModelIR data = new VectorSpaceModelIR();
+        data.BuildData(this.corpusPath, threads.threads);
+        return data;
+    }
+
+    /*
+     * Tokenize, stem and count already split records on one thread,
+     * without the file reading
+     */
+    @Benchmark
+    public VectorSpaceModelIR.IndexShard TokenizeAndStem() {
+        VectorSpaceModelIR.IndexShard shard = new VectorSpaceModelIR.IndexShard();
+        this.built.IndexRecords(this.records, shard);
+        return shard;
+    }
+
+    /*
+     * Weight every posting of the title and abstract indexes
+     */
+    @Benchmark
+    public VectorSpaceModelIR CalcTFXIDF(Threads threads) {
+        this.built.CalcTFXIDF(threads.threads);
+        return this.built;
+    }
+}
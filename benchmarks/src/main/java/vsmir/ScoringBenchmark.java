@@ -0,0 +1,123 @@
+/*
+    JMH benchmarks for answering queries: CalcCSS per query,
+    DisplayTopKDocs on its results, and Search from several threads
+    sharing one index.
+*/
+
+package vsmir;
+
+// Java
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+// JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "--add-modules", "jdk.incubator.vector" })
+public class ScoringBenchmark {
+    @Param({ "cranfield", "synthetic-10000", "synthetic-100000" })
+    public String corpus;
+
+    @Param({ "10", "100" })
+    public int k;
+
+    /*
+     * Document norm over the query terms only, or the precomputed full norm with and without pruning;
+     * or BM25 or pivoted normalization in place of the cosine
+     */
+    @Param({ "query", "full", "full-exhaustive", "bm25", "pivoted" })
+    public String cosine;
+
+    private VectorSpaceModelIR data;
+    private String[] queries;
+    private int nextQuery;
+
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void Setup() {
+        this.data = new VectorSpaceModelIR();
+        this.data.BuildData(BenchmarkCorpora.CorpusPath(this.corpus));
+        this.data.CalcTFXIDF();
+        this.data.FreezeIndex();
+        if (this.cosine.equals("bm25")) {
+            this.data.SetSimilarity(Similarity.BM25());
+        } else if (this.cosine.equals("pivoted")) {
+            this.data.SetSimilarity(Similarity.Pivoted());
+        } else {
+            this.data.SetCosine(this.cosine.startsWith("full") ? Searcher.COSINE_FULL : Searcher.COSINE_QUERY_TERMS);
+        }
+        this.data.SetPruning(!this.cosine.equals("full-exhaustive"));
+        this.queries = BenchmarkCorpora.Queries(this.corpus);
+
+        // DisplayTopKDocs prints, keep that out of the benchmark output
+        this.stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void TearDown() {
+        System.setOut(this.stdout);
+    }
+
+    /*
+     * Score one query, cycling through all queries of the corpus
+     */
+    @Benchmark
+    public int CalcCSS() {
+        String query = this.queries[this.nextQuery];
+        this.nextQuery = (this.nextQuery + 1) % this.queries.length;
+        this.data.CalcCSS(query, 0.5f, 0.5f, this.k);
+        return this.data.NumResults();
+    }
+
+    // Position in the query list of each thread calling Search
+    @State(Scope.Thread)
+    public static class QueryCursor {
+        int nextQuery;
+    }
+
+    /*
+     * Score one query per call from 4 threads at once over the same Searcher
+     */
+    @Benchmark
+    @Threads(4)
+    public SearchResult ConcurrentSearch(QueryCursor cursor) {
+        String query = this.queries[cursor.nextQuery];
+        cursor.nextQuery = (cursor.nextQuery + 1) % this.queries.length;
+        return this.data.GetSearcher().Search(query, new float[] { 0.5f, 0.5f }, this.k, this.data.GetSimilarity());
+    }
+
+    /*
+     * Format and print the top k results of a query
+     */
+    @Benchmark
+    public void DisplayTopKDocs() {
+        this.data.DisplayTopKDocs(this.k, "001");
+    }
+
+    @Setup(Level.Iteration)
+    public void ScoreFirstQuery() {
+        // Gives DisplayTopKDocs results to print
+        this.data.CalcCSS(this.queries[0], 0.5f, 0.5f, this.k);
+    }
+}
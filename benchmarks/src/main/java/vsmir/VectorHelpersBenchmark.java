@@ -0,0 +1,106 @@
+/*
+    JMH benchmarks for the vector helpers ProdSumTFXIDF,
+    SumSquaredTFXIDF and the cosine built on them: the boxed
+    ArrayList<Double> versions against the double[] kernels, plain
+    loops and Vector API.
+
+    Dense vectors have a weight in every slot, like the title and
+    abstract score vectors Combine adds up; sparse ones have a weight
+    in one slot out of twenty, like a query over the vocabulary.
+*/
+
+package vsmir;
+
+// Java
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class VectorHelpersBenchmark {
+    // Query length in terms, Cranfield queries mostly fall in the first two, then vocabulary sized vectors
+    @Param({ "8", "16", "256", "4096", "65536" })
+    public int size;
+
+    @Param({ "dense", "sparse" })
+    public String shape;
+
+    // ArrayList<Double> helpers, or the double[] kernels as plain loops or on the Vector API
+    @Param({ "boxed", "scalar", "simd" })
+    public String kernel;
+
+    private VectorSpaceModelIR data;
+    private ArrayList<Double> vector_a, vector_b;
+    private double[] array_a, array_b;
+    private VectorKernels kernels;
+
+    @Setup
+    public void Setup() {
+        this.data = new VectorSpaceModelIR();
+        Random random = new Random(3);
+        this.vector_a = new ArrayList<Double>();
+        this.vector_b = new ArrayList<Double>();
+        this.array_a = new double[this.size];
+        this.array_b = new double[this.size];
+        for (int i = 0; i < this.size; i++) {
+            double weight_a = random.nextDouble();
+            double weight_b = random.nextDouble();
+            if (this.shape.equals("sparse") && random.nextInt(20) != 0) {
+                weight_a = 0;
+            }
+            this.vector_a.add(weight_a);
+            this.vector_b.add(weight_b);
+            this.array_a[i] = weight_a;
+            this.array_b[i] = weight_b;
+        }
+
+        this.kernels = this.kernel.equals("simd") ? VectorKernels.Simd() : VectorKernels.Scalar();
+        if (this.kernels == null) {
+            throw new IllegalStateException("The Vector API is not available, run with --add-modules jdk.incubator.vector");
+        }
+    }
+
+    @Benchmark
+    public double ProdSumTFXIDF() {
+        if (this.kernel.equals("boxed")) {
+            return this.data.ProdSumTFXIDF(this.vector_a, this.vector_b);
+        }
+        return this.kernels.Dot(this.array_a, this.array_b, this.size);
+    }
+
+    @Benchmark
+    public double SumSquaredTFXIDF() {
+        if (this.kernel.equals("boxed")) {
+            return this.data.SumSquaredTFXIDF(this.vector_a);
+        }
+        return this.kernels.SumOfSquares(this.array_a, this.size);
+    }
+
+    // Dot product over both norms, from three passes over the lists or one fused pass over the arrays
+    @Benchmark
+    public double Cosine() {
+        if (this.kernel.equals("boxed")) {
+            double cssDenominator = this.data.NormalizeVector(this.vector_a) * this.data.NormalizeVector(this.vector_b);
+            return cssDenominator == 0 ? 0 : this.data.ProdSumTFXIDF(this.vector_a, this.vector_b) / cssDenominator;
+        }
+        return this.kernels.Cosine(this.array_a, this.array_b, this.size);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+    Turns text into index terms, the same way for documents and queries.
+
+    A Tokenizer scans the text by hand for runs of [a-zA-Z], copies each
+    run into a reused char buffer and pushes it through a chain of
+    filters (lowercase, stopwords, stemming, ...) to a TermSink. No
+    String is made per token: a sink that needs to keep a term copies
+    it, or looks it up in a TermTable.
+
+    Filters are pluggable: a TermFilter wraps the next stage of the
+    chain, so a stage may change the term in place, drop it, or pass on
+    any number of terms of its own.
+*/
+
+package vsmir;
+
+// Java
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// OpenNLP Stemmer
+import opennlp.tools.stemmer.PorterStemmer;
+
+final class Analyzer {
+    /*
+     * Receives each term as the first length chars of a buffer that is
+     * reused for the next term
+     */
+    interface TermSink {
+        void Term(char[] term, int length);
+    }
+
+    /*
+     * A stage of the chain, wrapping the stage after it. Wrap is called
+     * once per Tokenizer, so a stage can keep per thread state.
+     */
+    interface TermFilter {
+        TermSink Wrap(TermSink next);
+    }
+
+    private final List<TermFilter> filters;
+
+    Analyzer(List<TermFilter> filters) {
+        this.filters = List.copyOf(filters);
+    }
+
+    /*
+     * Lowercase, drop stopwords, Porter stem: what the corpus reader and
+     * the queries have always done. Stems are looked up in stemCache first.
+     */
+    static Analyzer Standard(Collection<String> stopwords, StemCache stemCache) {
+        return new Analyzer(List.of(LowerCase(), Stopwords(stopwords), PorterStem(stemCache)));
+    }
+
+    /*
+     * A Tokenizer feeding the filters of this analyzer and then sink.
+     * Tokenizers are not thread-safe, use one per thread.
+     */
+    Tokenizer NewTokenizer(TermSink sink) {
+        TermSink chain = sink;
+        for (int i = this.filters.size() - 1; i >= 0; i--) {
+            chain = this.filters.get(i).Wrap(chain);
+        }
+        return new Tokenizer(chain);
+    }
+
+    static TermFilter LowerCase() {
+        return next -> (term, length) -> {
+            for (int i = 0; i < length; i++) {
+                char c = term[i];
+                if (c >= 'A' && c <= 'Z') {
+                    term[i] = (char) (c + ('a' - 'A'));
+                }
+            }
+            next.Term(term, length);
+        };
+    }
+
+    static TermFilter Stopwords(Collection<String> stopwords) {
+        // Hashed once, never written to again, so every Tokenizer can share it
+        TermTable words = new TermTable();
+        for (String word : stopwords) {
+            words.Intern(word.toCharArray(), word.length());
+        }
+        return next -> (term, length) -> {
+            if (!words.Contains(term, length)) {
+                next.Term(term, length);
+            }
+        };
+    }
+
+    /*
+     * Porter stemming, asking a cache shared by every Tokenizer first and
+     * only running the stemmer on a miss. PorterStemmer keeps state
+     * between calls, so there is one per Tokenizer.
+     */
+    static TermFilter PorterStem(StemCache stemCache) {
+        return next -> {
+            PorterStemmer stemmer = new PorterStemmer();
+            StemCache.Key probe = new StemCache.Key();
+            char[][] buffer = { new char[32] };
+            return (term, length) -> {
+                probe.Set(term, length);
+                char[] stem = stemCache.Get(probe);
+                if (stem == null) {
+                    stemmer.stem(term, 0, length);
+                    stem = Arrays.copyOf(stemmer.getResultBuffer(), stemmer.getResultLength());
+                    stemCache.Put(probe, stem);
+                }
+                // Cached stems are shared, later stages get a copy they may change
+                if (stem.length > buffer[0].length) {
+                    buffer[0] = new char[Math.max(stem.length, buffer[0].length * 2)];
+                }
+                System.arraycopy(stem, 0, buffer[0], 0, stem.length);
+                next.Term(buffer[0], stem.length);
+            };
+        };
+    }
+
+    /*
+     * Finds the words of a text and hands them to the first stage of a chain
+     */
+    static final class Tokenizer {
+        private final TermSink sink;
+        private char[] buffer = new char[32];
+
+        Tokenizer(TermSink sink) {
+            this.sink = sink;
+        }
+
+        void Analyze(CharSequence text) {
+            int length = text.length();
+            int i = 0;
+            while (i < length) {
+                // Skip to the start of the next word
+                while (i < length && !IsLetter(text.charAt(i))) {
+                    i++;
+                }
+                int start = i;
+                while (i < length && IsLetter(text.charAt(i))) {
+                    i++;
+                }
+                int wordLength = i - start;
+                if (wordLength == 0) {
+                    break;
+                }
+
+                if (wordLength > this.buffer.length) {
+                    this.buffer = new char[Math.max(wordLength, this.buffer.length * 2)];
+                }
+                for (int j = 0; j < wordLength; j++) {
+                    this.buffer[j] = text.charAt(start + j);
+                }
+                this.sink.Term(this.buffer, wordLength);
+            }
+        }
+
+        /*
+         * Same as above for the bytes bytes[start .. end) of a file. Words
+         * are ASCII letters, which are the same in bytes as in chars, so
+         * the bytes are never decoded.
+         */
+        void Analyze(ByteBuffer bytes, int start, int end) {
+            int i = start;
+            while (i < end) {
+                while (i < end && !IsLetter(bytes.get(i))) {
+                    i++;
+                }
+                int wordStart = i;
+                while (i < end && IsLetter(bytes.get(i))) {
+                    i++;
+                }
+                int wordLength = i - wordStart;
+                if (wordLength == 0) {
+                    break;
+                }
+
+                if (wordLength > this.buffer.length) {
+                    this.buffer = new char[Math.max(wordLength, this.buffer.length * 2)];
+                }
+                for (int j = 0; j < wordLength; j++) {
+                    this.buffer[j] = (char) bytes.get(wordStart + j);
+                }
+                this.sink.Term(this.buffer, wordLength);
+            }
+        }
+
+        private static boolean IsLetter(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+        }
+
+        private static boolean IsLetter(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+    }
+
+    /*
+     * Canonical String for each distinct term, looked up straight from a
+     * char buffer so a repeated term costs no allocation
+     */
+    static final class TermTable {
+        private String[] table = new String[1024];
+        private int size;
+
+        String Intern(char[] term, int length) {
+            int hash = Hash(term, length);
+            int mask = this.table.length - 1;
+            for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+                String entry = this.table[slot];
+                if (entry == null) {
+                    entry = new String(term, 0, length);
+                    this.table[slot] = entry;
+                    if (++this.size * 2 > this.table.length) {
+                        Grow();
+                    }
+                    return entry;
+                }
+                if (entry.hashCode() == hash && Matches(entry, term, length)) {
+                    return entry;
+                }
+            }
+        }
+
+        boolean Contains(char[] term, int length) {
+            int hash = Hash(term, length);
+            int mask = this.table.length - 1;
+            for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+                String entry = this.table[slot];
+                if (entry == null) {
+                    return false;
+                }
+                if (entry.hashCode() == hash && Matches(entry, term, length)) {
+                    return true;
+                }
+            }
+        }
+
+        int Size() {
+            return this.size;
+        }
+
+        private void Grow() {
+            String[] old = this.table;
+            this.table = new String[old.length * 2];
+            int mask = this.table.length - 1;
+            for (String entry : old) {
+                if (entry != null) {
+                    int slot = entry.hashCode() & mask;
+                    while (this.table[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.table[slot] = entry;
+                }
+            }
+        }
+
+        // Same as String.hashCode, so entries can reuse their cached hash
+        private static int Hash(char[] term, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + term[i];
+            }
+            return hash;
+        }
+
+        private static boolean Matches(String entry, char[] term, int length) {
+            if (entry.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (entry.charAt(i) != term[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,675 @@
+/*
+    Scores many queries at once against a snapshot, for batch jobs such
+    as running all of cran.qry or replaying a query log.
+
+    Queries are analyzed up front and grouped so that queries sharing
+    their most common term land in the same block. A block is scored
+    term-at-a-time like Searcher.ScoreExhaustive, but over the union of
+    its queries' terms: each posting list is read once, for every
+    boosted field, and every query of the block that has the term adds
+    the posting to its own accumulators. Accumulators are laid out doc by doc, with one slot
+    per query of the block next to each other, and only cover a window
+    of docs at a time: all the block's postings cursors move through one
+    window, its docs are scored, then the next window starts, so the
+    accumulators stay in cache however large the index is.
+
+    Blocks run in parallel on a pool of workers; their results come out
+    in block order, so they can be streamed to a run file while later
+    blocks are still being scored. Every query gets exactly the results
+    Searcher.Search gives it under the same Similarity, each posting being
+    weighted through Similarity.DocFactor as Accumulate weights it.
+*/
+
+package vsmir;
+
+// Java
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+final class BatchSearcher {
+    // Most queries scored together in one block
+    static final int BLOCK_QUERIES = 64;
+
+    // Queries analyzed and grouped at a time; blocks are cut from each window
+    static final int GROUP_WINDOW = 4096;
+
+    // Accumulator bytes of a block, well inside an L2 cache; bigger blocks get shorter windows
+    static final int WINDOW_BYTES = 256 * 1024;
+
+    // Accumulator bytes per query and doc: dot product and squared weight per boosted field, touched flag
+    private static final int BYTES_PER_QUERY_FIELD_DOC = 16;
+
+    private static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /*
+     * Receives the results of each query, in block order; queries of a
+     * block come in query number order
+     */
+    interface ResultSink {
+        void Result(int queryNumber, SearchResult result) throws IOException;
+    }
+
+    private final Searcher searcher;
+    private final float[] boosts;
+    // Fields with a boost other than 0, the only ones scored
+    private final int fieldMask;
+    private final int k;
+    private final Similarity similarity;
+
+    // Scratch objects not in use by any block right now
+    private final ConcurrentLinkedQueue<Block> blockPool = new ConcurrentLinkedQueue<Block>();
+
+    BatchSearcher(Searcher searcher, float[] boosts, int k, Similarity similarity) {
+        this.searcher = searcher;
+        this.boosts = Searcher.FieldBoosts(boosts).clone();
+        int fieldMask = 0;
+        for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+            if (this.boosts[field] != 0) {
+                fieldMask |= 1 << field;
+            }
+        }
+        this.fieldMask = fieldMask;
+        this.k = k;
+        this.similarity = similarity;
+    }
+
+    /*
+     * Score every query on numThreads workers and hand the results to sink,
+     * query number i being queries.get(i - 1)
+     */
+    void Run(List<String> queries, int numThreads, ResultSink sink) throws IOException {
+        ExecutorService workers = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+
+        // Blocks handed to the workers whose results are not written yet, in order
+        ArrayDeque<Future<SearchResult[]>> pending = new ArrayDeque<Future<SearchResult[]>>();
+        ArrayDeque<int[]> pendingNumbers = new ArrayDeque<int[]>();
+
+        try {
+            for (int start = 0; start < queries.size(); start += GROUP_WINDOW) {
+                ArrayList<AnalyzedQuery> window = Analyze(queries, start,
+                        Math.min(queries.size(), start + GROUP_WINDOW));
+                Group(window);
+
+                for (int from = 0; from < window.size(); from += BLOCK_QUERIES) {
+                    List<AnalyzedQuery> block = window.subList(from, Math.min(window.size(), from + BLOCK_QUERIES));
+                    block.sort((a, b) -> Integer.compare(a.number, b.number));
+                    int[] numbers = new int[block.size()];
+                    for (int i = 0; i < numbers.length; i++) {
+                        numbers[i] = block.get(i).number;
+                    }
+
+                    if (workers == null) {
+                        Write(numbers, ScoreBlock(block), sink);
+                        continue;
+                    }
+                    AnalyzedQuery[] blockQueries = block.toArray(new AnalyzedQuery[0]);
+                    pending.add(workers.submit(() -> ScoreBlock(Arrays.asList(blockQueries))));
+                    pendingNumbers.add(numbers);
+                    while (pending.size() > 2 * numThreads) {
+                        Write(pendingNumbers.poll(), Take(pending.poll()), sink);
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                Write(pendingNumbers.poll(), Take(pending.poll()), sink);
+            }
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /*
+     * Results of every query, in order, scored on numThreads workers
+     */
+    SearchResult[] Search(List<String> queries, int numThreads) {
+        SearchResult[] results = new SearchResult[queries.size()];
+        try {
+            Run(queries, numThreads, (queryNumber, result) -> results[queryNumber - 1] = result);
+        } catch (IOException ex) {
+            // The sink above does no I/O
+            throw new IllegalStateException(ex);
+        }
+        return results;
+    }
+
+    private static void Write(int[] numbers, SearchResult[] results, ResultSink sink) throws IOException {
+        for (int i = 0; i < numbers.length; i++) {
+            sink.Result(numbers[i], results[i]);
+        }
+    }
+
+    private static SearchResult[] Take(Future<SearchResult[]> block) {
+        try {
+            return block.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running the batch", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Failed to score a block of queries", ex.getCause());
+        }
+    }
+
+    /*
+     *
+     * GROUPING
+     *
+     */
+
+    // A query as its sorted terms and their Raw TF
+    private static final class AnalyzedQuery {
+        final int number;
+        final TreeMap<String, Integer> termFreqs = new TreeMap<String, Integer>();
+
+        // The term of the query with the most postings, which blocks are grouped by
+        String groupTerm = "";
+
+        AnalyzedQuery(int number) {
+            this.number = number;
+        }
+    }
+
+    private ArrayList<AnalyzedQuery> Analyze(List<String> queries, int from, int to) {
+        ArrayList<AnalyzedQuery> analyzed = new ArrayList<AnalyzedQuery>(to - from);
+        AnalyzedQuery[] current = new AnalyzedQuery[1];
+        Analyzer.Tokenizer tokenizer = this.searcher.GetAnalyzer().NewTokenizer(
+                (term, length) -> current[0].termFreqs.merge(new String(term, 0, length), 1, Integer::sum));
+
+        for (int i = from; i < to; i++) {
+            current[0] = new AnalyzedQuery(i + 1);
+            tokenizer.Analyze(queries.get(i));
+            analyzed.add(current[0]);
+        }
+        return analyzed;
+    }
+
+    /*
+     * Order a window so that queries whose longest posting list is the same
+     * are next to each other, and so most likely in the same block
+     */
+    private void Group(ArrayList<AnalyzedQuery> window) {
+        TreeMap<String, Integer> postingsCounts = new TreeMap<String, Integer>();
+        for (AnalyzedQuery query : window) {
+            int most = -1;
+            for (String term : query.termFreqs.keySet()) {
+                int postings = postingsCounts.computeIfAbsent(term, this::PostingsCount);
+                if (postings > most) {
+                    most = postings;
+                    query.groupTerm = term;
+                }
+            }
+        }
+        window.sort((a, b) -> {
+            int cmp = a.groupTerm.compareTo(b.groupTerm);
+            return cmp != 0 ? cmp : Integer.compare(a.number, b.number);
+        });
+    }
+
+    // Postings of a term in the boosted fields over every segment, deleted ones included
+    private int PostingsCount(String term) {
+        int postings = 0;
+        for (int s = 0; s < this.searcher.NumSegments(); s++) {
+            InvertedIndex segment = this.searcher.Segment(s);
+            int termID = segment.TermID(term);
+            if (termID < 0) {
+                continue;
+            }
+            for (int fields = this.fieldMask; fields != 0; fields &= fields - 1) {
+                postings += segment.DocFreq(Integer.numberOfTrailingZeros(fields), termID);
+            }
+        }
+        return postings;
+    }
+
+    /*
+     *
+     * SCORING
+     *
+     */
+
+    /*
+     * Score one block of queries; results in the order of the queries.
+     * Weights and field scores come from the similarity and are added up
+     * in the order of Searcher.ScoreExhaustive, so scores match it to the
+     * bit.
+     */
+    private SearchResult[] ScoreBlock(List<AnalyzedQuery> queries) {
+        Block block = this.blockPool.poll();
+        if (block == null) {
+            block = new Block();
+        }
+        try {
+            return ScoreBlock(queries, block);
+        } finally {
+            this.blockPool.offer(block);
+        }
+    }
+
+    private SearchResult[] ScoreBlock(List<AnalyzedQuery> queries, Block block) {
+        Searcher searcher = this.searcher;
+        Similarity similarity = this.similarity;
+        boolean occurrences = similarity.Occurrences();
+        boolean sumsSquares = similarity.SumsSquares();
+        int numQueries = queries.size();
+        int numSegments = searcher.NumSegments();
+        int collectionSize = searcher.NumLiveDocs();
+        int bytesPerQueryDoc = BYTES_PER_QUERY_FIELD_DOC * Integer.bitCount(this.fieldMask) + 1;
+        int window = Math.max(1, WINDOW_BYTES / (numQueries * bytesPerQueryDoc));
+        block.Reset(numQueries, window * numQueries, this.k);
+
+        // Union of the block's terms, sorted, with the queries having each and their Raw TF
+        TreeMap<String, ArrayList<int[]>> blockTerms = new TreeMap<String, ArrayList<int[]>>();
+        for (int q = 0; q < numQueries; q++) {
+            for (Map.Entry<String, Integer> term : queries.get(q).termFreqs.entrySet()) {
+                blockTerms.computeIfAbsent(term.getKey(), key -> new ArrayList<int[]>())
+                        .add(new int[] { q, term.getValue() });
+            }
+        }
+
+        /*
+         * One cursor per term and segment with postings in a boosted field,
+         * in that order, each with the queries of the block having the term
+         * per field: the (term, field) of cursor c is at c * NUM_FIELDS + field
+         */
+        double[][] querySquaredWeights = new double[numQueries][InvertedIndex.NUM_FIELDS];
+        int[] termIDs = new int[numSegments];
+        int[] termDocFreqs = new int[InvertedIndex.NUM_FIELDS];
+        int numCursors = 0;
+        int numHaving = 0;
+
+        for (Map.Entry<String, ArrayList<int[]>> term : blockTerms.entrySet()) {
+            for (int s = 0; s < numSegments; s++) {
+                termIDs[s] = searcher.Segment(s).TermID(term.getKey());
+            }
+            ArrayList<int[]> having = term.getValue();
+            LiveDocFreqs(termIDs, block, termDocFreqs);
+
+            int termFields = 0;
+            int firstCursor = numCursors;
+            block.EnsureCursors(numCursors + 1);
+            for (int fields = this.fieldMask; fields != 0; fields &= fields - 1) {
+                int field = Integer.numberOfTrailingZeros(fields);
+                int termDocFreq = termDocFreqs[field];
+                if (termDocFreq == 0) {
+                    continue;
+                }
+                termFields |= 1 << field;
+                double termWeight = similarity.TermWeight(termDocFreq, collectionSize);
+                int f = firstCursor * InvertedIndex.NUM_FIELDS + field;
+                block.cursorTermWeights[f] = termWeight;
+                block.cursorHaving[f] = numHaving;
+                block.EnsureHaving(numHaving + having.size());
+                for (int[] query : having) {
+                    int q = query[0];
+                    int raw_tf = query[1];
+                    double queryWeight = similarity.QueryWeight(raw_tf, termDocFreq, collectionSize);
+                    querySquaredWeights[q][field] += queryWeight * queryWeight;
+                    block.havingQueries[numHaving] = q;
+                    block.queryFactors[numHaving] = similarity.QueryFactor(queryWeight, termWeight);
+                    numHaving++;
+                }
+                block.cursorHavingEnd[f] = numHaving;
+            }
+            if (termFields == 0) {
+                continue;
+            }
+
+            for (int s = 0; s < numSegments; s++) {
+                if (termIDs[s] < 0) {
+                    continue;
+                }
+                block.EnsureCursors(numCursors + 1);
+                if (numCursors != firstCursor) {
+                    // Same term as the first cursor, so the same queries and term weights
+                    System.arraycopy(block.cursorTermWeights, firstCursor * InvertedIndex.NUM_FIELDS,
+                            block.cursorTermWeights, numCursors * InvertedIndex.NUM_FIELDS, InvertedIndex.NUM_FIELDS);
+                    System.arraycopy(block.cursorHaving, firstCursor * InvertedIndex.NUM_FIELDS, block.cursorHaving,
+                            numCursors * InvertedIndex.NUM_FIELDS, InvertedIndex.NUM_FIELDS);
+                    System.arraycopy(block.cursorHavingEnd, firstCursor * InvertedIndex.NUM_FIELDS,
+                            block.cursorHavingEnd, numCursors * InvertedIndex.NUM_FIELDS, InvertedIndex.NUM_FIELDS);
+                }
+                InvertedIndex.PostingsIterator postings = block.CursorPostings(s, numCursors);
+                postings.ResetFields(termFields, termIDs[s]);
+                block.cursorFields[numCursors] = termFields;
+                block.cursorSegments[numCursors] = s;
+                block.cursorDocs[numCursors] = NextLiveDoc(postings, s);
+                numCursors++;
+            }
+        }
+
+        /*
+         * Walk all cursors through one window of docs at a time, so the
+         * accumulators only cover window docs and stay in cache, then score
+         * the window's docs for each query
+         */
+        long postingsScanned = 0;
+        long docsScored = 0;
+        int windowStart = NO_MORE_DOCS;
+        for (int c = 0; c < numCursors; c++) {
+            windowStart = Math.min(windowStart, block.cursorDocs[c]);
+        }
+        while (windowStart != NO_MORE_DOCS) {
+            int windowEnd = windowStart + Math.min(window, NO_MORE_DOCS - windowStart);
+            int nextStart = NO_MORE_DOCS;
+
+            for (int c = 0; c < numCursors; c++) {
+                int doc = block.cursorDocs[c];
+                if (doc < windowEnd) {
+                    int s = block.cursorSegments[c];
+                    InvertedIndex.PostingsIterator postings = block.cursorPostings[s][c];
+                    int cursorFields = block.cursorFields[c];
+
+                    while (doc < windowEnd) {
+                        int slots = (doc - windowStart) * numQueries;
+                        for (int fields = postings.Fields() & cursorFields; fields != 0; fields &= fields - 1) {
+                            int field = Integer.numberOfTrailingZeros(fields);
+                            int f = c * InvertedIndex.NUM_FIELDS + field;
+                            double[] dotProducts = block.dotProducts[field];
+                            double[] squaredWeights = block.squaredWeights[field];
+                            int tf = occurrences ? postings.Occurrences(field) : postings.Tf(field);
+                            double docFactor = similarity.DocFactor(searcher, s, field, block.cursorTermWeights[f],
+                                    postings.Doc(), tf);
+                            for (int j = block.cursorHaving[f]; j < block.cursorHavingEnd[f]; j++) {
+                                int q = block.havingQueries[j];
+                                int slot = slots + q;
+                                dotProducts[slot] += block.queryFactors[j] * docFactor;
+                                if (sumsSquares) {
+                                    squaredWeights[slot] += docFactor * docFactor;
+                                }
+                                block.Touch(q, doc - windowStart, slot);
+                            }
+                            postingsScanned++;
+                        }
+                        doc = NextLiveDoc(postings, s);
+                    }
+                    block.cursorDocs[c] = doc;
+                }
+                nextStart = Math.min(nextStart, doc);
+            }
+
+            docsScored += CollectWindow(block, numQueries, windowStart, querySquaredWeights);
+            windowStart = nextStart;
+        }
+
+        SearchResult[] results = new SearchResult[numQueries];
+        for (int q = 0; q < numQueries; q++) {
+            block.results[q].SortResults();
+            results[q] = SearchResult.Of(block.results[q], searcher);
+        }
+
+        if (Metrics.Enabled()) {
+            Metrics.Get().RecordBatch(numQueries);
+            Metrics.Get().RecordScoring(postingsScanned, docsScored);
+        }
+        return results;
+    }
+
+    // Snapshot doc of the next live posting of postings over segment s, or NO_MORE_DOCS
+    private int NextLiveDoc(InvertedIndex.PostingsIterator postings, int s) {
+        BitSet segmentDeleted = this.searcher.Deleted(s);
+        while (postings.Next()) {
+            if (segmentDeleted == null || !segmentDeleted.get(postings.Doc())) {
+                return this.searcher.DocBase(s) + postings.Doc();
+            }
+        }
+        return NO_MORE_DOCS;
+    }
+
+    /*
+     * Get Final Scores of the docs of a window, query by query, and zero
+     * their accumulators for the next window; returns the number of
+     * (query, doc) pairs scored
+     */
+    private int CollectWindow(Block block, int numQueries, int windowStart, double[][] querySquaredWeights) {
+        int docsScored = 0;
+        for (int q = 0; q < numQueries; q++) {
+            TopKCollector collector = block.results[q];
+            int[] touchedDocs = block.touchedDocs[q];
+            for (int i = 0; i < block.numTouched[q]; i++) {
+                int doc = windowStart + touchedDocs[i];
+                int slot = touchedDocs[i] * numQueries + q;
+                double finalScore = 0;
+                for (int fields = this.fieldMask; fields != 0; fields &= fields - 1) {
+                    int field = Integer.numberOfTrailingZeros(fields);
+                    finalScore += this.boosts[field] * this.similarity.FieldScore(this.searcher, field, doc,
+                            block.dotProducts[field][slot], block.squaredWeights[field][slot],
+                            querySquaredWeights[q][field]);
+                    block.dotProducts[field][slot] = 0;
+                    block.squaredWeights[field][slot] = 0;
+                }
+                block.touched[slot] = false;
+
+                if (finalScore > 0) {
+                    collector.Collect(doc, finalScore);
+                }
+            }
+            docsScored += block.numTouched[q];
+            block.numTouched[q] = 0;
+        }
+        return docsScored;
+    }
+
+    // Live documents with a term in each field, over all segments, as Searcher counts them
+    private void LiveDocFreqs(int[] termIDs, Block block, int[] termDocFreqs) {
+        Arrays.fill(termDocFreqs, 0);
+        for (int s = 0; s < termIDs.length; s++) {
+            if (termIDs[s] < 0) {
+                continue;
+            }
+            BitSet segmentDeleted = this.searcher.Deleted(s);
+            if (segmentDeleted == null) {
+                for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                    termDocFreqs[field] += this.searcher.Segment(s).DocFreq(field, termIDs[s]);
+                }
+                continue;
+            }
+            InvertedIndex.PostingsIterator postings = block.postings[s];
+            postings.Reset(termIDs[s]);
+            while (postings.Next()) {
+                if (!segmentDeleted.get(postings.Doc())) {
+                    for (int fields = postings.Fields(); fields != 0; fields &= fields - 1) {
+                        termDocFreqs[Integer.numberOfTrailingZeros(fields)]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Scratch of one block: cursors over the block's posting lists, the
+     * queries having each cursor's term, and accumulators for one window
+     * of docs, the slot of query q on the i-th doc of the window being
+     * i * numQueries + q. Only one block uses it at a time.
+     */
+    private final class Block {
+        final double[][] dotProducts = new double[InvertedIndex.NUM_FIELDS][];
+        final double[][] squaredWeights = new double[InvertedIndex.NUM_FIELDS][];
+        boolean[] touched = new boolean[0];
+
+        // Window docs each query of the block has a posting in
+        int[][] touchedDocs = new int[0][];
+        int[] numTouched = new int[0];
+        TopKCollector[] results = new TopKCollector[0];
+
+        /*
+         * Fields of cursor c are the bits of cursorFields[c]. Queries having
+         * its term in field f are havingQueries[cursorHaving[i] .. cursorHavingEnd[i])
+         * and the term's weight there is cursorTermWeights[i], i being
+         * c * NUM_FIELDS + f. queryFactors are Similarity.QueryFactor of the queries.
+         */
+        int[] havingQueries = new int[16];
+        double[] queryFactors = new double[16];
+
+        int[] cursorFields = new int[16];
+        int[] cursorSegments = new int[16];
+        double[] cursorTermWeights = new double[16 * InvertedIndex.NUM_FIELDS];
+        int[] cursorHaving = new int[16 * InvertedIndex.NUM_FIELDS];
+        int[] cursorHavingEnd = new int[16 * InvertedIndex.NUM_FIELDS];
+        int[] cursorDocs = new int[16];
+        final InvertedIndex.PostingsIterator[][] cursorPostings;
+
+        // For counting live postings
+        final InvertedIndex.PostingsIterator[] postings;
+
+        Block() {
+            Searcher searcher = BatchSearcher.this.searcher;
+            this.postings = new InvertedIndex.PostingsIterator[searcher.NumSegments()];
+            this.cursorPostings = new InvertedIndex.PostingsIterator[searcher.NumSegments()][0];
+            for (int s = 0; s < this.postings.length; s++) {
+                this.postings[s] = new InvertedIndex.PostingsIterator(searcher.Segment(s));
+            }
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                this.dotProducts[field] = new double[0];
+                this.squaredWeights[field] = new double[0];
+            }
+        }
+
+        // Room for numQueries queries over numSlots slots, all zero, and empty top k collectors
+        void Reset(int numQueries, int numSlots, int k) {
+            if (numSlots > this.touched.length) {
+                for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                    this.dotProducts[field] = new double[numSlots];
+                    this.squaredWeights[field] = new double[numSlots];
+                }
+                this.touched = new boolean[numSlots];
+            }
+            if (numQueries > this.numTouched.length) {
+                this.touchedDocs = Arrays.copyOf(this.touchedDocs, numQueries);
+                this.numTouched = new int[numQueries];
+                this.results = Arrays.copyOf(this.results, numQueries);
+                for (int q = 0; q < numQueries; q++) {
+                    if (this.touchedDocs[q] == null) {
+                        this.touchedDocs[q] = new int[16];
+                        this.results[q] = new TopKCollector(k);
+                    }
+                }
+            }
+            for (int q = 0; q < numQueries; q++) {
+                this.results[q].Reset(k);
+            }
+        }
+
+        void EnsureHaving(int length) {
+            if (length > this.havingQueries.length) {
+                length = Math.max(length, this.havingQueries.length * 2);
+                this.havingQueries = Arrays.copyOf(this.havingQueries, length);
+                this.queryFactors = Arrays.copyOf(this.queryFactors, length);
+            }
+        }
+
+        void EnsureCursors(int length) {
+            if (length > this.cursorDocs.length) {
+                length = Math.max(length, this.cursorDocs.length * 2);
+                this.cursorFields = Arrays.copyOf(this.cursorFields, length);
+                this.cursorSegments = Arrays.copyOf(this.cursorSegments, length);
+                this.cursorTermWeights = Arrays.copyOf(this.cursorTermWeights, length * InvertedIndex.NUM_FIELDS);
+                this.cursorHaving = Arrays.copyOf(this.cursorHaving, length * InvertedIndex.NUM_FIELDS);
+                this.cursorHavingEnd = Arrays.copyOf(this.cursorHavingEnd, length * InvertedIndex.NUM_FIELDS);
+                this.cursorDocs = Arrays.copyOf(this.cursorDocs, length);
+            }
+        }
+
+        // Postings iterator of cursor c over segment s, made on first use
+        InvertedIndex.PostingsIterator CursorPostings(int s, int c) {
+            InvertedIndex.PostingsIterator[] postings = this.cursorPostings[s];
+            if (c >= postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(c + 1, postings.length * 2));
+                this.cursorPostings[s] = postings;
+            }
+            if (postings[c] == null) {
+                postings[c] = new InvertedIndex.PostingsIterator(BatchSearcher.this.searcher.Segment(s));
+            }
+            return postings[c];
+        }
+
+        void Touch(int q, int windowDoc, int slot) {
+            if (!this.touched[slot]) {
+                this.touched[slot] = true;
+                if (this.numTouched[q] == this.touchedDocs[q].length) {
+                    this.touchedDocs[q] = Arrays.copyOf(this.touchedDocs[q], this.numTouched[q] * 2);
+                }
+                this.touchedDocs[q][this.numTouched[q]++] = windowDoc;
+            }
+        }
+    }
+
+    /*
+     *
+     * QUERY AND RUN FILES
+     *
+     */
+
+    /*
+     * Read the queries of a file in order: the .W text of each .I record
+     * for a file in the SMART format of cran.qry, otherwise one query per
+     * non-empty line
+     */
+    static ArrayList<String> ReadQueries(String queryPath) throws IOException {
+        ArrayList<String> queries = new ArrayList<String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(queryPath))) {
+            String line = br.readLine();
+            while (line != null && line.trim().isEmpty()) {
+                line = br.readLine();
+            }
+            boolean smart = line != null
+                    && VectorSpaceModelIR.SectionOf(line) == VectorSpaceModelIR.SECTION_DOCID;
+
+            StringBuilder query = null;
+            boolean inText = false;
+            for (; line != null; line = br.readLine()) {
+                if (!smart) {
+                    if (!line.trim().isEmpty()) {
+                        queries.add(line.trim());
+                    }
+                } else if (VectorSpaceModelIR.SectionOf(line) == VectorSpaceModelIR.SECTION_DOCID) {
+                    if (query != null) {
+                        queries.add(query.toString().trim());
+                    }
+                    query = new StringBuilder();
+                    inText = false;
+                } else if (inText) {
+                    query.append(' ').append(line);
+                } else if (VectorSpaceModelIR.SectionOf(line) == VectorSpaceModelIR.SECTION_ABSTRACT) {
+                    inText = true;
+                }
+            }
+            if (query != null) {
+                queries.add(query.toString().trim());
+            }
+        }
+        return queries;
+    }
+
+    /*
+     * Write the results of one query in TREC run format:
+     * query-number Q0 DocID rank score run-tag
+     */
+    static void WriteTrec(PrintWriter out, int queryNumber, SearchResult result, String runTag) {
+        for (int rank = 0; rank < result.Size(); rank++) {
+            out.print(queryNumber);
+            out.print(" Q0 ");
+            out.print(result.DocID(rank));
+            out.print(' ');
+            out.print(rank + 1);
+            out.print(' ');
+            out.print(result.Score(rank));
+            out.print(' ');
+            out.println(runTag);
+        }
+    }
+}
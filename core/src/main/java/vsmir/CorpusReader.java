@@ -0,0 +1,162 @@
+/*
+    Reads a SMART format file (cran.all.1400, cran.qry) straight from its
+    bytes, mapped with FileChannel.map, without decoding lines to Strings.
+
+    Markers (.I, .T, .A, .B, .W) are only recognized at the start of a
+    line, on their own or followed by white space, so body text that
+    happens to contain ".I" is just text. The file is handed out in
+    chunks of whole records, each a byte range of a mapped region: a
+    chunk boundary is found by jumping ahead and scanning to the next
+    .I line, so chunks can be cut cheaply on one thread and parsed on
+    many. Parsing only reads the mapped bytes, which any number of
+    threads may do at once.
+
+    Files larger than a region are mapped a region at a time, each
+    region ending at a record boundary; a single record must fit in one.
+*/
+
+package vsmir;
+
+// Java
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+final class CorpusReader {
+    // Bytes of the file mapped at once
+    static final int REGION_BYTES = 1 << 30;
+
+    /*
+     * Receives consecutive runs of whole records, in file order, as the
+     * bytes bytes[from .. to) of a mapped region
+     */
+    interface ChunkSink {
+        void Chunk(ByteBuffer bytes, int from, int to) throws IOException;
+    }
+
+    private CorpusReader() {
+    }
+
+    /*
+     * Map the file at path and hand its records to sink in chunks of about
+     * chunkBytes, skipping anything before the first .I line
+     */
+    static void ReadChunks(String path, int chunkBytes, ChunkSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long regionStart = 0;
+            boolean first = true;
+            while (regionStart < size) {
+                int length = (int) Math.min(REGION_BYTES, size - regionStart);
+                ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, length);
+
+                // The last record of a region may go on in the next one, which then starts with it
+                int end = regionStart + length == size ? length : LastRecord(region, length);
+                int from = first ? NextRecord(region, 0, end) : 0;
+                if (end == 0) {
+                    throw new IOException("Record at byte " + regionStart + " of " + path + " is larger than "
+                            + REGION_BYTES + " bytes");
+                }
+
+                while (from < end) {
+                    int to = end - from <= chunkBytes ? end : NextRecord(region, from + chunkBytes, end);
+                    sink.Chunk(region, from, to);
+                    from = to;
+                }
+                regionStart += end;
+                first = false;
+            }
+        }
+    }
+
+    // Position of the '\n' ending the line that starts at start, or end if the line runs to it
+    static int LineEnd(ByteBuffer bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes.get(i) == '\n') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /*
+     * The section a line opens (VectorSpaceModelIR.SECTION_*), or
+     * SECTION_NONE if it is not a marker line
+     */
+    static int SectionAt(ByteBuffer bytes, int start, int end) {
+        if (end - start < 2 || bytes.get(start) != '.') {
+            return VectorSpaceModelIR.SECTION_NONE;
+        }
+        if (end - start > 2 && !IsSpace(bytes.get(start + 2))) {
+            return VectorSpaceModelIR.SECTION_NONE;
+        }
+        return VectorSpaceModelIR.SectionOfMarker((char) bytes.get(start + 1));
+    }
+
+    /*
+     * Start of the first .I line at or after pos, or end if there is none.
+     * A pos in the middle of a line starts looking at the next line.
+     */
+    static int NextRecord(ByteBuffer bytes, int pos, int end) {
+        if (pos > 0 && pos < end && bytes.get(pos - 1) != '\n') {
+            pos = LineEnd(bytes, pos, end) + 1;
+        }
+        while (pos < end) {
+            int lineEnd = LineEnd(bytes, pos, end);
+            if (SectionAt(bytes, pos, lineEnd) == VectorSpaceModelIR.SECTION_DOCID) {
+                return pos;
+            }
+            pos = lineEnd + 1;
+        }
+        return end;
+    }
+
+    // Start of the last .I line before end, 0 if there is none after the first byte
+    private static int LastRecord(ByteBuffer bytes, int end) {
+        for (int i = end - 1; i > 0; i--) {
+            if (bytes.get(i - 1) == '\n'
+                    && SectionAt(bytes, i, LineEnd(bytes, i, end)) == VectorSpaceModelIR.SECTION_DOCID) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * The digits of a line, in order, as a number: the ID of a .I line,
+     * read the way the corpus reader always has
+     */
+    static int ParseID(ByteBuffer bytes, int start, int end) {
+        int id = 0;
+        boolean any = false;
+        for (int i = start; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b >= '0' && b <= '9') {
+                id = Math.addExact(Math.multiplyExact(id, 10), b - '0');
+                any = true;
+            }
+        }
+        if (!any) {
+            throw new NumberFormatException("No ID in .I line");
+        }
+        return id;
+    }
+
+    // Same as above, keeping the digits as text, leading zeros and all
+    static String IDText(ByteBuffer bytes, int start, int end) {
+        StringBuilder id = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b >= '0' && b <= '9') {
+                id.append((char) b);
+            }
+        }
+        return id.toString();
+    }
+
+    private static boolean IsSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+}
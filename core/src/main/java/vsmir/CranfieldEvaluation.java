@@ -0,0 +1,193 @@
+/*
+    Batch relevance evaluation and throughput benchmark for the
+    Vector Space Information Retrieval model.
+
+    Runs every query from cran.qry through CalcCSS and scores the
+    rankings against the Cranfield relevance judgements (cranqrel),
+    then times repeated runs of the same queries.
+*/
+
+package vsmir;
+
+// Java
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+public class CranfieldEvaluation {
+    // Cut-off for P@k and nDCG@k
+    static final int CUTOFF = 10;
+
+    // Cut-off for recall
+    static final int RECALL_CUTOFF = 100;
+
+    /*
+     * TreeMap<Query Number, TreeMap<DocID, Relevancy Code>>
+     *
+     * cranqrel numbers the queries 1, 2, 3, ... in the order they appear in
+     * cran.qry, not by their .I IDs, which skip numbers.
+     */
+    private final TreeMap<Integer, TreeMap<Integer, Integer>> qrels;
+
+    CranfieldEvaluation(String qrelsPath) throws IOException {
+        this.qrels = ReadQrels(qrelsPath);
+    }
+
+    /*
+     * Read cranqrel: one "query-number doc-id relevancy-code" triple per line.
+     * Codes 1 to 4 run from a complete answer down to minimum interest;
+     * pairs with any other code (the file has a -1 per query) are not
+     * counted as relevant.
+     */
+    static TreeMap<Integer, TreeMap<Integer, Integer>> ReadQrels(String qrelsPath) throws IOException {
+        TreeMap<Integer, TreeMap<Integer, Integer>> qrels = new TreeMap<Integer, TreeMap<Integer, Integer>>();
+
+        try (BufferedReader br = new BufferedReader(new FileReader(qrelsPath))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] columns = line.trim().split("\\s+");
+                if (columns.length < 3) {
+                    continue;
+                }
+                int queryNumber = Integer.parseInt(columns[0]);
+                int docID = Integer.parseInt(columns[1]);
+                int code = Integer.parseInt(columns[2]);
+                if (code < 1 || code > 4) {
+                    continue;
+                }
+                qrels.computeIfAbsent(queryNumber, q -> new TreeMap<Integer, Integer>()).put(docID, code);
+            }
+        }
+        return qrels;
+    }
+
+    /*
+     *
+     * Score every query once for quality, then time timedRounds passes over
+     * all queries (after one untimed warm-up pass) and print the report.
+     *
+     */
+    void Run(VectorSpaceModelIR data, float boostTitle, float boostAbstract, int timedRounds) {
+        ArrayList<String> queryIDs = new ArrayList<String>(data.GetQueryIDs());
+        int depth = data.NumDocs();
+
+        double sumAP = 0, sumPAtK = 0, sumNDCG = 0, sumRecall = 0;
+        int numJudged = 0;
+
+        for (int i = 0; i < queryIDs.size(); i++) {
+            TreeMap<Integer, Integer> judgements = this.qrels.get(i + 1);
+            if (judgements == null || judgements.isEmpty()) {
+                continue;
+            }
+
+            data.CalcCSS(data.GetQuery(queryIDs.get(i)), boostTitle, boostAbstract, depth);
+            int numResults = data.NumResults();
+
+            double precisionSum = 0;
+            double dcg = 0;
+            int relevantRetrieved = 0;
+            int relevantInTopK = 0;
+            int relevantInRecallCutoff = 0;
+
+            for (int rank = 1; rank <= numResults; rank++) {
+                Integer code = judgements.get(data.ResultDocID(rank - 1));
+                if (code == null) {
+                    continue;
+                }
+                relevantRetrieved++;
+                precisionSum += (double) relevantRetrieved / rank;
+                if (rank <= CUTOFF) {
+                    relevantInTopK++;
+                    dcg += Gain(code) / Log2(rank + 1);
+                }
+                if (rank <= RECALL_CUTOFF) {
+                    relevantInRecallCutoff++;
+                }
+            }
+
+            sumAP += precisionSum / judgements.size();
+            sumPAtK += (double) relevantInTopK / CUTOFF;
+            sumNDCG += dcg / IdealDCG(judgements);
+            sumRecall += (double) relevantInRecallCutoff / judgements.size();
+            numJudged++;
+        }
+
+        int divisor = Math.max(1, numJudged);
+
+        System.out.println("\nRelevance over " + numJudged + " judged queries (title boost " + boostTitle
+                + ", abstract boost " + boostAbstract + ", " + data.GetSimilarity().Name() + "):\n");
+        System.out.format("%-12s %.4f\n", "MAP", sumAP / divisor);
+        System.out.format("%-12s %.4f\n", "P@" + CUTOFF, sumPAtK / divisor);
+        System.out.format("%-12s %.4f\n", "nDCG@" + CUTOFF, sumNDCG / divisor);
+        System.out.format("%-12s %.4f\n", "Recall@" + RECALL_CUTOFF, sumRecall / divisor);
+
+        // Warm up the JIT before timing
+        for (String queryID : queryIDs) {
+            data.CalcCSS(data.GetQuery(queryID), boostTitle, boostAbstract, CUTOFF);
+        }
+
+        long[] latencies = new long[queryIDs.size() * timedRounds];
+        int numTimed = 0;
+        long startRun = System.nanoTime();
+        for (int round = 0; round < timedRounds; round++) {
+            for (String queryID : queryIDs) {
+                long startQuery = System.nanoTime();
+                data.CalcCSS(data.GetQuery(queryID), boostTitle, boostAbstract, CUTOFF);
+                latencies[numTimed++] = System.nanoTime() - startQuery;
+            }
+        }
+        long endRun = System.nanoTime();
+        Arrays.sort(latencies, 0, numTimed);
+
+        System.out.println("\nThroughput over " + numTimed + " timed queries (top " + CUTOFF + "):\n");
+        System.out.format("%-12s %.1f\n", "queries/sec",
+                numTimed / VectorSpaceModelIR.DeltaNanoToSec(endRun, startRun));
+        System.out.format("%-12s %.3f ms\n", "p50", Percentile(latencies, numTimed, 50) / 1e6);
+        System.out.format("%-12s %.3f ms\n", "p95", Percentile(latencies, numTimed, 95) / 1e6);
+        System.out.format("%-12s %.3f ms\n", "p99", Percentile(latencies, numTimed, 99) / 1e6);
+        System.out.println();
+    }
+
+    /*
+     *
+     * HELPER METHODS
+     *
+     */
+
+    // Relevancy code 1 (complete answer) gains 4, down to code 4 gaining 1
+    static double Gain(int code) {
+        return 5 - code;
+    }
+
+    static double Log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    // DCG of the best possible ranking of the judged documents
+    static double IdealDCG(TreeMap<Integer, Integer> judgements) {
+        double[] gains = new double[judgements.size()];
+        int i = 0;
+        for (int code : judgements.values()) {
+            gains[i++] = Gain(code);
+        }
+        Arrays.sort(gains);
+
+        double idcg = 0;
+        for (int rank = 1; rank <= Math.min(CUTOFF, gains.length); rank++) {
+            idcg += gains[gains.length - rank] / Log2(rank + 1);
+        }
+        return idcg;
+    }
+
+    // Nearest-rank percentile of the first n sorted values
+    static long Percentile(long[] sorted, int n, int percentile) {
+        if (n == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * n);
+        return sorted[Math.max(0, Math.min(n, rank) - 1)];
+    }
+}
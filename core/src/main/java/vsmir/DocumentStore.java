@@ -0,0 +1,309 @@
+/*
+    Stored text of every document of an index: its title, abstract,
+    authors and bibliography, kept for display and snippets rather than
+    scoring.
+
+    The text is UTF-8 bytes packed back to back outside the heap, in a
+    direct buffer once built and in the mapped segment file once opened,
+    with an offset table keyed by dense doc: field f of doc d is the bytes
+    bytes[offsets[d * NUM_FIELDS + f] .. offsets[d * NUM_FIELDS + f + 1]).
+    Fields are in InvertedIndex field order. The title is kept as its
+    words separated by spaces, as it has always been displayed; the other
+    fields as the lines of their section.
+
+    Field() hands out a view of the bytes without copying them, so the
+    heap does not grow with the stored text however large the corpus.
+*/
+
+package vsmir;
+
+// Java
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class DocumentStore {
+    private static final int NUM_FIELDS = InvertedIndex.NUM_FIELDS;
+
+    private final int numDocs;
+    private final ByteBuffer bytes;
+    private final IntBuffer offsets;
+
+    DocumentStore(ByteBuffer bytes, IntBuffer offsets) {
+        this.numDocs = (offsets.limit() - 1) / NUM_FIELDS;
+        this.bytes = bytes;
+        this.offsets = offsets;
+    }
+
+    int NumDocs() {
+        return this.numDocs;
+    }
+
+    // Read-only view of the UTF-8 bytes of a field of a document, nothing is copied
+    ByteBuffer Field(int doc, int field) {
+        int i = doc * NUM_FIELDS + field;
+        int start = this.offsets.get(i);
+        return this.bytes.slice(start, this.offsets.get(i + 1) - start).asReadOnlyBuffer();
+    }
+
+    // Same as above, decoded
+    String Text(int doc, int field) {
+        int i = doc * NUM_FIELDS + field;
+        int start = this.offsets.get(i);
+        byte[] text = new byte[this.offsets.get(i + 1) - start];
+        this.bytes.get(start, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    // Whether the offset table covers numDocs documents and stays inside the bytes
+    boolean Matches(int numDocs) {
+        return this.offsets.limit() == numDocs * NUM_FIELDS + 1
+                && this.offsets.get(this.offsets.limit() - 1) <= this.bytes.limit();
+    }
+
+    // The sections of a segment file, as InvertedIndex writes and checksums them
+    ByteBuffer Bytes() {
+        return this.bytes.duplicate().clear();
+    }
+
+    IntBuffer Offsets() {
+        return this.offsets.duplicate().clear();
+    }
+
+    /*
+     *
+     * BUILDER
+     *
+     * Collects the stored fields of documents as they are indexed, in any
+     * DocID order, appending each document's fields to one growing buffer
+     * with its DocID and position in two int arrays. A DocID added again
+     * replaces what was added before it, as a later record in the corpus
+     * always has. Build() sorts them by DocID and packs them into a store.
+     *
+     * The fields of the document being read are only referenced, not
+     * copied, until FinishDoc; they must stay unchanged until then.
+     *
+     */
+    static final class Builder {
+        // Entry layout in the buffer: for every field, its length as an int and then its bytes
+        private ByteBuffer bytes;
+        private final boolean direct;
+
+        private int[] entryDocIDs = new int[64];
+        private int[] entryStarts = new int[64];
+        private int numEntries;
+
+        // Entry of every distinct DocID, by DocID, null until needed after a change
+        private int[] sorted;
+
+        // Fields of the document being read, as byte ranges of some buffer
+        private final ByteBuffer[] fieldSources = new ByteBuffer[NUM_FIELDS];
+        private final int[] fieldFrom = new int[NUM_FIELDS];
+        private final int[] fieldTo = new int[NUM_FIELDS];
+
+        /*
+         * A direct builder keeps the text outside the heap, for the
+         * long-lived builder of a whole corpus; short-lived ones (a batch
+         * of records, a stream run) are better off on the heap
+         */
+        Builder(boolean direct) {
+            this.direct = direct;
+            this.bytes = Allocate(direct ? 1 << 16 : 1 << 12, direct);
+        }
+
+        // A field of the document being read, the bytes bytes[from .. to) without surrounding white space
+        void SetField(int field, ByteBuffer bytes, int from, int to) {
+            while (from < to && IsSpace(bytes.get(from))) {
+                from++;
+            }
+            while (to > from && IsSpace(bytes.get(to - 1))) {
+                to--;
+            }
+            this.fieldSources[field] = bytes;
+            this.fieldFrom[field] = from;
+            this.fieldTo[field] = to;
+        }
+
+        void SetField(int field, String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            SetField(field, ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+
+        /*
+         * Add the document whose fields were set since the last FinishDoc,
+         * under docID. A document without a title is not added, as it has
+         * never been; fields never set are stored empty.
+         */
+        void FinishDoc(int docID) {
+            if (this.fieldSources[InvertedIndex.TITLE] != null) {
+                int length = 0;
+                for (int field = 0; field < NUM_FIELDS; field++) {
+                    length += 4 + (this.fieldSources[field] == null ? 0 : this.fieldTo[field] - this.fieldFrom[field]);
+                }
+                StartEntry(docID, length);
+                for (int field = 0; field < NUM_FIELDS; field++) {
+                    ByteBuffer source = this.fieldSources[field];
+                    if (source == null) {
+                        this.bytes.putInt(0);
+                    } else {
+                        this.bytes.putInt(this.fieldTo[field] - this.fieldFrom[field]);
+                        this.bytes.put(source.duplicate().limit(this.fieldTo[field]).position(this.fieldFrom[field]));
+                    }
+                }
+            }
+            Arrays.fill(this.fieldSources, null);
+        }
+
+        // Add doc of a store under docID
+        void Add(int docID, DocumentStore store, int doc) {
+            int start = store.offsets.get(doc * NUM_FIELDS);
+            int end = store.offsets.get(doc * NUM_FIELDS + NUM_FIELDS);
+            StartEntry(docID, NUM_FIELDS * 4 + end - start);
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                ByteBuffer text = store.Field(doc, field);
+                this.bytes.putInt(text.remaining());
+                this.bytes.put(text);
+            }
+        }
+
+        // Fold a builder holding later documents into this one
+        void Merge(Builder later) {
+            ByteBuffer laterBytes = later.bytes.duplicate().flip();
+            Reserve(laterBytes.remaining());
+            int base = this.bytes.position();
+            this.bytes.put(laterBytes);
+            for (int i = 0; i < later.numEntries; i++) {
+                AddEntry(later.entryDocIDs[i], base + later.entryStarts[i]);
+            }
+        }
+
+        boolean IsEmpty() {
+            return this.numEntries == 0;
+        }
+
+        // Distinct DocIDs added
+        int Size() {
+            return Sorted().length;
+        }
+
+        // Bytes of stored text and lengths held, for estimating memory use
+        long Bytes() {
+            return this.bytes.position();
+        }
+
+        // The distinct DocIDs, ascending
+        int[] DocIDs() {
+            int[] sorted = Sorted();
+            int[] docIDs = new int[sorted.length];
+            for (int doc = 0; doc < sorted.length; doc++) {
+                docIDs[doc] = this.entryDocIDs[sorted[doc]];
+            }
+            return docIDs;
+        }
+
+        // Store of the last fields added for each DocID, dense docs in the order of DocIDs()
+        DocumentStore Build() {
+            return Build(true);
+        }
+
+        // Same as above, on the heap unless direct, for a store that is only passed through
+        DocumentStore Build(boolean direct) {
+            int[] sorted = Sorted();
+            long size = 0;
+            for (int entry : sorted) {
+                size += EntryEnd(entry) - this.entryStarts[entry] - NUM_FIELDS * 4;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Stored text larger than 2 GB");
+            }
+
+            ByteBuffer bytes = Allocate((int) size, direct);
+            IntBuffer offsets = Allocate((sorted.length * NUM_FIELDS + 1) * 4, direct).asIntBuffer();
+            offsets.put(0);
+            ByteBuffer source = this.bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            for (int entry : sorted) {
+                int position = this.entryStarts[entry];
+                for (int field = 0; field < NUM_FIELDS; field++) {
+                    int length = source.getInt(position);
+                    position += 4;
+                    bytes.put(source.limit(position + length).position(position));
+                    source.limit(source.capacity());
+                    position += length;
+                    offsets.put(bytes.position());
+                }
+            }
+            return new DocumentStore(bytes.clear(), offsets.clear());
+        }
+
+        private void StartEntry(int docID, int length) {
+            Reserve(length);
+            AddEntry(docID, this.bytes.position());
+        }
+
+        private void AddEntry(int docID, int start) {
+            if (this.numEntries == this.entryDocIDs.length) {
+                this.entryDocIDs = Arrays.copyOf(this.entryDocIDs, this.numEntries * 2);
+                this.entryStarts = Arrays.copyOf(this.entryStarts, this.numEntries * 2);
+            }
+            this.entryDocIDs[this.numEntries] = docID;
+            this.entryStarts[this.numEntries] = start;
+            this.numEntries++;
+            this.sorted = null;
+        }
+
+        private int EntryEnd(int entry) {
+            return entry + 1 < this.numEntries ? this.entryStarts[entry + 1] : this.bytes.position();
+        }
+
+        /*
+         * The last entry of every DocID, by DocID. Entries are sorted on
+         * DocID and then entry number packed into a long, so that of equal
+         * DocIDs the one added last comes last.
+         */
+        private int[] Sorted() {
+            if (this.sorted == null) {
+                long[] keys = new long[this.numEntries];
+                for (int i = 0; i < this.numEntries; i++) {
+                    keys[i] = ((long) this.entryDocIDs[i] << 32) | i;
+                }
+                Arrays.sort(keys);
+                int[] sorted = new int[this.numEntries];
+                int count = 0;
+                for (int i = 0; i < keys.length; i++) {
+                    if (i + 1 < keys.length && (keys[i + 1] >> 32) == (keys[i] >> 32)) {
+                        continue;
+                    }
+                    sorted[count++] = (int) keys[i];
+                }
+                this.sorted = Arrays.copyOf(sorted, count);
+            }
+            return this.sorted;
+        }
+
+        // Room for bytes more, doubling the buffer as needed
+        private void Reserve(int bytes) {
+            if (this.bytes.remaining() >= bytes) {
+                return;
+            }
+            long needed = (long) this.bytes.position() + bytes;
+            if (needed > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Stored text larger than 2 GB");
+            }
+            int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(needed, 2L * this.bytes.capacity()));
+            ByteBuffer grown = Allocate(capacity, this.direct);
+            grown.put(this.bytes.flip());
+            this.bytes = grown;
+        }
+    }
+
+    private static ByteBuffer Allocate(int capacity, boolean direct) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static boolean IsSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f';
+    }
+}
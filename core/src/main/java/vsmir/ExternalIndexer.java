@@ -0,0 +1,555 @@
+/*
+    Builds a segment file from a corpus too large to index in memory.
+
+    Records are read one at a time, from a file or standard input, and
+    indexed into an in-memory run exactly as BuildData would. When the
+    estimated size of the run reaches the memory budget, the run is
+    written to a temp file sorted by DocID and term, and a new one is
+    started. At the end the runs are merged k ways straight into the
+    segment file by InvertedIndex.SegmentWriter. With more than
+    MERGE_FAN_IN runs, passes first merge them MERGE_FAN_IN at a time
+    into fewer, longer runs, so neither the open files nor the read
+    buffers grow with the corpus.
+
+    The heap only ever holds one run, or the read buffers of the runs
+    being merged, however big the corpus. The segment is the same, byte
+    for byte, as index mode writes for the same corpus.
+*/
+
+package vsmir;
+
+// Java
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+final class ExternalIndexer {
+    static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+
+    /*
+     * Rough heap cost of a run: a TreeMap entry with a boxed DocID and
+     * count per posting, a String and a TreeMap per term, and the stored
+     * text of each document with its DocID, position and field lengths.
+     * Terms shared by batches are counted again for each batch, so runs
+     * come out a little smaller than this.
+     */
+    static final int POSTING_BYTES = 80;
+    static final int TERM_BYTES = 160;
+    static final int DOCUMENT_BYTES = 8;
+
+    // Most runs open at once during a merge
+    static final int MERGE_FAN_IN = 64;
+
+    // Buffers of the runs a merge reads and writes take at most a quarter of the budget, within these bounds
+    static final int MIN_RUN_BUFFER = 512;
+    static final int MAX_RUN_BUFFER = 64 << 10;
+
+    private final VectorSpaceModelIR model;
+    private final long memoryBudget;
+    private final int mergeFanIn;
+    private final Path tempDir;
+
+    private final ArrayList<Path> runs = new ArrayList<Path>();
+    private long numRecords;
+    private int numRuns;
+
+    /*
+     * Runs and sections are written to a new directory inside tempDir,
+     * which is removed again when Index returns
+     */
+    ExternalIndexer(VectorSpaceModelIR model, long memoryBudget, Path tempDir) {
+        this(model, memoryBudget, MERGE_FAN_IN, tempDir);
+    }
+
+    // Same as above, merging at most mergeFanIn runs at once
+    ExternalIndexer(VectorSpaceModelIR model, long memoryBudget, int mergeFanIn, Path tempDir) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be greater than 0");
+        }
+        if (mergeFanIn < 2) {
+            throw new IllegalArgumentException("A merge must read at least 2 runs");
+        }
+        this.model = model;
+        this.memoryBudget = memoryBudget;
+        this.mergeFanIn = mergeFanIn;
+        this.tempDir = tempDir;
+    }
+
+    /*
+     * Index every record of input into a segment file at segmentPath,
+     * replacing the file if it exists
+     */
+    void Index(BufferedReader input, String segmentPath) throws IOException {
+        long start = Metrics.Enabled() ? System.nanoTime() : 0;
+        Path workDir = Files.createTempDirectory(this.tempDir, "vsmir-index");
+        try {
+            VectorSpaceModelIR.RecordReader records = new VectorSpaceModelIR.RecordReader(input);
+            VectorSpaceModelIR.IndexShard run = new VectorSpaceModelIR.IndexShard();
+            long runBytes = 0;
+
+            ArrayList<ArrayList<String>> batch = new ArrayList<ArrayList<String>>();
+            for (ArrayList<String> record = records.Next(); record != null; record = records.Next()) {
+                batch.add(record);
+                this.numRecords++;
+                if (batch.size() == VectorSpaceModelIR.RECORDS_PER_BATCH) {
+                    runBytes += AddBatch(batch, run);
+                    batch = new ArrayList<ArrayList<String>>();
+                    if (runBytes >= this.memoryBudget) {
+                        WriteRun(run, workDir);
+                        run = new VectorSpaceModelIR.IndexShard();
+                        runBytes = 0;
+                    }
+                }
+            }
+            AddBatch(batch, run);
+            if (!run.IsEmpty() || this.runs.isEmpty()) {
+                WriteRun(run, workDir);
+            }
+            run = null;
+
+            MergeRuns(segmentPath, workDir);
+            if (start != 0) {
+                Metrics.Get().RecordPhase(Metrics.PHASE_BUILD_DATA, System.nanoTime() - start);
+            }
+        } finally {
+            for (Path runPath : this.runs) {
+                Files.deleteIfExists(runPath);
+            }
+            this.runs.clear();
+            Files.deleteIfExists(workDir);
+        }
+    }
+
+    long NumRecords() {
+        return this.numRecords;
+    }
+
+    int NumRuns() {
+        return this.numRuns;
+    }
+
+    /*
+     * Index a batch of records into the run, returning its estimated size
+     */
+    private long AddBatch(ArrayList<ArrayList<String>> batch, VectorSpaceModelIR.IndexShard run) {
+        VectorSpaceModelIR.IndexShard shard = new VectorSpaceModelIR.IndexShard();
+        this.model.IndexRecords(batch, shard);
+
+        long bytes = (long) DOCUMENT_BYTES * shard.documents.Size() + shard.documents.Bytes();
+        for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+            for (TreeMap<Integer, Integer> termDocFreq : shard.termFreqs[field].values()) {
+                bytes += TERM_BYTES + (long) POSTING_BYTES * termDocFreq.size();
+            }
+            for (TreeMap<Integer, Integer> termOccurrences : shard.occurrences[field].values()) {
+                bytes += TERM_BYTES + (long) POSTING_BYTES * termOccurrences.size();
+            }
+        }
+
+        run.Merge(shard);
+        return bytes;
+    }
+
+    /*
+     *
+     * RUN FILES
+     *
+     * Layout, written with DataOutputStream:
+     *
+     *   for every document by DocID: the DocID and its stored fields,
+     *   then -1
+     *   for every term in order: the term, and for each field its
+     *   postings as (DocID, raw TF, occurrences) followed by -1; then -1
+     *
+     * Strings and stored fields are their UTF-8 length followed by the
+     * bytes. Ending each list with -1 rather than starting it with a count
+     * lets a merge pass write a run as it goes.
+     *
+     */
+
+    private void WriteRun(VectorSpaceModelIR.IndexShard run, Path workDir) throws IOException {
+        this.numRuns++;
+        try (RunWriter out = new RunWriter(NewRun(workDir), MAX_RUN_BUFFER)) {
+            int[] docIDs = run.documents.DocIDs();
+            DocumentStore store = run.documents.Build(false);
+            byte[][] fields = new byte[InvertedIndex.NUM_FIELDS][];
+            for (int doc = 0; doc < docIDs.length; doc++) {
+                for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                    ByteBuffer text = store.Field(doc, field);
+                    fields[field] = new byte[text.remaining()];
+                    text.get(fields[field]);
+                }
+                out.AddDoc(docIDs[doc], fields);
+            }
+            out.FinishDocs();
+
+            // Terms of any field, walking every map in step
+            TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs = run.termFreqs;
+            for (String term = FirstTerm(termFreqs); term != null; term = NextTerm(termFreqs, term)) {
+                out.StartTerm(term);
+                for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                    TreeMap<Integer, Integer> termDocFreq = termFreqs[field].get(term);
+                    if (termDocFreq == null) {
+                        continue;
+                    }
+                    TreeMap<Integer, Integer> termOccurrences = run.occurrences[field].get(term);
+                    for (Map.Entry<Integer, Integer> posting : termDocFreq.entrySet()) {
+                        Integer occurrences = termOccurrences == null ? null : termOccurrences.get(posting.getKey());
+                        out.AddPosting(field, posting.getKey(), posting.getValue(),
+                                occurrences == null ? posting.getValue() : occurrences);
+                    }
+                }
+                out.FinishTerm();
+            }
+        }
+    }
+
+    // A new, empty run file, removed with the others when Index returns
+    private Path NewRun(Path workDir) throws IOException {
+        Path runPath = Files.createTempFile(workDir, "run", ".tmp");
+        this.runs.add(runPath);
+        return runPath;
+    }
+
+    private static String FirstTerm(TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs) {
+        String first = null;
+        for (TreeMap<String, TreeMap<Integer, Integer>> termFreq : termFreqs) {
+            if (!termFreq.isEmpty() && (first == null || termFreq.firstKey().compareTo(first) < 0)) {
+                first = termFreq.firstKey();
+            }
+        }
+        return first;
+    }
+
+    private static String NextTerm(TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs, String term) {
+        String next = null;
+        for (TreeMap<String, TreeMap<Integer, Integer>> termFreq : termFreqs) {
+            String higher = termFreq.higherKey(term);
+            if (higher != null && (next == null || higher.compareTo(next) < 0)) {
+                next = higher;
+            }
+        }
+        return next;
+    }
+
+    private static void WriteString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] ReadBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /*
+     *
+     * K-WAY MERGE
+     *
+     * Every run is read front to back once per pass: first the documents
+     * of the runs are merged by DocID, then their terms by term, and
+     * within a term the postings of each field by DocID. A DocID found in
+     * several runs is treated as BuildData treats it, the last stored
+     * fields win and the counts are added up. Passes merge neighbouring
+     * runs and keep them in order, so the last run stays the last.
+     *
+     */
+
+    private void MergeRuns(String segmentPath, Path workDir) throws IOException {
+        // Buffers of the runs read plus the run written
+        int bufferSize = (int) Math.max(MIN_RUN_BUFFER,
+                Math.min(MAX_RUN_BUFFER, this.memoryBudget / 4 / (this.mergeFanIn + 1)));
+
+        while (this.runs.size() > this.mergeFanIn) {
+            int numRuns = this.runs.size();
+            for (int from = 0; from < numRuns; from += this.mergeFanIn) {
+                ArrayList<Path> group = new ArrayList<Path>(
+                        this.runs.subList(from, Math.min(from + this.mergeFanIn, numRuns)));
+                try (RunWriter out = new RunWriter(NewRun(workDir), bufferSize)) {
+                    Merge(group, bufferSize, out);
+                }
+                for (Path runPath : group) {
+                    Files.delete(runPath);
+                }
+            }
+            this.runs.subList(0, numRuns).clear();
+        }
+
+        try (InvertedIndex.SegmentWriter writer = new InvertedIndex.SegmentWriter(workDir)) {
+            Merge(this.runs, bufferSize, new SegmentOutput(writer));
+            writer.Finish(segmentPath);
+        }
+    }
+
+    private static void Merge(ArrayList<Path> runs, int bufferSize, MergeOutput out) throws IOException {
+        ArrayList<RunReader> readers = new ArrayList<RunReader>();
+        try {
+            for (int r = 0; r < runs.size(); r++) {
+                readers.add(new RunReader(runs.get(r), r, bufferSize));
+            }
+
+            // Ties go to the earlier run, so the later run's fields are taken last
+            PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+                    Comparator.comparingInt((RunReader reader) -> reader.docID).thenComparingInt(reader -> reader.run));
+            for (RunReader reader : readers) {
+                if (reader.NextDoc()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int docID = queue.peek().docID;
+                byte[][] fields = null;
+                while (!queue.isEmpty() && queue.peek().docID == docID) {
+                    RunReader reader = queue.poll();
+                    fields = reader.fields;
+                    if (reader.NextDoc()) {
+                        queue.add(reader);
+                    }
+                }
+                out.AddDoc(docID, fields);
+            }
+            out.FinishDocs();
+
+            PriorityQueue<RunReader> terms = new PriorityQueue<RunReader>(
+                    Comparator.comparing((RunReader reader) -> reader.term).thenComparingInt(reader -> reader.run));
+            PriorityQueue<RunReader> postings = new PriorityQueue<RunReader>(
+                    Comparator.comparingInt((RunReader reader) -> reader.postingDocID));
+            ArrayList<RunReader> atTerm = new ArrayList<RunReader>();
+            for (RunReader reader : readers) {
+                if (reader.NextTerm()) {
+                    terms.add(reader);
+                }
+            }
+            while (!terms.isEmpty()) {
+                String term = terms.peek().term;
+                atTerm.clear();
+                while (!terms.isEmpty() && terms.peek().term.equals(term)) {
+                    atTerm.add(terms.poll());
+                }
+
+                out.StartTerm(term);
+                for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                    for (RunReader reader : atTerm) {
+                        if (reader.NextPosting()) {
+                            postings.add(reader);
+                        }
+                    }
+                    while (!postings.isEmpty()) {
+                        int docID = postings.peek().postingDocID;
+                        int rawTF = 0;
+                        int occurrences = 0;
+                        while (!postings.isEmpty() && postings.peek().postingDocID == docID) {
+                            RunReader reader = postings.poll();
+                            rawTF += reader.postingTF;
+                            occurrences += reader.postingOccurrences;
+                            if (reader.NextPosting()) {
+                                postings.add(reader);
+                            }
+                        }
+                        out.AddPosting(field, docID, rawTF, occurrences);
+                    }
+                }
+                out.FinishTerm();
+
+                for (RunReader reader : atTerm) {
+                    if (reader.NextTerm()) {
+                        terms.add(reader);
+                    }
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+
+    /*
+     * Where a merge goes, in the order the merge produces it: documents by
+     * DocID, then terms in order with the postings of each field by DocID
+     */
+    private interface MergeOutput {
+        void AddDoc(int docID, byte[][] fields) throws IOException;
+
+        void FinishDocs() throws IOException;
+
+        void StartTerm(String term) throws IOException;
+
+        void AddPosting(int field, int docID, int rawTF, int occurrences) throws IOException;
+
+        void FinishTerm() throws IOException;
+    }
+
+    // The last merge, into the segment
+    private static final class SegmentOutput implements MergeOutput {
+        private final InvertedIndex.SegmentWriter writer;
+
+        SegmentOutput(InvertedIndex.SegmentWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void AddDoc(int docID, byte[][] fields) throws IOException {
+            this.writer.AddDoc(docID, fields);
+        }
+
+        @Override
+        public void FinishDocs() throws IOException {
+            this.writer.FinishDocs();
+        }
+
+        @Override
+        public void StartTerm(String term) throws IOException {
+            this.writer.StartTerm(term);
+        }
+
+        @Override
+        public void AddPosting(int field, int docID, int rawTF, int occurrences) throws IOException {
+            int doc = this.writer.Doc(docID);
+            if (doc < 0) {
+                throw new IOException("DocID " + docID + " has terms but no title");
+            }
+            this.writer.AddPosting(field, doc, rawTF, occurrences);
+        }
+
+        @Override
+        public void FinishTerm() throws IOException {
+            this.writer.FinishTerm();
+        }
+    }
+
+    /*
+     * Writes a run file, from a run in memory or from a merge pass. Fields
+     * of a term are ended as postings move on to the next field.
+     */
+    private static final class RunWriter implements MergeOutput, Closeable {
+        private final DataOutputStream out;
+        // Field the postings of the current term are in, NUM_FIELDS once every field is ended
+        private int field;
+
+        RunWriter(Path runPath, int bufferSize) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runPath), bufferSize));
+        }
+
+        @Override
+        public void AddDoc(int docID, byte[][] fields) throws IOException {
+            this.out.writeInt(docID);
+            for (byte[] text : fields) {
+                this.out.writeInt(text.length);
+                this.out.write(text);
+            }
+        }
+
+        @Override
+        public void FinishDocs() throws IOException {
+            this.out.writeInt(-1);
+        }
+
+        @Override
+        public void StartTerm(String term) throws IOException {
+            WriteString(this.out, term);
+            this.field = 0;
+        }
+
+        @Override
+        public void AddPosting(int field, int docID, int rawTF, int occurrences) throws IOException {
+            EndFieldsBefore(field);
+            this.out.writeInt(docID);
+            this.out.writeInt(rawTF);
+            this.out.writeInt(occurrences);
+        }
+
+        @Override
+        public void FinishTerm() throws IOException {
+            EndFieldsBefore(InvertedIndex.NUM_FIELDS);
+        }
+
+        // Ends the terms and closes the file
+        @Override
+        public void close() throws IOException {
+            try {
+                this.out.writeInt(-1);
+            } finally {
+                this.out.close();
+            }
+        }
+
+        private void EndFieldsBefore(int field) throws IOException {
+            for (; this.field < field; this.field++) {
+                this.out.writeInt(-1);
+            }
+        }
+    }
+
+    /*
+     * Reads a run file front to back, holding its current document, term
+     * and posting
+     */
+    private static final class RunReader {
+        final DataInputStream in;
+        final int run;
+
+        int docID;
+        byte[][] fields;
+
+        String term;
+
+        int postingDocID;
+        int postingTF;
+        int postingOccurrences;
+
+        RunReader(Path runPath, int run, int bufferSize) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runPath), bufferSize));
+            this.run = run;
+        }
+
+        boolean NextDoc() throws IOException {
+            this.docID = this.in.readInt();
+            if (this.docID < 0) {
+                return false;
+            }
+            this.fields = new byte[InvertedIndex.NUM_FIELDS][];
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                this.fields[field] = ReadBytes(this.in);
+            }
+            return true;
+        }
+
+        // Only once every field of the current term has been read
+        boolean NextTerm() throws IOException {
+            int length = this.in.readInt();
+            if (length < 0) {
+                return false;
+            }
+            byte[] bytes = new byte[length];
+            this.in.readFully(bytes);
+            this.term = new String(bytes, StandardCharsets.UTF_8);
+            return true;
+        }
+
+        // The next posting of the current field, moving on to the next field once it is done
+        boolean NextPosting() throws IOException {
+            this.postingDocID = this.in.readInt();
+            if (this.postingDocID < 0) {
+                return false;
+            }
+            this.postingTF = this.in.readInt();
+            this.postingOccurrences = this.in.readInt();
+            return true;
+        }
+    }
+}
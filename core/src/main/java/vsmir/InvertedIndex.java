@@ -0,0 +1,1289 @@
+/*
+    Frozen, array-backed inverted index for the Vector Space
+    Information Retrieval model.
+
+    Built once from the TreeMaps filled by BuildData, after which
+    those maps can be released. The index can be written to a
+    segment file and opened again with FileChannel.map, in which
+    case it is queried in place from the mapped file.
+
+    Every SMART field (.T, .W, .A, .B) is indexed under one shared term
+    dictionary. Each term has a single postings list over all fields,
+    with the raw TF of every field a document has the term in, and its
+    true number of occurrences where the corpus reader counted it
+    otherwise, so a query term is read once however many fields are
+    scored. Document frequencies, norms, score bounds and field lengths
+    are kept per field, so any Similarity can score the same index.
+*/
+
+package vsmir;
+
+// Java
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32C;
+
+public class InvertedIndex {
+    /*
+     *
+     * FIELDS
+     *
+     */
+
+    static final int TITLE = 0;
+    static final int ABSTRACT = 1;
+    static final int AUTHORS = 2;
+    static final int BIBLIOGRAPHY = 3;
+    static final int NUM_FIELDS = 4;
+
+    static final String[] FIELD_NAMES = { "title", "abstract", "authors", "bibliography" };
+
+    // Every field, as a bit mask of fields
+    static final int ALL_FIELDS = (1 << NUM_FIELDS) - 1;
+
+    /*
+     * Documents are renumbered densely from 0 to numDocs - 1 in ascending
+     * order of their .I docID, so internal order matches external order.
+     */
+    private final int numDocs;
+
+    // Dense doc -> DocID from the corpus
+    private final IntBuffer docIDs;
+
+    // Dense doc -> title, abstract, authors and bibliography, packed outside the heap
+    private final DocumentStore store;
+
+    // Term dictionary: term -> dense term ID, in sorted term order and front coded
+    private final int numTerms;
+    private final TermDictionary terms;
+
+    /*
+     * Postings of all fields together. For term ID t, its postings are the
+     * bytes postings[postingsOffsets[t] .. postingsOffsets[t + 1]), one
+     * entry per document having the term in any field, encoded as
+     * variable-byte docGap, fields, then the raw TF of each field in
+     * fields: docGap is the difference between consecutive dense docs and
+     * fields a bit mask, 1 << field for every field the doc has the term
+     * in. Each raw TF is shifted left by one, the low bit set when the
+     * term occurs a different number of times than the TF counts (see
+     * VectorSpaceModelIR.CountSectionTerms), in which case that number
+     * follows. docFreqs[f][t] counts the entries with field f.
+     */
+    private final IntBuffer[] docFreqs;
+    private final IntBuffer postingsOffsets;
+    private final ByteBuffer postings;
+
+    /*
+     * Skip pointers into the postings, one after every SKIP_INTERVAL
+     * entries of a list: term t has the pointers skipOffsets[t] ..
+     * skipOffsets[t + 1] - 1, pointer p being the int pair skips[2p]
+     * (the doc of the entry before it) and skips[2p + 1] (where the next
+     * entry starts, from the start of the list). PostingsIterator.Advance
+     * jumps over whole runs of entries with them.
+     */
+    private final IntBuffer skipOffsets;
+    private final IntBuffer skips;
+    static final int SKIP_INTERVAL = 64;
+
+    /*
+     * Per field L2 norm of every document's full TF-IDF vector, so full
+     * cosine scoring never has to add up document weights per query
+     */
+    private final DoubleBuffer[] norms;
+
+    /*
+     * Per field, for every term, the largest TF(raw tf) / norm among its
+     * postings. Times the query side weight of the term, that bounds what
+     * the term adds to any document's full cosine, so whole documents can
+     * be skipped by the Searcher. Documents with a zero norm score 0 and
+     * are left out.
+     */
+    private final DoubleBuffer[] maxScores;
+
+    /*
+     * Per field length of every document, the number of term occurrences
+     * in the field, for the length normalization of BM25 and the pivoted
+     * document length
+     */
+    private final IntBuffer[] fieldLengths;
+
+    // Checksum of the sections recorded in the segment header, -1 if built in memory
+    private final long checksum;
+
+    /*
+     * Sections are kept either in heap arrays (after Build, the stored
+     * fields in direct buffers) or in views of a mapped segment file (after
+     * Open); the code reading them is the same.
+     */
+    private InvertedIndex(IntBuffer docIDs, DocumentStore store, TermDictionary terms, IntBuffer[] docFreqs,
+            IntBuffer postingsOffsets, ByteBuffer postings, IntBuffer skipOffsets, IntBuffer skips,
+            DoubleBuffer[] norms, DoubleBuffer[] maxScores, IntBuffer[] fieldLengths, long checksum) {
+        this.numDocs = docIDs.limit();
+        this.docIDs = docIDs;
+        this.store = store;
+        this.numTerms = terms.NumTerms();
+        this.terms = terms;
+        this.docFreqs = docFreqs;
+        this.postingsOffsets = postingsOffsets;
+        this.postings = postings;
+        this.skipOffsets = skipOffsets;
+        this.skips = skips;
+        this.norms = norms;
+        this.maxScores = maxScores;
+        this.fieldLengths = fieldLengths;
+        this.checksum = checksum;
+    }
+
+    /*
+     *
+     * Build the frozen index from the stored documents and the term
+     * frequency maps of every field, termFreqs[field] being
+     * TreeMap<Term, TreeMap<DocID, Raw TF>>, and occurrences[field] the
+     * true number of occurrences where that differs (see IndexShard)
+     *
+     */
+    static InvertedIndex Build(DocumentStore.Builder documents,
+            TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs,
+            TreeMap<String, TreeMap<Integer, Integer>>[] occurrences) {
+        return Build(documents, termFreqs, occurrences, null);
+    }
+
+    /*
+     * Same as above, taking the document norms from the TF-IDF weights
+     * CalcTFXIDF worked out for the same maps, one TermWeights per field,
+     * instead of weighting every posting again. Weights that do not match
+     * the maps (null, or made before documents were added) are not used.
+     */
+    static InvertedIndex Build(DocumentStore.Builder documents,
+            TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs,
+            TreeMap<String, TreeMap<Integer, Integer>>[] occurrences, TermWeights[] fieldWeights) {
+        // Dense doc numbering and packed stored fields
+        int[] docIDs = documents.DocIDs();
+        int numDocs = docIDs.length;
+        DocumentStore store = documents.Build();
+
+        // Weights per field if they fit, and the term of each field's weights the loop below is on
+        TermWeights[] weights = new TermWeights[NUM_FIELDS];
+        for (int field = 0; field < NUM_FIELDS && fieldWeights != null; field++) {
+            if (fieldWeights[field].Matches(numDocs, termFreqs[field])) {
+                weights[field] = fieldWeights[field];
+            }
+        }
+        int[] weightTerms = new int[NUM_FIELDS];
+
+        // Term dictionary over the union of the terms of every field
+        TreeSet<String> terms = new TreeSet<String>();
+        for (int field = 0; field < NUM_FIELDS; field++) {
+            terms.addAll(termFreqs[field].keySet());
+        }
+
+        int numTerms = terms.size();
+        int[] blockOffsets = new int[TermDictionary.NumBlocks(numTerms)];
+        ByteArrayBuilder termBuilder = new ByteArrayBuilder(numTerms * 4);
+        TermDictionary.Encoder termEncoder = new TermDictionary.Encoder();
+
+        int[][] docFreqs = new int[NUM_FIELDS][numTerms];
+        int[] postingsOffsets = new int[numTerms + 1];
+        // Document norms per field, summed as squares until every term is in, and field lengths
+        double[][] docNorms = new double[NUM_FIELDS][numDocs];
+        int[][] docLengths = new int[NUM_FIELDS][numDocs];
+        ByteArrayBuilder postingsBuilder = new ByteArrayBuilder(numTerms * 32);
+        TermPostings termPostings = new TermPostings();
+        int[] skipOffsets = new int[numTerms + 1];
+        int[] skips = new int[16];
+        int numSkipInts = 0;
+
+        int termID = 0;
+        for (String term : terms) {
+            if (termEncoder.StartsBlock()) {
+                blockOffsets[termID / TermDictionary.TERMS_PER_BLOCK] = termBuilder.Size();
+            }
+            termEncoder.Encode(term.getBytes(StandardCharsets.UTF_8), termBuilder);
+
+            termPostings.Clear();
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                TreeMap<Integer, Integer> termDocFreq = termFreqs[field].get(term);
+                AddPostings(termDocFreq, occurrences[field].get(term), docIDs, field, termPostings, docNorms[field],
+                        docLengths[field], weights[field], termDocFreq == null ? -1 : weightTerms[field]++);
+                docFreqs[field][termID] = termPostings.DocFreq(field);
+            }
+            termPostings.Encode(postingsBuilder);
+            postingsOffsets[termID + 1] = postingsBuilder.Size();
+
+            int termSkipInts = 2 * termPostings.NumSkips();
+            if (numSkipInts + termSkipInts > skips.length) {
+                skips = Arrays.copyOf(skips, Math.max(numSkipInts + termSkipInts, skips.length * 2));
+            }
+            for (int i = 0; i < termSkipInts; i++) {
+                skips[numSkipInts++] = termPostings.SkipInt(i);
+            }
+            skipOffsets[termID + 1] = numSkipInts / 2;
+            termID++;
+        }
+
+        IntBuffer[] docFreqBuffers = new IntBuffer[NUM_FIELDS];
+        ByteBuffer postings = ByteBuffer.wrap(postingsBuilder.ToArray());
+        DoubleBuffer[] norms = new DoubleBuffer[NUM_FIELDS];
+        DoubleBuffer[] maxScores = new DoubleBuffer[NUM_FIELDS];
+        IntBuffer[] fieldLengths = new IntBuffer[NUM_FIELDS];
+        for (int field = 0; field < NUM_FIELDS; field++) {
+            docFreqBuffers[field] = IntBuffer.wrap(docFreqs[field]);
+            VectorKernels.DEFAULT.Sqrt(docNorms[field], numDocs);
+            norms[field] = DoubleBuffer.wrap(docNorms[field]);
+            maxScores[field] = DoubleBuffer.allocate(numTerms);
+            fieldLengths[field] = IntBuffer.wrap(docLengths[field]);
+        }
+        ComputeMaxScores(IntBuffer.wrap(postingsOffsets), postings, norms, maxScores);
+
+        TermDictionary dictionary = new TermDictionary(numTerms, ByteBuffer.wrap(termBuilder.ToArray()),
+                IntBuffer.wrap(blockOffsets));
+        return new InvertedIndex(IntBuffer.wrap(docIDs), store, dictionary, docFreqBuffers,
+                IntBuffer.wrap(postingsOffsets), postings, IntBuffer.wrap(skipOffsets),
+                IntBuffer.wrap(skips, 0, numSkipInts).slice(), norms, maxScores, fieldLengths, -1);
+    }
+
+    // Empty term frequency maps, one per field
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static TreeMap<String, TreeMap<Integer, Integer>>[] NewTermFreqs() {
+        TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs = new TreeMap[NUM_FIELDS];
+        for (int field = 0; field < NUM_FIELDS; field++) {
+            termFreqs[field] = new TreeMap<String, TreeMap<Integer, Integer>>();
+        }
+        return termFreqs;
+    }
+
+    /*
+     * Build one index from the live documents of several, dropping the
+     * deleted ones (deleted[s] is null when segment s has none). Each
+     * DocID must be live in at most one of the segments.
+     */
+    static InvertedIndex Merge(InvertedIndex[] segments, BitSet[] deleted) {
+        DocumentStore.Builder documents = new DocumentStore.Builder(false);
+        TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs = NewTermFreqs();
+        TreeMap<String, TreeMap<Integer, Integer>>[] occurrences = NewTermFreqs();
+
+        for (int s = 0; s < segments.length; s++) {
+            InvertedIndex segment = segments[s];
+            BitSet segmentDeleted = deleted[s];
+            for (int doc = 0; doc < segment.numDocs; doc++) {
+                if (segmentDeleted == null || !segmentDeleted.get(doc)) {
+                    documents.Add(segment.DocID(doc), segment.store, doc);
+                }
+            }
+
+            PostingsIterator postings = new PostingsIterator(segment);
+            for (int termID = 0; termID < segment.numTerms; termID++) {
+                String term = segment.Term(termID);
+                postings.Reset(termID);
+                while (postings.Next()) {
+                    if (segmentDeleted != null && segmentDeleted.get(postings.Doc())) {
+                        continue;
+                    }
+                    int docID = segment.DocID(postings.Doc());
+                    for (int fields = postings.Fields(); fields != 0; fields &= fields - 1) {
+                        int field = Integer.numberOfTrailingZeros(fields);
+                        termFreqs[field].computeIfAbsent(term, key -> new TreeMap<Integer, Integer>())
+                                .put(docID, postings.Tf(field));
+                        if (postings.Occurrences(field) != postings.Tf(field)) {
+                            occurrences[field].computeIfAbsent(term, key -> new TreeMap<Integer, Integer>())
+                                    .put(docID, postings.Occurrences(field));
+                        }
+                    }
+                }
+            }
+        }
+        return Build(documents, termFreqs, occurrences);
+    }
+
+    /*
+     * Add the postings of one term in one field, adding the squares of
+     * their TF-IDF weights to the documents' squared norms and their
+     * occurrences (termOccurrences, else the raw TF) to the documents'
+     * lengths. The weights are those of term t of weights, in the same
+     * order, or worked out here if weights is null.
+     */
+    private static void AddPostings(TreeMap<Integer, Integer> termDocFreq, TreeMap<Integer, Integer> termOccurrences,
+            int[] docIDs, int field, TermPostings termPostings, double[] squaredNorms, int[] lengths,
+            TermWeights weights, int t) {
+        if (termDocFreq == null) {
+            return;
+        }
+        int doc = 0;
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : termDocFreq.entrySet()) {
+            // Both sides are sorted, so the dense doc only ever moves forward
+            while (docIDs[doc] != entry.getKey()) {
+                doc++;
+            }
+            int rawTF = entry.getValue();
+            Integer occurrences = termOccurrences == null ? null : termOccurrences.get(entry.getKey());
+            termPostings.Add(field, doc, rawTF, occurrences == null ? rawTF : occurrences);
+
+            double weight = weights != null ? weights.Weight(t, i++)
+                    : VectorSpaceModelIR.TFXIDF(rawTF, docIDs.length, termDocFreq.size());
+            squaredNorms[doc] += weight * weight;
+            lengths[doc] += occurrences == null ? rawTF : occurrences;
+        }
+    }
+
+    /*
+     * The postings of one term in every field, gathered field by field and
+     * then written out as one list
+     */
+    static final class TermPostings {
+        private final int[][] docs = new int[NUM_FIELDS][16];
+        private final int[][] rawTFs = new int[NUM_FIELDS][16];
+        private final int[][] occurrences = new int[NUM_FIELDS][16];
+        private final int[] docFreqs = new int[NUM_FIELDS];
+        private final int[] next = new int[NUM_FIELDS];
+
+        // Skip pointers of the last Encode, as (doc, position) int pairs
+        private int[] skips = new int[16];
+        private int numSkipInts;
+
+        void Clear() {
+            Arrays.fill(this.docFreqs, 0);
+        }
+
+        // Add a posting, in ascending dense doc order within its field
+        void Add(int field, int doc, int rawTF, int occurrences) {
+            int i = this.docFreqs[field]++;
+            if (i == this.docs[field].length) {
+                this.docs[field] = Arrays.copyOf(this.docs[field], i * 2);
+                this.rawTFs[field] = Arrays.copyOf(this.rawTFs[field], i * 2);
+                this.occurrences[field] = Arrays.copyOf(this.occurrences[field], i * 2);
+            }
+            this.docs[field][i] = doc;
+            this.rawTFs[field][i] = rawTF;
+            this.occurrences[field][i] = occurrences;
+        }
+
+        int DocFreq(int field) {
+            return this.docFreqs[field];
+        }
+
+        /*
+         * Append the postings of every field, merged by doc, in the postings
+         * encoding, noting a skip pointer before every SKIP_INTERVAL-th entry
+         */
+        void Encode(ByteArrayBuilder out) {
+            Arrays.fill(this.next, 0);
+            this.numSkipInts = 0;
+            int start = out.Size();
+            int lastDoc = 0;
+            for (int entry = 0;; entry++) {
+                int doc = Integer.MAX_VALUE;
+                for (int field = 0; field < NUM_FIELDS; field++) {
+                    if (this.next[field] < this.docFreqs[field]) {
+                        doc = Math.min(doc, this.docs[field][this.next[field]]);
+                    }
+                }
+                if (doc == Integer.MAX_VALUE) {
+                    return;
+                }
+
+                int fields = 0;
+                for (int field = 0; field < NUM_FIELDS; field++) {
+                    if (this.next[field] < this.docFreqs[field] && this.docs[field][this.next[field]] == doc) {
+                        fields |= 1 << field;
+                    }
+                }
+                if (entry > 0 && entry % SKIP_INTERVAL == 0) {
+                    AddSkip(lastDoc, out.Size() - start);
+                }
+                out.AppendVInt(doc - lastDoc);
+                out.AppendVInt(fields);
+                for (int field = 0; field < NUM_FIELDS; field++) {
+                    if ((fields & (1 << field)) != 0) {
+                        int i = this.next[field]++;
+                        int rawTF = this.rawTFs[field][i];
+                        if (this.occurrences[field][i] == rawTF) {
+                            out.AppendVInt(rawTF << 1);
+                        } else {
+                            out.AppendVInt(rawTF << 1 | 1);
+                            out.AppendVInt(this.occurrences[field][i]);
+                        }
+                    }
+                }
+                lastDoc = doc;
+            }
+        }
+
+        // Skip pointers the last Encode noted
+        int NumSkips() {
+            return this.numSkipInts / 2;
+        }
+
+        // Int i of the skip pointers as laid out in the skips section
+        int SkipInt(int i) {
+            return this.skips[i];
+        }
+
+        private void AddSkip(int doc, int position) {
+            if (this.numSkipInts + 2 > this.skips.length) {
+                this.skips = Arrays.copyOf(this.skips, this.skips.length * 2);
+            }
+            this.skips[this.numSkipInts++] = doc;
+            this.skips[this.numSkipInts++] = position;
+        }
+    }
+
+    /*
+     * Upper bound of every term's TF / norm in every field, read from the
+     * finished postings
+     */
+    private static void ComputeMaxScores(IntBuffer postingsOffsets, ByteBuffer postings, DoubleBuffer[] norms,
+            DoubleBuffer[] maxScores) {
+        ByteBuffer bytes = postings.duplicate().clear();
+        double[] maxScore = new double[NUM_FIELDS];
+        for (int termID = 0; termID < postingsOffsets.limit() - 1; termID++) {
+            int end = postingsOffsets.get(termID + 1);
+            int doc = 0;
+            Arrays.fill(maxScore, 0);
+            while (bytes.position() < end) {
+                doc += ReadVInt(bytes);
+                for (int fields = ReadVInt(bytes); fields != 0; fields &= fields - 1) {
+                    int field = Integer.numberOfTrailingZeros(fields);
+                    int tfBits = ReadVInt(bytes);
+                    int raw_tf = tfBits >>> 1;
+                    if ((tfBits & 1) != 0) {
+                        ReadVInt(bytes);
+                    }
+                    double norm = norms[field].get(doc);
+                    if (norm > 0) {
+                        maxScore[field] = Math.max(maxScore[field], VectorSpaceModelIR.TF(raw_tf) / norm);
+                    }
+                }
+            }
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                maxScores[field].put(termID, maxScore[field]);
+            }
+        }
+    }
+
+    // Decodes the variable-byte integer at the position of bytes
+    private static int ReadVInt(ByteBuffer bytes) {
+        byte b = bytes.get();
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = bytes.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /*
+     *
+     * SEGMENT FILE
+     *
+     * Layout, all integers little-endian:
+     *
+     *   header   magic, version, numDocs, numTerms, numSections,
+     *            then (offset, length) of every section as longs,
+     *            the CRC32C of all section bytes and the CRC32C of
+     *            the header itself
+     *   sections in SECTION_* order, each starting on an 8-byte boundary
+     *
+     * Every section is mapped on its own, so no section may be larger
+     * than 2 GB but the file as a whole may be.
+     *
+     */
+
+    static final int SEGMENT_MAGIC = 0x56534D49; // "VSMI"
+    /*
+     * 2 added the document norms, 3 the per term max scores, 4 the .A and
+     * .B fields and one postings list per term, 5 the stored abstract,
+     * authors and bibliography next to the title, 6 the front coded term
+     * dictionary, 7 the skip pointers, 8 the field lengths, 9 the true
+     * occurrences in the postings and field lengths counted in them
+     */
+    static final int SEGMENT_VERSION = 9;
+
+    private static final int SECTION_DOC_IDS = 0;
+    // DocumentStore offsets and bytes
+    private static final int SECTION_STORED_OFFSETS = 1;
+    private static final int SECTION_STORED_BYTES = 2;
+    // TermDictionary block offsets and blocks
+    private static final int SECTION_TERM_BLOCKS = 3;
+    private static final int SECTION_TERM_BYTES = 4;
+    private static final int SECTION_POSTINGS_OFFSETS = 5;
+    private static final int SECTION_POSTINGS = 6;
+    private static final int SECTION_SKIP_OFFSETS = 7;
+    private static final int SECTION_SKIPS = 8;
+    // Followed by docFreqs, norms, maxScores and fieldLengths for every field
+    private static final int SECTION_FIELDS = 9;
+    private static final int SECTIONS_PER_FIELD = 4;
+    private static final int NUM_SECTIONS = SECTION_FIELDS + NUM_FIELDS * SECTIONS_PER_FIELD;
+
+    private static final int HEADER_SIZE = 5 * 4 + NUM_SECTIONS * 16 + 2 * 8;
+
+    /*
+     * Write the index to a segment file, replacing the file if it exists
+     */
+    void Write(String segmentPath) throws IOException {
+        ByteBuffer[] sections = new ByteBuffer[NUM_SECTIONS];
+        sections[SECTION_DOC_IDS] = ToBytes(this.docIDs);
+        sections[SECTION_STORED_OFFSETS] = ToBytes(this.store.Offsets());
+        sections[SECTION_STORED_BYTES] = this.store.Bytes();
+        sections[SECTION_TERM_BLOCKS] = ToBytes(this.terms.BlockOffsets());
+        sections[SECTION_TERM_BYTES] = this.terms.Bytes();
+        sections[SECTION_POSTINGS_OFFSETS] = ToBytes(this.postingsOffsets);
+        sections[SECTION_POSTINGS] = this.postings.duplicate().clear();
+        sections[SECTION_SKIP_OFFSETS] = ToBytes(this.skipOffsets);
+        sections[SECTION_SKIPS] = ToBytes(this.skips);
+        for (int field = 0; field < NUM_FIELDS; field++) {
+            int section = SECTION_FIELDS + field * SECTIONS_PER_FIELD;
+            sections[section] = ToBytes(this.docFreqs[field]);
+            sections[section + 1] = ToBytes(this.norms[field]);
+            sections[section + 2] = ToBytes(this.maxScores[field]);
+            sections[section + 3] = ToBytes(this.fieldLengths[field]);
+        }
+
+        CRC32C bodyChecksum = new CRC32C();
+        long[] lengths = new long[NUM_SECTIONS];
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            lengths[i] = sections[i].remaining();
+            bodyChecksum.update(sections[i].duplicate());
+        }
+        ByteBuffer header = Header(this.numDocs, this.numTerms, lengths, bodyChecksum.getValue());
+
+        Path path = Paths.get(segmentPath);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            WriteFully(channel, header, 0);
+            for (int i = 0; i < NUM_SECTIONS; i++) {
+                WriteFully(channel, sections[i], SectionOffset(header, i));
+            }
+            channel.force(true);
+        }
+    }
+
+    /*
+     * Segment header for sections of the given lengths laid out back to
+     * back, each on an 8-byte boundary
+     */
+    private static ByteBuffer Header(int numDocs, int numTerms, long[] lengths, long bodyChecksum) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SEGMENT_MAGIC).putInt(SEGMENT_VERSION).putInt(numDocs).putInt(numTerms)
+                .putInt(NUM_SECTIONS);
+
+        long offset = Align(HEADER_SIZE);
+        for (long length : lengths) {
+            header.putLong(offset).putLong(length);
+            offset = Align(offset + length);
+        }
+        header.putLong(bodyChecksum);
+
+        CRC32C headerChecksum = new CRC32C();
+        headerChecksum.update(header.array(), 0, header.position());
+        header.putLong(headerChecksum.getValue());
+        header.flip();
+        return header;
+    }
+
+    private static long SectionOffset(ByteBuffer header, int section) {
+        return header.getLong(5 * 4 + section * 16);
+    }
+
+    /*
+     * Open a segment file written by Write(). The sections are mapped
+     * read-only and queried in place; nothing is copied onto the heap, and
+     * every JVM that opens the same file shares its pages.
+     *
+     * Only the header is checked here, call Verify() to check the sections.
+     */
+    static InvertedIndex Open(String segmentPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(segmentPath), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(segmentPath + " is not an index segment: file too short");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                continue;
+            }
+            header.flip();
+
+            if (header.getInt(0) != SEGMENT_MAGIC) {
+                throw new IOException(segmentPath + " is not an index segment: bad magic number");
+            }
+            if (header.getInt(4) != SEGMENT_VERSION) {
+                throw new IOException(segmentPath + " has segment version " + header.getInt(4) + ", expected "
+                        + SEGMENT_VERSION);
+            }
+            CRC32C headerChecksum = new CRC32C();
+            headerChecksum.update(header.array(), 0, HEADER_SIZE - 8);
+            if (header.getLong(HEADER_SIZE - 8) != headerChecksum.getValue()) {
+                throw new IOException(segmentPath + " is corrupt: header checksum mismatch");
+            }
+
+            ByteBuffer[] sections = new ByteBuffer[NUM_SECTIONS];
+            for (int i = 0; i < NUM_SECTIONS; i++) {
+                long offset = SectionOffset(header, i);
+                long length = header.getLong(5 * 4 + i * 16 + 8);
+                if (offset + length > channel.size()) {
+                    throw new IOException(segmentPath + " is corrupt: section " + i + " runs past end of file");
+                }
+                sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            IntBuffer[] docFreqs = new IntBuffer[NUM_FIELDS];
+            DoubleBuffer[] norms = new DoubleBuffer[NUM_FIELDS];
+            DoubleBuffer[] maxScores = new DoubleBuffer[NUM_FIELDS];
+            IntBuffer[] fieldLengths = new IntBuffer[NUM_FIELDS];
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                int section = SECTION_FIELDS + field * SECTIONS_PER_FIELD;
+                docFreqs[field] = sections[section].asIntBuffer();
+                norms[field] = sections[section + 1].asDoubleBuffer();
+                maxScores[field] = sections[section + 2].asDoubleBuffer();
+                fieldLengths[field] = sections[section + 3].asIntBuffer();
+            }
+
+            DocumentStore store = new DocumentStore(sections[SECTION_STORED_BYTES],
+                    sections[SECTION_STORED_OFFSETS].asIntBuffer());
+            TermDictionary terms = new TermDictionary(header.getInt(12), sections[SECTION_TERM_BYTES],
+                    sections[SECTION_TERM_BLOCKS].asIntBuffer());
+            InvertedIndex index = new InvertedIndex(sections[SECTION_DOC_IDS].asIntBuffer(), store, terms, docFreqs,
+                    sections[SECTION_POSTINGS_OFFSETS].asIntBuffer(), sections[SECTION_POSTINGS],
+                    sections[SECTION_SKIP_OFFSETS].asIntBuffer(), sections[SECTION_SKIPS].asIntBuffer(), norms,
+                    maxScores, fieldLengths, header.getLong(HEADER_SIZE - 16));
+
+            boolean normsMatch = index.postingsOffsets.limit() == index.numTerms + 1 && store.Matches(index.numDocs)
+                    && terms.Matches() && index.skipOffsets.limit() == index.numTerms + 1
+                    && index.skipOffsets.get(index.numTerms) * 2 == index.skips.limit();
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                normsMatch &= norms[field].limit() == index.numDocs && maxScores[field].limit() == index.numTerms
+                        && docFreqs[field].limit() == index.numTerms && fieldLengths[field].limit() == index.numDocs;
+            }
+            if (index.numDocs != header.getInt(8) || index.numTerms != header.getInt(12) || !normsMatch) {
+                throw new IOException(segmentPath + " is corrupt: section sizes do not match the header");
+            }
+            return index;
+        }
+    }
+
+    /*
+     * Check the sections of an opened segment against the checksum in its
+     * header. This reads the whole file.
+     */
+    boolean Verify() {
+        if (this.checksum < 0) {
+            return true;
+        }
+        CRC32C bodyChecksum = new CRC32C();
+        bodyChecksum.update(ToBytes(this.docIDs));
+        bodyChecksum.update(ToBytes(this.store.Offsets()));
+        bodyChecksum.update(this.store.Bytes());
+        bodyChecksum.update(ToBytes(this.terms.BlockOffsets()));
+        bodyChecksum.update(this.terms.Bytes());
+        bodyChecksum.update(ToBytes(this.postingsOffsets));
+        bodyChecksum.update(this.postings.duplicate().clear());
+        bodyChecksum.update(ToBytes(this.skipOffsets));
+        bodyChecksum.update(ToBytes(this.skips));
+        for (int field = 0; field < NUM_FIELDS; field++) {
+            bodyChecksum.update(ToBytes(this.docFreqs[field]));
+            bodyChecksum.update(ToBytes(this.norms[field]));
+            bodyChecksum.update(ToBytes(this.maxScores[field]));
+            bodyChecksum.update(ToBytes(this.fieldLengths[field]));
+        }
+        return bodyChecksum.getValue() == this.checksum;
+    }
+
+    // Little-endian bytes of an int section
+    private static ByteBuffer ToBytes(IntBuffer ints) {
+        ByteBuffer bytes = ByteBuffer.allocate(ints.limit() * 4).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asIntBuffer().put(ints.duplicate().clear());
+        return bytes;
+    }
+
+    // Little-endian bytes of a double section
+    private static ByteBuffer ToBytes(DoubleBuffer doubles) {
+        ByteBuffer bytes = ByteBuffer.allocate(doubles.limit() * 8).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asDoubleBuffer().put(doubles.duplicate().clear());
+        return bytes;
+    }
+
+    private static long Align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void WriteFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        ByteBuffer src = buffer.duplicate();
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    /*
+     *
+     * STREAMING SEGMENT WRITER
+     *
+     * Writes a segment without ever holding the index in memory: documents
+     * and then terms are added in ascending order, each section goes to a
+     * temp file as it is produced, and Finish() works out the norms and
+     * copies the sections into the segment file. The file is the same, byte
+     * for byte, as Build followed by Write makes from the same documents
+     * and term frequencies.
+     *
+     */
+    static final class SegmentWriter implements Closeable {
+        private final Path tempDir;
+        private final SectionFile[] sections = new SectionFile[NUM_SECTIONS];
+
+        private int numDocs;
+        private int numTerms;
+
+        // DocIDs written so far mapped back in by FinishDocs, to find the dense doc of a posting
+        private IntBuffer docIDs;
+
+        // Postings of the current term, encoded into postingsBytes by FinishTerm
+        private final TermPostings termPostings = new TermPostings();
+        private final ByteArrayBuilder postingsBytes = new ByteArrayBuilder(1 << 16);
+
+        // Front codes each term into termBytes on its way to the term section
+        private final TermDictionary.Encoder termEncoder = new TermDictionary.Encoder();
+        private final ByteArrayBuilder termBytes = new ByteArrayBuilder(256);
+
+        SegmentWriter(Path tempDir) throws IOException {
+            this.tempDir = tempDir;
+            try {
+                for (int i = 0; i < NUM_SECTIONS; i++) {
+                    this.sections[i] = new SectionFile(Files.createTempFile(tempDir, "section", ".tmp"));
+                }
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+            this.sections[SECTION_STORED_OFFSETS].PutInt(0);
+            this.sections[SECTION_POSTINGS_OFFSETS].PutInt(0);
+            this.sections[SECTION_SKIP_OFFSETS].PutInt(0);
+        }
+
+        // Add the next document with the UTF-8 bytes of its stored fields, in ascending DocID order
+        void AddDoc(int docID, byte[][] fields) throws IOException {
+            if (this.docIDs != null) {
+                throw new IllegalStateException("Documents are finished");
+            }
+            this.sections[SECTION_DOC_IDS].PutInt(docID);
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                this.sections[SECTION_STORED_BYTES].PutBytes(fields[field]);
+                this.sections[SECTION_STORED_OFFSETS].PutInt(this.sections[SECTION_STORED_BYTES].IntSize());
+            }
+            this.numDocs++;
+        }
+
+        // Called after the last AddDoc and before the first StartTerm
+        void FinishDocs() throws IOException {
+            this.docIDs = this.sections[SECTION_DOC_IDS].Map().asIntBuffer();
+        }
+
+        // Dense doc of a DocID added before FinishDocs, or -1 if it was not
+        int Doc(int docID) {
+            return Find(this.docIDs, docID);
+        }
+
+        // Start the next term, in ascending order
+        void StartTerm(String term) throws IOException {
+            SectionFile terms = this.sections[SECTION_TERM_BYTES];
+            if (this.termEncoder.StartsBlock()) {
+                this.sections[SECTION_TERM_BLOCKS].PutInt(terms.IntSize());
+            }
+            this.termBytes.Clear();
+            this.termEncoder.Encode(term.getBytes(StandardCharsets.UTF_8), this.termBytes);
+            terms.PutBytes(this.termBytes.Array(), this.termBytes.Size());
+            this.termPostings.Clear();
+        }
+
+        // Add a posting of the current term, in ascending dense doc order per field
+        void AddPosting(int field, int doc, int rawTF, int occurrences) {
+            this.termPostings.Add(field, doc, rawTF, occurrences);
+        }
+
+        void FinishTerm() throws IOException {
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                this.sections[SECTION_FIELDS + field * SECTIONS_PER_FIELD].PutInt(this.termPostings.DocFreq(field));
+            }
+            this.postingsBytes.Clear();
+            this.termPostings.Encode(this.postingsBytes);
+            SectionFile postings = this.sections[SECTION_POSTINGS];
+            postings.PutBytes(this.postingsBytes.Array(), this.postingsBytes.Size());
+            this.sections[SECTION_POSTINGS_OFFSETS].PutInt(postings.IntSize());
+
+            SectionFile skips = this.sections[SECTION_SKIPS];
+            for (int i = 0; i < 2 * this.termPostings.NumSkips(); i++) {
+                skips.PutInt(this.termPostings.SkipInt(i));
+            }
+            this.sections[SECTION_SKIP_OFFSETS].PutInt((int) (skips.Size() / 8));
+            this.numTerms++;
+        }
+
+        /*
+         * Work out the norms, max scores and field lengths from the finished
+         * postings and write the segment file, replacing it if it exists
+         */
+        void Finish(String segmentPath) throws IOException {
+            if (this.docIDs == null) {
+                FinishDocs();
+            }
+            IntBuffer postingsOffsets = this.sections[SECTION_POSTINGS_OFFSETS].Map().asIntBuffer();
+            ByteBuffer postings = this.sections[SECTION_POSTINGS].Map();
+            DoubleBuffer[] norms = WriteNorms(postingsOffsets, postings);
+            DoubleBuffer[] maxScores = new DoubleBuffer[NUM_FIELDS];
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                maxScores[field] = this.sections[SECTION_FIELDS + field * SECTIONS_PER_FIELD + 2]
+                        .MapForWriting(8L * this.numTerms).asDoubleBuffer();
+            }
+            ComputeMaxScores(postingsOffsets, postings, norms, maxScores);
+
+            Path path = Paths.get(segmentPath);
+            long[] lengths = new long[NUM_SECTIONS];
+            CRC32C bodyChecksum = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(SectionFile.BUFFER_SIZE);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                // Sections first, as the header needs their checksum
+                long offset = Align(HEADER_SIZE);
+                for (int i = 0; i < NUM_SECTIONS; i++) {
+                    SectionFile section = this.sections[i];
+                    section.Flush();
+                    lengths[i] = section.Size();
+                    for (long position = 0; position < lengths[i];) {
+                        buffer.clear();
+                        int read = section.channel.read(buffer, position);
+                        buffer.flip();
+                        bodyChecksum.update(buffer.duplicate());
+                        WriteFully(channel, buffer, offset + position);
+                        position += read;
+                    }
+                    offset = Align(offset + lengths[i]);
+                }
+                WriteFully(channel, Header(this.numDocs, this.numTerms, lengths, bodyChecksum.getValue()), 0);
+                channel.force(true);
+            }
+        }
+
+        // Delete the temp files
+        @Override
+        public void close() throws IOException {
+            for (SectionFile section : this.sections) {
+                if (section != null) {
+                    section.Delete();
+                }
+            }
+        }
+
+        /*
+         * Norms of every field, adding up squared weights term by term and
+         * doc by doc in the same order as Build so the sums come out the
+         * same, and the field lengths along the way. Returns the norms
+         * sections, mapped.
+         */
+        private DoubleBuffer[] WriteNorms(IntBuffer postingsOffsets, ByteBuffer postings) throws IOException {
+            IntBuffer[] docFreqs = new IntBuffer[NUM_FIELDS];
+            DoubleBuffer[] squaredNorms = new DoubleBuffer[NUM_FIELDS];
+            IntBuffer[] lengths = new IntBuffer[NUM_FIELDS];
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                int section = SECTION_FIELDS + field * SECTIONS_PER_FIELD;
+                docFreqs[field] = this.sections[section].Map().asIntBuffer();
+                squaredNorms[field] = this.sections[section + 1].MapForWriting(8L * this.numDocs).asDoubleBuffer();
+                lengths[field] = this.sections[section + 3].MapForWriting(4L * this.numDocs).asIntBuffer();
+            }
+
+            ByteBuffer bytes = postings.duplicate().clear();
+            for (int termID = 0; termID < this.numTerms; termID++) {
+                int end = postingsOffsets.get(termID + 1);
+                int doc = 0;
+                while (bytes.position() < end) {
+                    doc += ReadVInt(bytes);
+                    for (int fields = ReadVInt(bytes); fields != 0; fields &= fields - 1) {
+                        int field = Integer.numberOfTrailingZeros(fields);
+                        int tfBits = ReadVInt(bytes);
+                        int raw_tf = tfBits >>> 1;
+                        int occurrences = (tfBits & 1) != 0 ? ReadVInt(bytes) : raw_tf;
+                        double weight = VectorSpaceModelIR.TFXIDF(raw_tf, this.numDocs, docFreqs[field].get(termID));
+                        squaredNorms[field].put(doc, squaredNorms[field].get(doc) + weight * weight);
+                        lengths[field].put(doc, lengths[field].get(doc) + occurrences);
+                    }
+                }
+            }
+            for (int field = 0; field < NUM_FIELDS; field++) {
+                for (int doc = 0; doc < this.numDocs; doc++) {
+                    squaredNorms[field].put(doc, Math.sqrt(squaredNorms[field].get(doc)));
+                }
+            }
+            return squaredNorms;
+        }
+    }
+
+    /*
+     * A section being written to a temp file through a small buffer
+     */
+    private static final class SectionFile {
+        static final int BUFFER_SIZE = 1 << 16;
+
+        private final Path path;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long flushed;
+
+        SectionFile(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void PutInt(int value) throws IOException {
+            Reserve(4);
+            this.buffer.putInt(value);
+        }
+
+        void PutBytes(byte[] bytes) throws IOException {
+            PutBytes(bytes, bytes.length);
+        }
+
+        // The first count bytes of bytes
+        void PutBytes(byte[] bytes, int count) throws IOException {
+            for (int start = 0; start < count;) {
+                Reserve(1);
+                int length = Math.min(count - start, this.buffer.remaining());
+                this.buffer.put(bytes, start, length);
+                start += length;
+            }
+        }
+
+        long Size() {
+            return this.flushed + this.buffer.position();
+        }
+
+        // Size as an offset into the section, which must stay under 2 GB
+        int IntSize() throws IOException {
+            long size = Size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Index section larger than 2 GB");
+            }
+            return (int) size;
+        }
+
+        void Flush() throws IOException {
+            this.buffer.flip();
+            WriteFully(this.channel, this.buffer, this.flushed);
+            this.flushed += this.buffer.remaining();
+            this.buffer.clear();
+        }
+
+        // The section written so far, mapped read-only
+        ByteBuffer Map() throws IOException {
+            Flush();
+            return this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.flushed).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // An empty section of the given size, zeroed and mapped for writing in place
+        ByteBuffer MapForWriting(long size) throws IOException {
+            this.flushed = size;
+            return this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void Delete() throws IOException {
+            this.channel.close();
+            try {
+                Files.deleteIfExists(this.path);
+            } catch (IOException ex) {
+                // Still mapped on some platforms, try again on exit
+                this.path.toFile().deleteOnExit();
+            }
+        }
+
+        private void Reserve(int bytes) throws IOException {
+            if (this.buffer.remaining() < bytes) {
+                Flush();
+            }
+        }
+    }
+
+    /*
+     *
+     * ACCESSORS
+     *
+     */
+
+    int NumDocs() {
+        return this.numDocs;
+    }
+
+    int NumTerms() {
+        return this.numTerms;
+    }
+
+    int DocID(int doc) {
+        return this.docIDs.get(doc);
+    }
+
+    // Returns the dense doc for a DocID, or -1 if there is no such document
+    int Doc(int docID) {
+        return Find(this.docIDs, docID);
+    }
+
+    // Position of docID in a sorted list of DocIDs, -1 if it is not there
+    private static int Find(IntBuffer docIDs, int docID) {
+        int low = 0;
+        int high = docIDs.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midDocID = docIDs.get(mid);
+            if (midDocID < docID) {
+                low = mid + 1;
+            } else if (midDocID > docID) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    String Title(int doc) {
+        return this.store.Text(doc, TITLE);
+    }
+
+    // Read-only view of the stored UTF-8 text of a field of doc, without copying it
+    ByteBuffer Stored(int doc, int field) {
+        return this.store.Field(doc, field);
+    }
+
+    int DocFreq(int field, int termID) {
+        return this.docFreqs[field].get(termID);
+    }
+
+    // Returns the term ID of a term, or -1 if the term is not in the index
+    int TermID(String term) {
+        return this.terms.TermID(term);
+    }
+
+    // Same as above for a term in a char buffer, without making a String
+    int TermID(char[] term, int length) {
+        return this.terms.TermID(term, length);
+    }
+
+    String Term(int termID) {
+        return this.terms.Term(termID);
+    }
+
+    // L2 norm of a document's TF-IDF vector in a field, 0 if the field is empty
+    double Norm(int field, int doc) {
+        return this.norms[field].get(doc);
+    }
+
+    // Largest TF / norm of a term in a field, see maxScores
+    double MaxScore(int field, int termID) {
+        return this.maxScores[field].get(termID);
+    }
+
+    // Number of term occurrences in a field of a document, 0 if the field is empty
+    int FieldLength(int field, int doc) {
+        return this.fieldLengths[field].get(doc);
+    }
+
+    /*
+     *
+     * POSTINGS ITERATOR
+     *
+     * Decodes one postings list at a time; reset it for the next term
+     * instead of allocating a new one. Reset(termID) visits every doc with
+     * the term in any field, Reset(field, termID) only those with it in
+     * that field and ResetFields(fieldMask, termID) those with it in any
+     * field of the mask. Advance(target) goes straight to the first such
+     * doc at or after target, over the skip pointers.
+     *
+     */
+    static class PostingsIterator {
+        private final InvertedIndex index;
+        private ByteBuffer bytes;
+        private int start, position, end;
+        // Next skip pointer of the list that has not been passed, and one past its last
+        private int skip, skipEnd;
+        // Only postings with one of these fields are visited
+        private int fieldMask;
+        private int doc, fields;
+        private final int[] tfs = new int[NUM_FIELDS];
+        private final int[] occurrences = new int[NUM_FIELDS];
+        private int field;
+
+        PostingsIterator(InvertedIndex index) {
+            this.index = index;
+        }
+
+        void Reset(int termID) {
+            ResetFields(ALL_FIELDS, termID);
+        }
+
+        void Reset(int field, int termID) {
+            ResetFields(1 << field, termID);
+            this.field = field;
+        }
+
+        void ResetFields(int fieldMask, int termID) {
+            this.bytes = this.index.postings;
+            this.start = this.index.postingsOffsets.get(termID);
+            this.position = this.start;
+            this.end = this.index.postingsOffsets.get(termID + 1);
+            this.skip = this.index.skipOffsets.get(termID);
+            this.skipEnd = this.index.skipOffsets.get(termID + 1);
+            this.fieldMask = fieldMask;
+            this.doc = 0;
+            this.fields = 0;
+        }
+
+        // Moves to the next posting, returns false when the list is exhausted
+        boolean Next() {
+            do {
+                if (this.position >= this.end) {
+                    return false;
+                }
+                this.doc += ReadVInt();
+                this.fields = ReadVInt();
+                for (int bits = this.fields; bits != 0; bits &= bits - 1) {
+                    int field = Integer.numberOfTrailingZeros(bits);
+                    int tfBits = ReadVInt();
+                    this.tfs[field] = tfBits >>> 1;
+                    this.occurrences[field] = (tfBits & 1) != 0 ? ReadVInt() : tfBits >>> 1;
+                }
+            } while ((this.fields & this.fieldMask) == 0);
+            return true;
+        }
+
+        /*
+         * Moves to the first posting after the current one whose doc is at
+         * least target, returns false when the list runs out first. Entries
+         * ahead of the last skip pointer before target are never decoded.
+         */
+        boolean Advance(int target) {
+            IntBuffer skips = this.index.skips;
+            while (this.skip < this.skipEnd && skips.get(2 * this.skip) < target) {
+                int position = this.start + skips.get(2 * this.skip + 1);
+                if (position > this.position) {
+                    this.position = position;
+                    this.doc = skips.get(2 * this.skip);
+                }
+                this.skip++;
+            }
+            while (Next()) {
+                if (this.doc >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int Doc() {
+            return this.doc;
+        }
+
+        // Fields of the current doc that have the term, as a bit mask
+        int Fields() {
+            return this.fields;
+        }
+
+        // Raw TF of the current doc in one of its Fields()
+        int Tf(int field) {
+            return this.tfs[field];
+        }
+
+        // Raw TF in the field given to Reset(field, termID)
+        int Tf() {
+            return this.tfs[this.field];
+        }
+
+        // How often the term really occurs in one of the Fields() of the current doc
+        int Occurrences(int field) {
+            return this.occurrences[field];
+        }
+
+        private int ReadVInt() {
+            byte b = this.bytes.get(this.position++);
+            int value = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = this.bytes.get(this.position++);
+                value |= (b & 0x7F) << shift;
+            }
+            return value;
+        }
+    }
+
+    /*
+     *
+     * HELPER CLASSES
+     *
+     */
+
+    // Growable byte array with variable-byte integer encoding
+    static class ByteArrayBuilder {
+        private byte[] bytes;
+        private int size;
+
+        ByteArrayBuilder(int initialCapacity) {
+            this.bytes = new byte[Math.max(16, initialCapacity)];
+        }
+
+        void Append(byte[] src) {
+            Append(src, 0, src.length);
+        }
+
+        // length bytes of src from from
+        void Append(byte[] src, int from, int length) {
+            EnsureCapacity(length);
+            System.arraycopy(src, from, this.bytes, this.size, length);
+            this.size += length;
+        }
+
+        // 7 bits per byte, high bit set on every byte except the last
+        void AppendVInt(int value) {
+            EnsureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                this.bytes[this.size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.bytes[this.size++] = (byte) value;
+        }
+
+        int Size() {
+            return this.size;
+        }
+
+        void Clear() {
+            this.size = 0;
+        }
+
+        // The backing array, valid for the first Size() bytes until the next append
+        byte[] Array() {
+            return this.bytes;
+        }
+
+        byte[] ToArray() {
+            byte[] result = new byte[this.size];
+            System.arraycopy(this.bytes, 0, result, 0, this.size);
+            return result;
+        }
+
+        private void EnsureCapacity(int extra) {
+            if (this.size + extra > this.bytes.length) {
+                byte[] grown = new byte[Math.max(this.bytes.length * 2, this.size + extra)];
+                System.arraycopy(this.bytes, 0, grown, 0, this.size);
+                this.bytes = grown;
+            }
+        }
+    }
+}
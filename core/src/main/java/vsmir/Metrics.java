@@ -0,0 +1,455 @@
+/*
+    Counters, phase timings and latency histograms of indexing and
+    search, one set for the whole process.
+
+    Recording is off unless the JVM runs with -Dvsm.metrics=true or
+    Enable() is called; until then the hot paths test one volatile flag
+    and record nothing, not even a clock read. Counters are LongAdders
+    and histogram buckets atomic longs, so threads recording at once do
+    not wait on each other. Callers add up per query or per batch and
+    record once, never per posting.
+
+    Everything is readable through MetricsMXBean, registered under
+    vsmir:type=Metrics when recording is enabled, and as text from
+    Dump(). -Dvsm.metrics.dump=<seconds> also enables recording and
+    prints Dump() to standard error at that period.
+*/
+
+package vsmir;
+
+// Java
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// JMX
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+final class Metrics implements MetricsMXBean {
+    static final String OBJECT_NAME = "vsmir:type=Metrics";
+
+    // Indexing phases timed
+    static final int PHASE_BUILD_DATA = 0;
+    static final int PHASE_CALC_TFXIDF = 1;
+    static final int PHASE_FREEZE_INDEX = 2;
+    static final int PHASE_BUILD_QUERY_LIST = 3;
+    static final int PHASE_LOAD_INDEX = 4;
+    private static final String[] PHASE_NAMES = { "BuildData", "CalcTFXIDF", "FreezeIndex", "BuildQueryList",
+            "LoadIndex" };
+
+    private static final Metrics METRICS = new Metrics();
+    private static volatile boolean enabled;
+    private static boolean registered;
+
+    static {
+        long dumpSeconds = Long.getLong("vsm.metrics.dump", 0);
+        if (Boolean.getBoolean("vsm.metrics") || dumpSeconds > 0) {
+            Enable();
+        }
+        if (dumpSeconds > 0) {
+            METRICS.StartDumps(System.err, dumpSeconds);
+        }
+    }
+
+    // Indexing
+    private final LongAdder docsIndexed = new LongAdder();
+    private final LongAdder tokensIndexed = new LongAdder();
+    private final LongAdder[] phaseNanos = new LongAdder[PHASE_NAMES.length];
+    private volatile long dictionaryTerms;
+
+    // Search
+    private final LatencyHistogram searchLatency = new LatencyHistogram();
+    private final LongAdder postingsScanned = new LongAdder();
+    private final LongAdder docsScored = new LongAdder();
+    private final LongAdder queryCacheHits = new LongAdder();
+    private final LongAdder queryCacheMisses = new LongAdder();
+    private final LongAdder batchQueries = new LongAdder();
+
+    // Prints Dump() at a fixed period, null when not dumping
+    private ScheduledExecutorService dumper;
+
+    private Metrics() {
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            this.phaseNanos[phase] = new LongAdder();
+        }
+    }
+
+    // The metrics of this process
+    static Metrics Get() {
+        return METRICS;
+    }
+
+    // Whether to record; check before reading the clock or calling any Record method
+    static boolean Enabled() {
+        return enabled;
+    }
+
+    // Start recording and make the metrics readable over JMX
+    static void Enable() {
+        Register();
+        enabled = true;
+    }
+
+    static void Disable() {
+        enabled = false;
+    }
+
+    private static synchronized void Register() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(METRICS, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ex) {
+            // Registered by another copy of these classes; this one stays readable through Dump()
+        } catch (JMException ex) {
+            System.err.println("Could not register " + OBJECT_NAME + ": " + ex.getMessage());
+        }
+        registered = true;
+    }
+
+    /*
+     *
+     * RECORDING
+     *
+     */
+
+    // Documents indexed and the terms they were analyzed into
+    void RecordIndexed(long docs, long tokens) {
+        this.docsIndexed.add(docs);
+        this.tokensIndexed.add(tokens);
+    }
+
+    void RecordPhase(int phase, long nanos) {
+        this.phaseNanos[phase].add(nanos);
+    }
+
+    void SetDictionaryTerms(long terms) {
+        this.dictionaryTerms = terms;
+    }
+
+    // Wall time of one search, from the query string to its top k
+    void RecordSearch(long nanos) {
+        this.searchLatency.Record(nanos);
+    }
+
+    // Postings of query terms read, and documents given a final score
+    void RecordScoring(long postings, long docs) {
+        this.postingsScanned.add(postings);
+        this.docsScored.add(docs);
+    }
+
+    // Whether a search was answered from the query cache, or scored afresh
+    void RecordQueryCache(boolean hit) {
+        (hit ? this.queryCacheHits : this.queryCacheMisses).increment();
+    }
+
+    void RecordBatch(long queries) {
+        this.batchQueries.add(queries);
+    }
+
+    /*
+     *
+     * READING
+     *
+     */
+
+    @Override
+    public boolean isEnabled() {
+        return Enabled();
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (enabled) {
+            Enable();
+        } else {
+            Disable();
+        }
+    }
+
+    @Override
+    public long getDocsIndexed() {
+        return this.docsIndexed.sum();
+    }
+
+    @Override
+    public long getTokensIndexed() {
+        return this.tokensIndexed.sum();
+    }
+
+    @Override
+    public double getDocsPerSecond() {
+        return PerSecond(getDocsIndexed(), this.phaseNanos[PHASE_BUILD_DATA].sum());
+    }
+
+    @Override
+    public double getTokensPerSecond() {
+        return PerSecond(getTokensIndexed(), this.phaseNanos[PHASE_BUILD_DATA].sum());
+    }
+
+    @Override
+    public double getBuildDataSeconds() {
+        return PhaseSeconds(PHASE_BUILD_DATA);
+    }
+
+    @Override
+    public double getCalcTFXIDFSeconds() {
+        return PhaseSeconds(PHASE_CALC_TFXIDF);
+    }
+
+    @Override
+    public double getFreezeIndexSeconds() {
+        return PhaseSeconds(PHASE_FREEZE_INDEX);
+    }
+
+    @Override
+    public double getBuildQueryListSeconds() {
+        return PhaseSeconds(PHASE_BUILD_QUERY_LIST);
+    }
+
+    @Override
+    public double getLoadIndexSeconds() {
+        return PhaseSeconds(PHASE_LOAD_INDEX);
+    }
+
+    @Override
+    public long getDictionaryTerms() {
+        return this.dictionaryTerms;
+    }
+
+    @Override
+    public long getSearches() {
+        return this.searchLatency.Count();
+    }
+
+    @Override
+    public double getSearchLatencyMeanMicros() {
+        return this.searchLatency.Mean() / 1000;
+    }
+
+    @Override
+    public double getSearchLatencyP50Micros() {
+        return this.searchLatency.Percentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getSearchLatencyP95Micros() {
+        return this.searchLatency.Percentile(95) / 1000.0;
+    }
+
+    @Override
+    public double getSearchLatencyP99Micros() {
+        return this.searchLatency.Percentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getSearchLatencyMaxMicros() {
+        return this.searchLatency.Max() / 1000.0;
+    }
+
+    @Override
+    public long getPostingsScanned() {
+        return this.postingsScanned.sum();
+    }
+
+    @Override
+    public long getDocsScored() {
+        return this.docsScored.sum();
+    }
+
+    @Override
+    public long getQueryCacheHits() {
+        return this.queryCacheHits.sum();
+    }
+
+    @Override
+    public long getQueryCacheMisses() {
+        return this.queryCacheMisses.sum();
+    }
+
+    @Override
+    public double getQueryCacheHitRate() {
+        long hits = getQueryCacheHits();
+        long total = hits + getQueryCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getBatchQueries() {
+        return this.batchQueries.sum();
+    }
+
+    @Override
+    public String dump() {
+        return Dump();
+    }
+
+    @Override
+    public void reset() {
+        Reset();
+    }
+
+    private double PhaseSeconds(int phase) {
+        return this.phaseNanos[phase].sum() / 1e9;
+    }
+
+    private static double PerSecond(long count, long nanos) {
+        return nanos == 0 ? 0 : count / (nanos / 1e9);
+    }
+
+    // Every metric as a few lines of text
+    String Dump() {
+        StringBuilder phases = new StringBuilder();
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            long nanos = this.phaseNanos[phase].sum();
+            if (nanos > 0) {
+                phases.append(String.format(" %s %.3f s,", PHASE_NAMES[phase], nanos / 1e9));
+            }
+        }
+        if (phases.length() > 0) {
+            phases.setLength(phases.length() - 1);
+        } else {
+            phases.append(" none yet");
+        }
+
+        return String.format("Metrics:\n"
+                + "  Indexing: %d docs, %d tokens (%.1f docs/sec, %.1f tokens/sec), %d terms in the dictionary\n"
+                + "  Phases:%s\n"
+                + "  Search: %d queries, latency mean %.1f us, p50 %.1f us, p95 %.1f us, p99 %.1f us, max %.1f us\n"
+                + "  Scoring: %d postings scanned, %d docs scored, %d batch queries\n"
+                + "  Query cache: %d hits, %d misses (%.1f%% hit rate)\n",
+                getDocsIndexed(), getTokensIndexed(), getDocsPerSecond(), getTokensPerSecond(), getDictionaryTerms(),
+                phases, getSearches(), getSearchLatencyMeanMicros(), getSearchLatencyP50Micros(),
+                getSearchLatencyP95Micros(), getSearchLatencyP99Micros(), getSearchLatencyMaxMicros(),
+                getPostingsScanned(), getDocsScored(), getBatchQueries(), getQueryCacheHits(), getQueryCacheMisses(),
+                100 * getQueryCacheHitRate());
+    }
+
+    void Reset() {
+        this.docsIndexed.reset();
+        this.tokensIndexed.reset();
+        for (LongAdder nanos : this.phaseNanos) {
+            nanos.reset();
+        }
+        this.searchLatency.Reset();
+        this.postingsScanned.reset();
+        this.docsScored.reset();
+        this.queryCacheHits.reset();
+        this.queryCacheMisses.reset();
+        this.batchQueries.reset();
+    }
+
+    // Print Dump() to out every periodSeconds, on a daemon thread, until StopDumps
+    synchronized void StartDumps(PrintStream out, long periodSeconds) {
+        StopDumps();
+        this.dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vsmir-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dumper.scheduleAtFixedRate(() -> out.print(Dump()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    synchronized void StopDumps() {
+        if (this.dumper != null) {
+            this.dumper.shutdownNow();
+            this.dumper = null;
+        }
+    }
+
+    /*
+     * Histogram of durations in nanoseconds with a bounded relative error,
+     * laid out like HdrHistogram: values below SUB_BUCKETS get a bucket
+     * each, and every power of two above is split into SUB_BUCKETS equal
+     * buckets, so a bucket is never wider than 1 / SUB_BUCKETS of its
+     * values (about 3%). Recording is one atomic increment.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        // Exponents SUB_BUCKET_BITS .. 62 of a positive long, plus the linear range below
+        private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        void Record(long value) {
+            value = Math.max(0, value);
+            this.counts.incrementAndGet(BucketOf(value));
+            this.count.increment();
+            this.total.add(value);
+            this.max.accumulate(value);
+        }
+
+        long Count() {
+            return this.count.sum();
+        }
+
+        double Mean() {
+            long count = Count();
+            return count == 0 ? 0 : (double) this.total.sum() / count;
+        }
+
+        long Max() {
+            return this.max.get();
+        }
+
+        /*
+         * Highest value of the bucket holding the given percentile of the
+         * recorded values, never above the largest value recorded
+         */
+        long Percentile(double percentile) {
+            long count = Count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+                seen += this.counts.get(bucket);
+                if (seen >= rank) {
+                    return Math.min(Max(), HighestIn(bucket));
+                }
+            }
+            return Max();
+        }
+
+        void Reset() {
+            for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+                this.counts.set(bucket, 0);
+            }
+            this.count.reset();
+            this.total.reset();
+            this.max.reset();
+        }
+
+        static int BucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        static long HighestIn(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+}
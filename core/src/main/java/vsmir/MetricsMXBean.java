@@ -0,0 +1,72 @@
+/*
+    JMX view of Metrics, registered as vsmir:type=Metrics. Attribute and
+    operation names follow the JMX getter convention so that jconsole,
+    VisualVM and other JMX clients list them as attributes.
+*/
+
+package vsmir;
+
+public interface MetricsMXBean {
+    // Whether indexing and search record anything; can be switched at run time
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /*
+     * Indexing
+     */
+    long getDocsIndexed();
+
+    long getTokensIndexed();
+
+    // Over the time spent in BuildData or stream indexing
+    double getDocsPerSecond();
+
+    double getTokensPerSecond();
+
+    double getBuildDataSeconds();
+
+    double getCalcTFXIDFSeconds();
+
+    double getFreezeIndexSeconds();
+
+    double getBuildQueryListSeconds();
+
+    double getLoadIndexSeconds();
+
+    // Distinct terms of the last index frozen or loaded
+    long getDictionaryTerms();
+
+    /*
+     * Search
+     */
+    long getSearches();
+
+    double getSearchLatencyMeanMicros();
+
+    double getSearchLatencyP50Micros();
+
+    double getSearchLatencyP95Micros();
+
+    double getSearchLatencyP99Micros();
+
+    double getSearchLatencyMaxMicros();
+
+    long getPostingsScanned();
+
+    long getDocsScored();
+
+    long getQueryCacheHits();
+
+    long getQueryCacheMisses();
+
+    double getQueryCacheHitRate();
+
+    long getBatchQueries();
+
+    // Everything above as text, as the periodic dump prints it
+    String dump();
+
+    // Zero every counter and histogram
+    void reset();
+}
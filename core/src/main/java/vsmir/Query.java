@@ -0,0 +1,168 @@
+/*
+    A parsed ad-hoc query: free text with optional field restrictions and
+    required and excluded terms.
+
+    The query is split on white space into words. A word may start with
+    + (every term in it is required) or - (no matching document may have
+    any term in it), and then with a field name and a colon (title:,
+    abstract:, authors: or bibliography:) restricting it to that field;
+    everything else is free text scored in every field. There are no
+    phrases: quotes and other punctuation are dropped by the analyzer as
+    in any query. For example
+
+        +title:wing -supersonic flow boundary
+
+    ranks documents with wing in their title and supersonic in no field
+    by their Cosine Similarity Score for wing (in the title), flow and
+    boundary. Required terms are scored as well as filtered on; excluded
+    terms only filter, and filters alone match nothing.
+
+    Free text that uses none of this parses to the same query as
+    FreeText(), so it scores exactly like the raw query strings of
+    cran.qry. Immutable; Searcher compiles it into a QueryPlan.
+*/
+
+package vsmir;
+
+// Java
+import java.util.ArrayList;
+import java.util.Locale;
+
+public final class Query {
+    // How a clause takes part in the query
+    static final int SHOULD = 0;
+    static final int MUST = 1;
+    static final int MUST_NOT = 2;
+
+    private final int[] occurs;
+    private final int[] fieldMasks;
+    private final String[] texts;
+
+    private Query(int[] occurs, int[] fieldMasks, String[] texts) {
+        this.occurs = occurs;
+        this.fieldMasks = fieldMasks;
+        this.texts = texts;
+    }
+
+    // Plain text scored in every field, with no syntax at all
+    public static Query FreeText(String text) {
+        return new Query(new int[] { SHOULD }, new int[] { InvertedIndex.ALL_FIELDS }, new String[] { text });
+    }
+
+    public static Query Parse(String text) {
+        ArrayList<Integer> occurs = new ArrayList<Integer>();
+        ArrayList<Integer> fieldMasks = new ArrayList<Integer>();
+        ArrayList<String> texts = new ArrayList<String>();
+
+        // Runs of plain words stay one free text clause, analyzed as a whole as before
+        StringBuilder freeText = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            int occur = SHOULD;
+            if (word.startsWith("+")) {
+                occur = MUST;
+                word = word.substring(1);
+            } else if (word.startsWith("-")) {
+                occur = MUST_NOT;
+                word = word.substring(1);
+            }
+
+            int fieldMask = InvertedIndex.ALL_FIELDS;
+            int colon = word.indexOf(':');
+            if (colon > 0) {
+                int field = Field(word.substring(0, colon));
+                if (field >= 0) {
+                    fieldMask = 1 << field;
+                    word = word.substring(colon + 1);
+                }
+            }
+
+            if (occur == SHOULD && fieldMask == InvertedIndex.ALL_FIELDS) {
+                freeText.append(freeText.length() == 0 ? "" : " ").append(word);
+                continue;
+            }
+            if (freeText.length() > 0) {
+                occurs.add(SHOULD);
+                fieldMasks.add(InvertedIndex.ALL_FIELDS);
+                texts.add(freeText.toString());
+                freeText.setLength(0);
+            }
+            occurs.add(occur);
+            fieldMasks.add(fieldMask);
+            texts.add(word);
+        }
+        if (freeText.length() > 0 || texts.isEmpty()) {
+            occurs.add(SHOULD);
+            fieldMasks.add(InvertedIndex.ALL_FIELDS);
+            texts.add(freeText.toString());
+        }
+
+        int numClauses = texts.size();
+        int[] occurArray = new int[numClauses];
+        int[] fieldMaskArray = new int[numClauses];
+        for (int c = 0; c < numClauses; c++) {
+            occurArray[c] = occurs.get(c);
+            fieldMaskArray[c] = fieldMasks.get(c);
+        }
+        return new Query(occurArray, fieldMaskArray, texts.toArray(new String[numClauses]));
+    }
+
+    // InvertedIndex field of a field name, any case, or -1 if there is none
+    private static int Field(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+            if (InvertedIndex.FIELD_NAMES[field].equals(lower)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    int NumClauses() {
+        return this.texts.length;
+    }
+
+    // SHOULD, MUST or MUST_NOT
+    int Occur(int clause) {
+        return this.occurs[clause];
+    }
+
+    // Fields the clause applies to, as a bit mask of fields
+    int Fields(int clause) {
+        return this.fieldMasks[clause];
+    }
+
+    // Text of the clause, to be analyzed
+    String Text(int clause) {
+        return this.texts[clause];
+    }
+
+    /*
+     * Every clause spelled out unambiguously, for caching compiled plans:
+     * equal keys compile to the same plan on the same snapshot
+     */
+    String Key() {
+        StringBuilder key = new StringBuilder();
+        for (int c = 0; c < this.texts.length; c++) {
+            key.append(this.occurs[c]).append(',').append(this.fieldMasks[c]).append(',')
+                    .append(this.texts[c].length()).append(':').append(this.texts[c]);
+        }
+        return key.toString();
+    }
+
+    // The query written back in the syntax Parse reads
+    @Override
+    public String toString() {
+        StringBuilder query = new StringBuilder();
+        for (int c = 0; c < this.texts.length; c++) {
+            if (c > 0) {
+                query.append(' ');
+            }
+            query.append(this.occurs[c] == MUST ? "+" : this.occurs[c] == MUST_NOT ? "-" : "");
+            if (this.fieldMasks[c] != InvertedIndex.ALL_FIELDS) {
+                query.append(InvertedIndex.FIELD_NAMES[Integer.numberOfTrailingZeros(this.fieldMasks[c])]).append(':');
+            }
+            query.append(this.texts[c]);
+        }
+        return query.toString();
+    }
+}
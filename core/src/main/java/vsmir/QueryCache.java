@@ -0,0 +1,206 @@
+/*
+    Bounded cache of query results, shared by every search thread.
+
+    Queries are keyed by their normalized form (Searcher.NormalizedQuery),
+    so differently worded queries that analyze to the same terms share
+    entries. There are two tiers:
+
+    - field scores: the title and abstract Cosine Similarity Scores of
+      every matching document, so the same query with other boosts or
+      another k is only a recombine away, with no postings read;
+    - results: the final top k list for the exact query, boosts and k.
+
+    Each tier evicts its least recently used entries once it holds more
+    than its number of entries or its estimated bytes. Entries belong to
+    the snapshot generation they were computed on; the first search on a
+    newer snapshot drops them all. Searches on an older snapshot than the
+    cache's go around it. Hit, miss, eviction and invalidation counters
+    are kept per tier.
+*/
+
+package vsmir;
+
+// Java
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+final class QueryCache {
+    // Rough heap cost of an entry besides its value: key, map node, bookkeeping
+    private static final int ENTRY_BYTES = 96;
+
+    private final Tier<Searcher.FieldScores> fieldScores;
+    private final Tier<SearchResult> results;
+
+    /*
+     * Each tier holds at most maxEntries entries and about maxBytes of
+     * values; a value larger than maxBytes is not cached at all.
+     */
+    QueryCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Query cache limits must be positive");
+        }
+        this.fieldScores = new Tier<Searcher.FieldScores>(maxEntries, maxBytes);
+        this.results = new Tier<SearchResult>(maxEntries, maxBytes);
+    }
+
+    /*
+     * Same results as searcher.Search(query, boosts, k, cosine), from the
+     * cache where possible. A miss in both tiers scores every matching
+     * document, without pruning, so that later boosts can reuse the scores.
+     */
+    SearchResult Search(Searcher searcher, String query, float[] boosts, int k, int cosine) {
+        long start = Metrics.Enabled() ? System.nanoTime() : 0;
+        // Padded, so that boosts given with and without trailing zeros share entries
+        boosts = Searcher.FieldBoosts(boosts);
+        long generation = searcher.Generation();
+        String terms = searcher.NormalizedQuery(query);
+
+        StringBuilder resultKey = new StringBuilder().append(cosine).append('|').append(k);
+        for (float boost : boosts) {
+            resultKey.append('|').append(boost);
+        }
+        resultKey.append('|').append(terms);
+        SearchResult result = this.results.Get(resultKey.toString(), generation);
+        boolean hit = result != null;
+        if (!hit) {
+            String scoresKey = cosine + "|" + terms;
+            Searcher.FieldScores scores = this.fieldScores.Get(scoresKey, generation);
+            hit = scores != null;
+            if (!hit) {
+                scores = searcher.ScoreFields(query, cosine);
+                this.fieldScores.Put(scoresKey, scores, scores.Bytes(), generation);
+            }
+
+            result = searcher.Combine(scores, boosts, k);
+            this.results.Put(resultKey.toString(), result, 64 + 16L * result.Size(), generation);
+        }
+
+        if (start != 0) {
+            Metrics.Get().RecordQueryCache(hit);
+            Metrics.Get().RecordSearch(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    // Per query title and abstract score vectors
+    Tier<Searcher.FieldScores> FieldScoresTier() {
+        return this.fieldScores;
+    }
+
+    // Final top k lists
+    Tier<SearchResult> ResultsTier() {
+        return this.results;
+    }
+
+    /*
+     * One tier: an access ordered map, oldest used entry first, with its
+     * estimated size. All methods lock the tier.
+     */
+    static final class Tier<V> {
+        private final int maxEntries;
+        private final long maxBytes;
+
+        private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+        private long bytes;
+
+        // Snapshot generation of every entry in the tier
+        private long generation;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder invalidations = new LongAdder();
+
+        Tier(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized V Get(String key, long generation) {
+            Entry<V> entry = Current(generation) ? this.entries.get(key) : null;
+            if (entry == null) {
+                this.misses.increment();
+                return null;
+            }
+            this.hits.increment();
+            return entry.value;
+        }
+
+        synchronized void Put(String key, V value, long valueBytes, long generation) {
+            long entryBytes = ENTRY_BYTES + 2L * key.length() + valueBytes;
+            if (!Current(generation) || entryBytes > this.maxBytes) {
+                return;
+            }
+
+            Entry<V> replaced = this.entries.put(key, new Entry<V>(value, entryBytes));
+            if (replaced != null) {
+                this.bytes -= replaced.bytes;
+            }
+            this.bytes += entryBytes;
+
+            // Evict from the least recently used end
+            Iterator<Entry<V>> eldest = this.entries.values().iterator();
+            while (this.entries.size() > this.maxEntries || this.bytes > this.maxBytes) {
+                this.bytes -= eldest.next().bytes;
+                eldest.remove();
+                this.evictions.increment();
+            }
+        }
+
+        /*
+         * Is generation the one the entries belong to? A newer one drops
+         * every entry and becomes the tier's generation.
+         */
+        private boolean Current(long generation) {
+            if (generation > this.generation) {
+                this.invalidations.add(this.entries.size());
+                this.entries.clear();
+                this.bytes = 0;
+                this.generation = generation;
+            }
+            return generation == this.generation;
+        }
+
+        long Hits() {
+            return this.hits.sum();
+        }
+
+        long Misses() {
+            return this.misses.sum();
+        }
+
+        long Evictions() {
+            return this.evictions.sum();
+        }
+
+        // Entries dropped because the index changed under them
+        long Invalidations() {
+            return this.invalidations.sum();
+        }
+
+        double HitRate() {
+            long hits = Hits();
+            long lookups = hits + Misses();
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        synchronized int Size() {
+            return this.entries.size();
+        }
+
+        synchronized long Bytes() {
+            return this.bytes;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long bytes;
+
+        Entry(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
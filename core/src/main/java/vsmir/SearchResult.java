@@ -0,0 +1,52 @@
+/*
+    Ranked results of one query, best first.
+
+    Immutable, so it can be handed to any thread once Search returns.
+*/
+
+package vsmir;
+
+public final class SearchResult {
+    // Rank (from 0) -> DocID from the corpus and Final Cosine Similarity Score
+    private final int[] docIDs;
+    private final double[] scores;
+
+    // Rank (from 0) -> doc in the snapshot the query ran against
+    private final int[] docs;
+
+    SearchResult(int[] docIDs, int[] docs, double[] scores) {
+        this.docIDs = docIDs;
+        this.docs = docs;
+        this.scores = scores;
+    }
+
+    // Copy the ranked results out of a sorted collector
+    static SearchResult Of(TopKCollector results, Searcher searcher) {
+        int size = results.Size();
+        int[] docIDs = new int[size];
+        int[] docs = new int[size];
+        double[] scores = new double[size];
+        for (int rank = 0; rank < size; rank++) {
+            docs[rank] = results.Doc(rank);
+            docIDs[rank] = searcher.DocID(docs[rank]);
+            scores[rank] = results.Score(rank);
+        }
+        return new SearchResult(docIDs, docs, scores);
+    }
+
+    public int Size() {
+        return this.docIDs.length;
+    }
+
+    public int DocID(int rank) {
+        return this.docIDs[rank];
+    }
+
+    public double Score(int rank) {
+        return this.scores[rank];
+    }
+
+    int Doc(int rank) {
+        return this.docs[rank];
+    }
+}
@@ -0,0 +1,1517 @@
+/*
+    Thread-safe query engine over a snapshot of frozen index segments.
+
+    A snapshot is one or more InvertedIndex segments, each with the set
+    of its documents that have been deleted since it was built. The
+    segments, the deletions and the analyzer are never modified once
+    the searcher is built, so any number of threads (platform or
+    virtual) can call Search at the same time without locking. The
+    per-query score accumulators live in scratch objects taken from a
+    lock-free pool, so a steady stream of queries does not allocate
+    them again.
+
+    Documents are numbered across the snapshot: the docs of segment s
+    come after those of every earlier segment. Collection size and
+    document frequencies count live documents only and are added up
+    over the segments at query time, so a snapshot scores exactly like
+    a single index holding its live documents.
+
+    Every searcher gets a new generation number, so anything computed
+    from one snapshot (see QueryCache) can tell it has gone stale once a
+    newer snapshot is searched.
+
+    A query is first compiled into a QueryPlan: its terms after analysis
+    with their term IDs, statistics and weights, and its required and
+    excluded terms (see Query). Plans of parsed queries are cached by the
+    searcher, as they only hold for its snapshot. Filters are applied
+    before scoring, by intersecting the posting lists of the required
+    terms over their skip pointers, so only documents passing them are
+    scored and the more restrictive a query the fewer postings it reads.
+
+    A plan is compiled for one Similarity, the ranking function it is
+    scored with: the Cosine Similarity Score by default, or BM25 or
+    pivoted normalization over the same index.
+*/
+
+package vsmir;
+
+// Java
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Searcher {
+    // Document side of the cosine taken over the query terms only, as CalcCSS always has
+    public static final int COSINE_QUERY_TERMS = 0;
+
+    /*
+     * True cosine against each document's full TF-IDF vector, using the norms
+     * in the index. Norms are computed when a segment is built, with that
+     * segment's statistics, so with several segments they are approximate
+     * until the segments are merged.
+     */
+    public static final int COSINE_FULL = 1;
+
+    private final InvertedIndex[] segments;
+
+    // Deleted docs of each segment, null if it has none
+    private final BitSet[] deleted;
+
+    // First snapshot doc of each segment, and one past the last doc
+    private final int[] docBases;
+    private final int maxDoc;
+
+    private final int numLiveDocs;
+    private final Analyzer analyzer;
+
+    // Generation of this snapshot, higher for every searcher built after it
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+    private final long generation = GENERATIONS.incrementAndGet();
+
+    // Scratch objects not in use by any query right now
+    private final ConcurrentLinkedQueue<Scratch> scratchPool = new ConcurrentLinkedQueue<Scratch>();
+
+    // Postings of query terms read, and scored, by all searches
+    private final LongAdder postingsTotal = new LongAdder();
+    private final LongAdder postingsScored = new LongAdder();
+
+    // Past the last doc of a list
+    private static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    // Relative margin on score bounds, far above the rounding error of a score
+    private static final double PRUNING_SLACK = 1 + 1e-9;
+
+    // Postings Accumulate hands a Similarity at a time
+    private static final int BLOCK_SIZE = 128;
+
+    // Compiled plans of recent parsed queries, keyed by Similarity.Name() and Query.Key()
+    private static final int PLAN_CACHE_ENTRIES = 1024;
+    private static final long PLAN_CACHE_BYTES = 4L << 20;
+    private final QueryCache.Tier<QueryPlan> plans = new QueryCache.Tier<QueryPlan>(PLAN_CACHE_ENTRIES,
+            PLAN_CACHE_BYTES);
+
+    // Average length of every field over the live docs, worked out on first use
+    private volatile double[] averageFieldLengths;
+
+    Searcher(InvertedIndex index, Analyzer analyzer) {
+        this(new InvertedIndex[] { index }, new BitSet[1], analyzer);
+    }
+
+    Searcher(InvertedIndex[] segments, BitSet[] deleted, Analyzer analyzer) {
+        this.segments = segments.clone();
+        this.deleted = deleted.clone();
+        this.analyzer = analyzer;
+
+        this.docBases = new int[segments.length];
+        int maxDoc = 0;
+        int numLiveDocs = 0;
+        for (int s = 0; s < segments.length; s++) {
+            this.docBases[s] = maxDoc;
+            maxDoc += segments[s].NumDocs();
+            numLiveDocs += segments[s].NumDocs() - (deleted[s] == null ? 0 : deleted[s].cardinality());
+        }
+        this.maxDoc = maxDoc;
+        this.numLiveDocs = numLiveDocs;
+    }
+
+    int NumSegments() {
+        return this.segments.length;
+    }
+
+    InvertedIndex Segment(int s) {
+        return this.segments[s];
+    }
+
+    // Deleted docs of a segment, null if none; must not be modified
+    BitSet Deleted(int s) {
+        return this.deleted[s];
+    }
+
+    int NumLiveDocs() {
+        return this.numLiveDocs;
+    }
+
+    long Generation() {
+        return this.generation;
+    }
+
+    // One past the last snapshot doc
+    int MaxDoc() {
+        return this.maxDoc;
+    }
+
+    // First snapshot doc of segment s
+    int DocBase(int s) {
+        return this.docBases[s];
+    }
+
+    // Norm of a snapshot doc's full TF-IDF vector in a field, as COSINE_FULL divides by
+    double Norm(int field, int doc) {
+        int s = SegmentOf(doc);
+        return this.segments[s].Norm(field, doc - this.docBases[s]);
+    }
+
+    /*
+     * Average length (see InvertedIndex.FieldLength) of a field over the
+     * live docs, as BM25 and pivoted normalization divide by. Racing
+     * threads may both add it up, to the same result.
+     */
+    double AverageFieldLength(int field) {
+        double[] averages = this.averageFieldLengths;
+        if (averages == null) {
+            long[] totals = new long[InvertedIndex.NUM_FIELDS];
+            for (int s = 0; s < this.segments.length; s++) {
+                for (int doc = 0; doc < this.segments[s].NumDocs(); doc++) {
+                    if (!IsDeleted(s, doc)) {
+                        for (int f = 0; f < InvertedIndex.NUM_FIELDS; f++) {
+                            totals[f] += this.segments[s].FieldLength(f, doc);
+                        }
+                    }
+                }
+            }
+            averages = new double[InvertedIndex.NUM_FIELDS];
+            for (int f = 0; f < InvertedIndex.NUM_FIELDS; f++) {
+                averages[f] = this.numLiveDocs == 0 ? 0 : (double) totals[f] / this.numLiveDocs;
+            }
+            this.averageFieldLengths = averages;
+        }
+        return averages[field];
+    }
+
+    // Analyzes queries the same way as the documents were
+    Analyzer GetAnalyzer() {
+        return this.analyzer;
+    }
+
+    // DocID from the corpus of a snapshot doc
+    int DocID(int doc) {
+        int s = SegmentOf(doc);
+        return this.segments[s].DocID(doc - this.docBases[s]);
+    }
+
+    String Title(int doc) {
+        int s = SegmentOf(doc);
+        return this.segments[s].Title(doc - this.docBases[s]);
+    }
+
+    // Read-only view of the stored text of a field (InvertedIndex.TITLE, ...) of a snapshot doc, not copied
+    ByteBuffer Stored(int doc, int field) {
+        int s = SegmentOf(doc);
+        return this.segments[s].Stored(doc - this.docBases[s], field);
+    }
+
+    // Returns the live snapshot doc for a DocID, or -1 if there is none
+    int Doc(int docID) {
+        for (int s = this.segments.length - 1; s >= 0; s--) {
+            int doc = this.segments[s].Doc(docID);
+            if (doc >= 0 && !IsDeleted(s, doc)) {
+                return this.docBases[s] + doc;
+            }
+        }
+        return -1;
+    }
+
+    private int SegmentOf(int doc) {
+        int s = Arrays.binarySearch(this.docBases, doc);
+        if (s < 0) {
+            return -s - 2;
+        }
+        // Skip empty segments sharing the same base
+        while (s + 1 < this.docBases.length && this.docBases[s + 1] == doc) {
+            s++;
+        }
+        return s;
+    }
+
+    private boolean IsDeleted(int s, int doc) {
+        return this.deleted[s] != null && this.deleted[s].get(doc);
+    }
+
+    /*
+     *
+     * Score the documents against a query and return the top k.
+     *
+     * boosts holds one weight per field (InvertedIndex.TITLE, ABSTRACT,
+     * AUTHORS, BIBLIOGRAPHY), fields past its end weighing 0; the final
+     * score is the boosted sum of the per field Cosine Similarity Scores.
+     * Fields boosted 0 are not read at all.
+     *
+     */
+    public SearchResult Search(String query, float[] boosts, int k) {
+        return Search(query, boosts, k, COSINE_QUERY_TERMS);
+    }
+
+    /*
+     * Same as above, with cosine either COSINE_QUERY_TERMS or COSINE_FULL
+     */
+    public SearchResult Search(String query, float[] boosts, int k, int cosine) {
+        return Search(query, boosts, k, cosine, true);
+    }
+
+    /*
+     * Same as above. With pruning, COSINE_FULL searches skip documents that
+     * cannot make the top k (see ScorePruned); the results are exactly those
+     * of scoring every document, which is what pruning false does.
+     */
+    public SearchResult Search(String query, float[] boosts, int k, int cosine, boolean pruning) {
+        return Search(query, boosts, k, Similarity.Of(cosine), pruning);
+    }
+
+    /*
+     * Same as above, scored with any Similarity: one of the cosines, BM25
+     * or pivoted normalization. Only COSINE_FULL is pruned.
+     */
+    public SearchResult Search(String query, float[] boosts, int k, Similarity similarity) {
+        return Search(query, boosts, k, similarity, true);
+    }
+
+    public SearchResult Search(String query, float[] boosts, int k, Similarity similarity, boolean pruning) {
+        return Search(null, Query.FreeText(query), similarity, boosts, k, pruning);
+    }
+
+    /*
+     * Same as above for a parsed query (see Query), its field restrictions
+     * and filters applied. Its plan is compiled once and then taken from
+     * the plan cache while the same query is asked again.
+     */
+    public SearchResult Search(Query query, float[] boosts, int k) {
+        return Search(query, boosts, k, Similarity.COSINE_QUERY_TERMS, true);
+    }
+
+    public SearchResult Search(Query query, float[] boosts, int k, int cosine, boolean pruning) {
+        return Search(query, boosts, k, Similarity.Of(cosine), pruning);
+    }
+
+    public SearchResult Search(Query query, float[] boosts, int k, Similarity similarity) {
+        return Search(query, boosts, k, similarity, true);
+    }
+
+    public SearchResult Search(Query query, float[] boosts, int k, Similarity similarity, boolean pruning) {
+        return Search(Plan(query, similarity), null, similarity, boosts, k, pruning);
+    }
+
+    // Same as above with a plan compiled by this searcher, scored with the similarity it was compiled for
+    SearchResult Search(QueryPlan plan, float[] boosts, int k, boolean pruning) {
+        if (plan.generation != this.generation) {
+            throw new IllegalArgumentException("Query plan compiled for another snapshot");
+        }
+        return Search(plan, null, plan.similarity, boosts, k, pruning);
+    }
+
+    // Compiled plan of a query, from the plan cache if it has been compiled before
+    QueryPlan Plan(Query query, Similarity similarity) {
+        String key = similarity.Name() + '|' + query.Key();
+        QueryPlan plan = this.plans.Get(key, this.generation);
+        if (plan == null) {
+            Scratch scratch = TakeScratch();
+            try {
+                plan = Compile(query, similarity, scratch);
+            } finally {
+                this.scratchPool.offer(scratch);
+            }
+            this.plans.Put(key, plan, plan.Bytes(), this.generation);
+        }
+        return plan;
+    }
+
+    // Search a plan, or compile query for similarity on the way without caching the plan
+    private SearchResult Search(QueryPlan plan, Query query, Similarity similarity, float[] boosts, int k,
+            boolean pruning) {
+        boosts = FieldBoosts(boosts);
+        long start = Metrics.Enabled() ? System.nanoTime() : 0;
+
+        Scratch scratch = TakeScratch();
+        try {
+            Score(plan == null ? Compile(query, similarity, scratch) : plan, boosts, k, pruning, scratch);
+            SearchResult result = SearchResult.Of(scratch.results, this);
+            if (start != 0) {
+                Metrics.Get().RecordSearch(System.nanoTime() - start);
+            }
+            return result;
+        } finally {
+            this.scratchPool.offer(scratch);
+        }
+    }
+
+    /*
+     * The query reduced to what its scores depend on: its distinct terms
+     * after analysis, sorted, each with its Raw TF. Queries with the same
+     * normalized form score the same on any snapshot.
+     */
+    String NormalizedQuery(String query) {
+        Scratch scratch = TakeScratch();
+        try {
+            scratch.StartQuery();
+            scratch.tokenizer.Analyze(query);
+            scratch.SortQueryTerms();
+
+            StringBuilder normalized = new StringBuilder();
+            for (int i = 0; i < scratch.numQueryTerms; i++) {
+                int t = scratch.sortedTerms[i];
+                int start = scratch.termStarts[t];
+                if (i > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(scratch.termChars, start, scratch.termStarts[t + 1] - start);
+                normalized.append('^').append(scratch.queryTermFreqs[t]);
+            }
+            return normalized.toString();
+        } finally {
+            this.scratchPool.offer(scratch);
+        }
+    }
+
+    /*
+     * Score every document that shares a term with the query, keeping the
+     * Cosine Similarity Score of each field apart so that Combine can
+     * weigh them with any boosts later on. Always scores exhaustively.
+     */
+    FieldScores ScoreFields(String query, int cosine) {
+        Similarity similarity = Similarity.Of(cosine);
+
+        Scratch scratch = TakeScratch();
+        try {
+            QueryPlan plan = Compile(Query.FreeText(query), similarity, scratch);
+            Accumulate(plan, InvertedIndex.ALL_FIELDS, scratch);
+
+            int numDocs = scratch.numTouched;
+            int[] docs = Arrays.copyOf(scratch.touchedDocs, numDocs);
+            double[][] cosines = new double[InvertedIndex.NUM_FIELDS][numDocs];
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                for (int i = 0; i < numDocs; i++) {
+                    cosines[field][i] = FieldScore(plan, field, docs[i], scratch);
+                }
+            }
+            scratch.Clear();
+            return new FieldScores(this.generation, docs, cosines);
+        } finally {
+            this.scratchPool.offer(scratch);
+        }
+    }
+
+    /*
+     * Top k results of field scores from ScoreFields on this searcher, under
+     * the given boosts. The same results, to the bit, as Search.
+     */
+    SearchResult Combine(FieldScores scores, float[] boosts, int k) {
+        boosts = FieldBoosts(boosts);
+        if (scores.generation != this.generation) {
+            throw new IllegalArgumentException("Field scores come from another snapshot");
+        }
+
+        Scratch scratch = TakeScratch();
+        try {
+            // Boosted sum of the field scores of every doc, a whole vector at a time
+            int numDocs = scores.docs.length;
+            double[] finalScores = scratch.FinalScores(numDocs);
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                VectorKernels.DEFAULT.AddScaled(finalScores, scores.cosines[field], boosts[field], numDocs);
+            }
+
+            TopKCollector results = scratch.results;
+            results.Reset(k);
+            for (int i = 0; i < numDocs; i++) {
+                if (finalScores[i] > 0) {
+                    results.Collect(scores.docs[i], finalScores[i]);
+                }
+            }
+            results.SortResults();
+            return SearchResult.Of(results, this);
+        } finally {
+            this.scratchPool.offer(scratch);
+        }
+    }
+
+    /*
+     * Per field Cosine Similarity Scores of the documents matching a query,
+     * in the order ScoreExhaustive finds them. Immutable.
+     */
+    static final class FieldScores {
+        private final long generation;
+        private final int[] docs;
+        private final double[][] cosines;
+
+        private FieldScores(long generation, int[] docs, double[][] cosines) {
+            this.generation = generation;
+            this.docs = docs;
+            this.cosines = cosines;
+        }
+
+        int NumDocs() {
+            return this.docs.length;
+        }
+
+        // Rough heap footprint, for caches that hold these
+        long Bytes() {
+            return 64 + 16L * (1 + InvertedIndex.NUM_FIELDS)
+                    + (long) this.docs.length * (4 + 8 * InvertedIndex.NUM_FIELDS);
+        }
+    }
+
+    /*
+     * A query compiled against one snapshot for one similarity: its scored
+     * terms in sorted order, each with its term ID in every segment (index
+     * i * numSegments + s, -1 where it is missing) and its live document
+     * frequency, query weight and idf per field (index i * NUM_FIELDS +
+     * field, the document frequency 0 in fields it is not scored in), the
+     * squared length of the query vector of every field, and its filter
+     * terms with the fields they apply to, required terms first and the
+     * shortest lists first among those. Immutable.
+     */
+    static final class QueryPlan {
+        private final long generation;
+        private final Similarity similarity;
+        // Hand the similarity true occurrences rather than raw TFs
+        private final boolean occurrences;
+
+        private final int numTerms;
+        private final int[] termIDs;
+        private final int[] termDocFreqs;
+        private final double[] queryWeights;
+        private final double[] idfs;
+        private final double[] querySquaredWeights;
+
+        private final int numRequired;
+        private final int numFilters;
+        private final int[] filterTermIDs;
+        private final int[] filterFields;
+
+        private QueryPlan(long generation, Similarity similarity, int numTerms, int[] termIDs, int[] termDocFreqs,
+                double[] queryWeights, double[] idfs, double[] querySquaredWeights, int numRequired, int numFilters,
+                int[] filterTermIDs, int[] filterFields) {
+            this.generation = generation;
+            this.similarity = similarity;
+            this.occurrences = similarity.Occurrences();
+            this.numTerms = numTerms;
+            this.termIDs = termIDs;
+            this.termDocFreqs = termDocFreqs;
+            this.queryWeights = queryWeights;
+            this.idfs = idfs;
+            this.querySquaredWeights = querySquaredWeights;
+            this.numRequired = numRequired;
+            this.numFilters = numFilters;
+            this.filterTermIDs = filterTermIDs;
+            this.filterFields = filterFields;
+        }
+
+        // Rough heap footprint, for the plan cache
+        long Bytes() {
+            return 64 + 16L * 9 + 4L * (this.termIDs.length + this.termDocFreqs.length + this.filterTermIDs.length
+                    + this.filterFields.length) + 8L * (this.queryWeights.length + this.idfs.length
+                    + this.querySquaredWeights.length);
+        }
+    }
+
+    /*
+     * A boost for every field: boosts itself if it has one per field, else
+     * a copy padded with 0 for the fields past its end
+     */
+    static float[] FieldBoosts(float[] boosts) {
+        if (boosts.length == 0 || boosts.length > InvertedIndex.NUM_FIELDS) {
+            throw new IllegalArgumentException(
+                    "Expected 1 to " + InvertedIndex.NUM_FIELDS + " boosts, got " + boosts.length);
+        }
+        return boosts.length == InvertedIndex.NUM_FIELDS ? boosts
+                : Arrays.copyOf(boosts, InvertedIndex.NUM_FIELDS);
+    }
+
+    private Scratch TakeScratch() {
+        Scratch scratch = this.scratchPool.poll();
+        return scratch == null ? new Scratch() : scratch;
+    }
+
+    /*
+     * Postings of query terms read by searches so far, and how many of
+     * those were scored. The rest belonged to deleted documents or were
+     * skipped by pruning.
+     */
+    long PostingsTotal() {
+        return this.postingsTotal.sum();
+    }
+
+    long PostingsScored() {
+        return this.postingsScored.sum();
+    }
+
+    long PostingsSkipped() {
+        return PostingsTotal() - PostingsScored();
+    }
+
+    private void Score(QueryPlan plan, float[] boosts, int k, boolean pruning, Scratch scratch) {
+        TopKCollector results = scratch.results;
+        results.Reset(k);
+
+        boolean boostsNonNegative = true;
+        for (float boost : boosts) {
+            boostsNonNegative &= boost >= 0;
+        }
+        ApplyFilters(plan, scratch);
+        // Required terms leave few documents to score, so they are scored exhaustively
+        if (pruning && plan.similarity == Similarity.COSINE_FULL && boostsNonNegative && plan.numRequired == 0) {
+            ScorePruned(boosts, plan, scratch);
+        } else {
+            ScoreExhaustive(boosts, plan, scratch);
+        }
+        scratch.ClearFilters();
+
+        results.SortResults();
+    }
+
+    /*
+     * Analyze the query into scratch and compile it: look up its terms,
+     * add up their live document frequencies and work out the weights of
+     * the similarity
+     */
+    private QueryPlan Compile(Query query, Similarity similarity, Scratch scratch) {
+        int numSegments = this.segments.length;
+        int collectionSize = this.numLiveDocs;
+
+        // Query terms and their Raw TF per field, sorted by term, with their term ID in every segment
+        scratch.StartQuery();
+        for (int c = 0; c < query.NumClauses(); c++) {
+            scratch.clauseOccur = query.Occur(c);
+            scratch.clauseFields = query.Fields(c);
+            scratch.tokenizer.Analyze(query.Text(c));
+        }
+        scratch.SortQueryTerms();
+
+        int numTerms = scratch.numQueryTerms;
+        int[] termIDs = new int[numTerms * numSegments];
+        int[] termDocFreqs = new int[numTerms * InvertedIndex.NUM_FIELDS];
+        for (int i = 0; i < numTerms; i++) {
+            int t = scratch.sortedTerms[i];
+            LiveDocFreqs(scratch, t);
+            System.arraycopy(scratch.termIDs, t * numSegments, termIDs, i * numSegments, numSegments);
+            // Fields the term is not asked for in are skipped, like the fields it is missing from
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                if (scratch.fieldTermFreqs[t * InvertedIndex.NUM_FIELDS + field] != 0) {
+                    termDocFreqs[i * InvertedIndex.NUM_FIELDS + field] =
+                            scratch.termDocFreqs[t * InvertedIndex.NUM_FIELDS + field];
+                }
+            }
+        }
+
+        // Query side weights per term and field; terms missing from a field weigh 0 there
+        double[] queryWeights = new double[numTerms * InvertedIndex.NUM_FIELDS];
+        double[] idfs = new double[numTerms * InvertedIndex.NUM_FIELDS];
+        double[] querySquaredWeights = new double[InvertedIndex.NUM_FIELDS];
+        for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+            for (int i = 0; i < numTerms; i++) {
+                int t = scratch.sortedTerms[i];
+                int w = i * InvertedIndex.NUM_FIELDS + field;
+                int raw_tf = scratch.fieldTermFreqs[t * InvertedIndex.NUM_FIELDS + field];
+                int termDocFreq = termDocFreqs[w];
+                if (termDocFreq == 0) {
+                    continue;
+                }
+                double queryWeight = similarity.QueryWeight(raw_tf, termDocFreq, collectionSize);
+                querySquaredWeights[field] += queryWeight * queryWeight;
+                queryWeights[w] = queryWeight;
+                idfs[w] = similarity.TermWeight(termDocFreq, collectionSize);
+            }
+        }
+
+        // Filter terms, required before excluded and the fewest postings first
+        int numFilters = scratch.numFilters;
+        int numRequired = 0;
+        int[] order = new int[numFilters];
+        long[] costs = new long[numFilters];
+        for (int r = 0; r < numFilters; r++) {
+            boolean required = scratch.filterOccurs[r] == Query.MUST;
+            numRequired += required ? 1 : 0;
+            for (int s = 0; s < numSegments; s++) {
+                int termID = scratch.filterTermIDs[r * numSegments + s];
+                for (int fields = scratch.filterFields[r]; fields != 0 && termID >= 0; fields &= fields - 1) {
+                    costs[r] += this.segments[s].DocFreq(Integer.numberOfTrailingZeros(fields), termID);
+                }
+            }
+            if (!required) {
+                costs[r] = Long.MAX_VALUE;
+            }
+            int j = r - 1;
+            while (j >= 0 && costs[order[j]] > costs[r]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = r;
+        }
+        int[] filterTermIDs = new int[numFilters * numSegments];
+        int[] filterFields = new int[numFilters];
+        for (int i = 0; i < numFilters; i++) {
+            int r = order[i];
+            System.arraycopy(scratch.filterTermIDs, r * numSegments, filterTermIDs, i * numSegments, numSegments);
+            filterFields[i] = scratch.filterFields[r];
+        }
+
+        return new QueryPlan(this.generation, similarity, numTerms, termIDs, termDocFreqs, queryWeights, idfs,
+                querySquaredWeights, numRequired, numFilters, filterTermIDs, filterFields);
+    }
+
+    /*
+     * Work out which documents the filters of a plan let through, before
+     * anything is scored: with required terms, the docs of every segment
+     * that pass, into scratch.allowedDocs; with only excluded terms, the
+     * docs they rule out, into scratch.excluded
+     */
+    private void ApplyFilters(QueryPlan plan, Scratch scratch) {
+        if (plan.numFilters == 0 || plan.numTerms == 0) {
+            return;
+        }
+        int numSegments = this.segments.length;
+        if (plan.numRequired > 0) {
+            scratch.filtered = true;
+            scratch.numAllowed = 0;
+            for (int s = 0; s < numSegments; s++) {
+                scratch.allowedStarts[s] = scratch.numAllowed;
+                Filter(plan, s, scratch);
+            }
+            scratch.allowedStarts[numSegments] = scratch.numAllowed;
+            return;
+        }
+
+        scratch.excluding = true;
+        for (int r = 0; r < plan.numFilters; r++) {
+            for (int s = 0; s < numSegments; s++) {
+                int termID = plan.filterTermIDs[r * numSegments + s];
+                if (termID < 0) {
+                    continue;
+                }
+                InvertedIndex.PostingsIterator postings = scratch.postings[s];
+                postings.ResetFields(plan.filterFields[r], termID);
+                while (postings.Next()) {
+                    scratch.excluded.set(this.docBases[s] + postings.Doc());
+                }
+            }
+        }
+    }
+
+    /*
+     * Live docs of segment s with every required term of a plan and none
+     * of its excluded ones, appended to scratch.allowedDocs in ascending
+     * order. The list with the fewest postings leads: every other list is
+     * advanced to the lead's doc over its skip pointers, and a required
+     * list that overshoots it moves the lead up to where it landed, so
+     * the runs of postings in between are never decoded.
+     */
+    private void Filter(QueryPlan plan, int s, Scratch scratch) {
+        int numSegments = this.segments.length;
+        BitSet segmentDeleted = this.deleted[s];
+        int numFilters = plan.numFilters;
+        int numRequired = plan.numRequired;
+        int[] filterDocs = scratch.FilterDocs(numFilters);
+
+        for (int r = 0; r < numFilters; r++) {
+            int termID = plan.filterTermIDs[r * numSegments + s];
+            if (termID < 0) {
+                if (r < numRequired) {
+                    // No doc of the segment has this required term
+                    return;
+                }
+                filterDocs[r] = NO_MORE_DOCS;
+                continue;
+            }
+            scratch.FilterPostings(s, r).ResetFields(plan.filterFields[r], termID);
+            filterDocs[r] = -1;
+        }
+
+        InvertedIndex.PostingsIterator[] lists = scratch.filterPostings[s];
+        InvertedIndex.PostingsIterator lead = lists[0];
+        int doc = lead.Next() ? lead.Doc() : NO_MORE_DOCS;
+        while (doc != NO_MORE_DOCS) {
+            // Where the lead goes next: its next doc, or further if a required list skipped past
+            int next = doc;
+            boolean passes = true;
+            for (int r = 1; r < numFilters && passes; r++) {
+                if (filterDocs[r] < doc) {
+                    filterDocs[r] = lists[r].Advance(doc) ? lists[r].Doc() : NO_MORE_DOCS;
+                }
+                if (r < numRequired) {
+                    passes = filterDocs[r] == doc;
+                    next = filterDocs[r];
+                } else {
+                    passes = filterDocs[r] != doc;
+                }
+            }
+            if (passes && (segmentDeleted == null || !segmentDeleted.get(doc))) {
+                scratch.Allow(doc);
+            }
+
+            if (next == NO_MORE_DOCS) {
+                break;
+            } else if (next > doc) {
+                doc = lead.Advance(next) ? lead.Doc() : NO_MORE_DOCS;
+            } else {
+                doc = lead.Next() ? lead.Doc() : NO_MORE_DOCS;
+            }
+        }
+    }
+
+    /*
+     * Term-at-a-time scoring: walk only the postings of the query terms,
+     * once for all the boosted fields, and accumulate the partial dot
+     * products per document and field.
+     * With COSINE_QUERY_TERMS the squared document weights are added up
+     * too, for a document norm restricted to the query terms; with
+     * COSINE_FULL the norm comes precomputed from the index, leaving one
+     * multiply-add per posting. BM25 and pivoted normalization add up
+     * their own term weights and take the sum as the field score.
+     * Documents that share no term with the query, or do not pass its
+     * filters, are never touched.
+     */
+    private void ScoreExhaustive(float[] boosts, QueryPlan plan, Scratch scratch) {
+        // A field boosted 0 adds exactly 0 to every score, so it is not read
+        int fieldMask = 0;
+        for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+            if (boosts[field] != 0) {
+                fieldMask |= 1 << field;
+            }
+        }
+        Accumulate(plan, fieldMask, scratch);
+
+        // Get Final Cosine Similarity Scores
+        TopKCollector results = scratch.results;
+        for (int i = 0; i < scratch.numTouched; i++) {
+            int doc = scratch.touchedDocs[i];
+            double finalScore = 0;
+            for (int fields = fieldMask; fields != 0; fields &= fields - 1) {
+                int field = Integer.numberOfTrailingZeros(fields);
+                finalScore += boosts[field] * FieldScore(plan, field, doc, scratch);
+            }
+
+            if (finalScore > 0) {
+                results.Collect(doc, finalScore);
+            }
+        }
+
+        scratch.Clear();
+    }
+
+    /*
+     * Partial dot products (and squared weights) in the fields of fieldMask
+     * of every doc the query terms are in those fields. Each term's postings
+     * list covers all fields, so it is read once whatever the fields; its
+     * postings are gathered by field into blocks of BLOCK_SIZE, which the
+     * similarity of the plan adds up in a loop of its own.
+     * Under required terms only the docs that passed the filters are
+     * visited, each list advanced from one to the next over its skip
+     * pointers; docs ruled out by excluded terms are passed over.
+     */
+    private void Accumulate(QueryPlan plan, int fieldMask, Scratch scratch) {
+        int numSegments = this.segments.length;
+        int postingsTotal = 0;
+        int postingsScored = 0;
+        BitSet excluded = scratch.excluding ? scratch.excluded : null;
+
+        for (int t = 0; t < plan.numTerms; t++) {
+            // Fields to score the term in: wanted, and in some live doc
+            int termFields = 0;
+            for (int fields = fieldMask; fields != 0; fields &= fields - 1) {
+                int field = Integer.numberOfTrailingZeros(fields);
+                if (plan.termDocFreqs[t * InvertedIndex.NUM_FIELDS + field] != 0) {
+                    termFields |= 1 << field;
+                }
+            }
+            if (termFields == 0) {
+                continue;
+            }
+            int w = t * InvertedIndex.NUM_FIELDS;
+
+            for (int s = 0; s < numSegments; s++) {
+                int termID = plan.termIDs[t * numSegments + s];
+                if (termID < 0) {
+                    continue;
+                }
+                InvertedIndex.PostingsIterator postings = scratch.postings[s];
+                BitSet segmentDeleted = this.deleted[s];
+                int docBase = this.docBases[s];
+
+                for (int fields = termFields; fields != 0; fields &= fields - 1) {
+                    postingsTotal += this.segments[s].DocFreq(Integer.numberOfTrailingZeros(fields), termID);
+                }
+                postings.ResetFields(termFields, termID);
+
+                if (scratch.filtered) {
+                    int[] allowedDocs = scratch.allowedDocs;
+                    int doc = -1;
+                    for (int j = scratch.allowedStarts[s]; j < scratch.allowedStarts[s + 1]; j++) {
+                        int target = allowedDocs[j];
+                        if (doc < target) {
+                            doc = postings.Advance(target) ? postings.Doc() : NO_MORE_DOCS;
+                        }
+                        if (doc == NO_MORE_DOCS) {
+                            break;
+                        }
+                        if (doc == target) {
+                            postingsScored += AddPosting(postings, s, termFields, w, plan, scratch);
+                        }
+                    }
+                } else {
+                    while (postings.Next()) {
+                        if (segmentDeleted != null && segmentDeleted.get(postings.Doc())) {
+                            continue;
+                        }
+                        if (excluded != null && excluded.get(docBase + postings.Doc())) {
+                            continue;
+                        }
+                        postingsScored += AddPosting(postings, s, termFields, w, plan, scratch);
+                    }
+                }
+
+                for (int fields = termFields; fields != 0; fields &= fields - 1) {
+                    FlushBlock(plan, s, Integer.numberOfTrailingZeros(fields), w, scratch);
+                }
+            }
+        }
+
+        this.postingsTotal.add(postingsTotal);
+        this.postingsScored.add(postingsScored);
+        if (Metrics.Enabled()) {
+            Metrics.Get().RecordScoring(postingsTotal, scratch.numTouched);
+        }
+    }
+
+    /*
+     * Add the posting the iterator over segment s is on to the blocks of
+     * its fields in termFields, handing every block that fills up to the
+     * similarity; returns the number of (doc, field) postings
+     */
+    private int AddPosting(InvertedIndex.PostingsIterator postings, int s, int termFields, int w, QueryPlan plan,
+            Scratch scratch) {
+        int doc = postings.Doc();
+        int scored = 0;
+        for (int docFields = postings.Fields() & termFields; docFields != 0; docFields &= docFields - 1) {
+            int field = Integer.numberOfTrailingZeros(docFields);
+            int i = scratch.blockSizes[field]++;
+            scratch.blockDocs[field][i] = doc;
+            scratch.blockTFs[field][i] = plan.occurrences ? postings.Occurrences(field) : postings.Tf(field);
+            if (i + 1 == BLOCK_SIZE) {
+                FlushBlock(plan, s, field, w, scratch);
+            }
+            scored++;
+        }
+        scratch.Touch(this.docBases[s] + doc);
+        return scored;
+    }
+
+    // Add up the postings of query term w / NUM_FIELDS gathered in the block of a field
+    private void FlushBlock(QueryPlan plan, int s, int field, int w, Scratch scratch) {
+        int length = scratch.blockSizes[field];
+        if (length > 0) {
+            plan.similarity.Accumulate(this, s, field, plan.queryWeights[w + field], plan.idfs[w + field],
+                    scratch.blockDocs[field], scratch.blockTFs[field], length, scratch.dotProducts[field],
+                    scratch.squaredWeights[field]);
+            scratch.blockSizes[field] = 0;
+        }
+    }
+
+    // Score of one field of an accumulated doc, under the similarity of the plan
+    private double FieldScore(QueryPlan plan, int field, int doc, Scratch scratch) {
+        return plan.similarity.FieldScore(this, field, doc, scratch.dotProducts[field][doc],
+                scratch.squaredWeights[field][doc], plan.querySquaredWeights[field]);
+    }
+
+    /*
+     * Document-at-a-time MaxScore for COSINE_FULL, one segment after another.
+     *
+     * Under the full cosine every (term, field) list adds at most
+     * boost * queryWeight * idf / queryNorm * MaxScore(field, term) to a
+     * document's score, and nothing when the document is not in it. The
+     * lists are ordered by that bound; the longest prefix whose bounds add
+     * up to less than the k-th best score so far cannot make the top k on
+     * its own, so only documents in the remaining (essential) lists are
+     * candidates. A candidate whose bounds still fall short is skipped
+     * without reading the other lists; the rest are scored exactly as
+     * ScoreExhaustive does, in the same order, so scores match to the bit.
+     * Boosts must not be negative, and the plan must have no required
+     * terms; docs ruled out by excluded terms are never candidates.
+     */
+    private void ScorePruned(float[] boosts, QueryPlan plan, Scratch scratch) {
+        int numSegments = this.segments.length;
+        TopKCollector results = scratch.results;
+        double threshold = results.Threshold();
+        int postingsTotal = 0;
+        int postingsScored = 0;
+        int docsScored = 0;
+        BitSet excluded = scratch.excluding ? scratch.excluded : null;
+
+        double[] queryNorms = new double[InvertedIndex.NUM_FIELDS];
+        for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+            queryNorms[field] = Math.sqrt(plan.querySquaredWeights[field]);
+        }
+        double[] fieldScales = new double[InvertedIndex.NUM_FIELDS];
+
+        for (int s = 0; s < numSegments; s++) {
+            InvertedIndex segment = this.segments[s];
+            BitSet segmentDeleted = this.deleted[s];
+            int docBase = this.docBases[s];
+
+            /*
+             * One cursor per list in field then term order, the order scores
+             * are added up in. Lists bounded by 0 add exactly 0 to any score
+             * and are left out.
+             */
+            int numCursors = 0;
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                if (queryNorms[field] == 0) {
+                    continue;
+                }
+                for (int t = 0; t < plan.numTerms; t++) {
+                    int w = t * InvertedIndex.NUM_FIELDS + field;
+                    int termID = plan.termIDs[t * numSegments + s];
+                    if (plan.termDocFreqs[w] == 0 || termID < 0) {
+                        continue;
+                    }
+                    postingsTotal += segment.DocFreq(field, termID);
+                    double queryWeightIDF = plan.queryWeights[w] * plan.idfs[w];
+                    double bound = boosts[field] * queryWeightIDF / queryNorms[field] * segment.MaxScore(field, termID);
+                    if (!(bound > 0)) {
+                        continue;
+                    }
+                    int c = numCursors++;
+                    scratch.EnsureCursors(numCursors);
+                    scratch.cursorFields[c] = field;
+                    scratch.cursorWeights[c] = queryWeightIDF;
+                    scratch.cursorBounds[c] = bound;
+                    InvertedIndex.PostingsIterator postings = scratch.CursorPostings(s, c);
+                    postings.Reset(field, termID);
+                    scratch.cursorDocs[c] = postings.Next() ? postings.Doc() : NO_MORE_DOCS;
+                }
+            }
+            scratch.SortCursorsByBound(numCursors);
+            int firstEssential = scratch.FirstEssential(numCursors, threshold);
+            scratch.BuildHeap(firstEssential, numCursors);
+            int[] atDoc = scratch.atDoc;
+
+            while (scratch.heapSize > 0) {
+                // Next candidate: the lowest doc in an essential list, and the essential lists on it
+                int doc = scratch.cursorDocs[scratch.heap[0]];
+                int numAtDoc = 0;
+                while (scratch.heapSize > 0 && scratch.cursorDocs[scratch.heap[0]] == doc) {
+                    atDoc[numAtDoc++] = scratch.PopHeap();
+                }
+
+                boolean rebuildHeap = false;
+                if ((segmentDeleted == null || !segmentDeleted.get(doc))
+                        && (excluded == null || !excluded.get(docBase + doc))) {
+                    // What one TF of a field adds to the score of this doc, per unit of query weight
+                    for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                        double cssDenominator = queryNorms[field] * segment.Norm(field, doc);
+                        fieldScales[field] = cssDenominator == 0 ? 0 : boosts[field] / cssDenominator;
+                    }
+
+                    // Score from the essential lists on the doc, plus the bounds of all the others
+                    double partialScore = 0;
+                    for (int j = 0; j < numAtDoc; j++) {
+                        partialScore += PartialScore(atDoc[j], s, fieldScales, scratch);
+                    }
+                    boolean skip = CanSkip(partialScore + (firstEssential == 0 ? 0 : scratch.boundSums[firstEssential - 1]),
+                            threshold);
+
+                    // Line the other lists up on the doc, highest bound first, while it can still make it
+                    for (int j = firstEssential - 1; j >= 0 && !skip; j--) {
+                        int c = scratch.byBound[j];
+                        InvertedIndex.PostingsIterator postings = scratch.cursorPostings[s][c];
+                        while (scratch.cursorDocs[c] < doc) {
+                            scratch.cursorDocs[c] = postings.Next() ? postings.Doc() : NO_MORE_DOCS;
+                        }
+                        if (scratch.cursorDocs[c] == doc) {
+                            atDoc[numAtDoc++] = c;
+                            partialScore += PartialScore(c, s, fieldScales, scratch);
+                        }
+                        skip = CanSkip(partialScore + (j == 0 ? 0 : scratch.boundSums[j - 1]), threshold);
+                    }
+
+                    if (!skip) {
+                        // Add up in cursor order, which is the order ScoreExhaustive adds in
+                        Arrays.sort(atDoc, 0, numAtDoc);
+                        double finalScore = 0;
+                        int j = 0;
+                        for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                            double dotProduct = 0;
+                            for (; j < numAtDoc && scratch.cursorFields[atDoc[j]] == field; j++) {
+                                int c = atDoc[j];
+                                dotProduct += scratch.cursorWeights[c]
+                                        * VectorSpaceModelIR.TF(scratch.cursorPostings[s][c].Tf());
+                            }
+                            double cssDenominator = queryNorms[field] * segment.Norm(field, doc);
+                            finalScore += boosts[field] * (cssDenominator == 0 ? 0 : (dotProduct / cssDenominator));
+                        }
+                        postingsScored += numAtDoc;
+                        docsScored++;
+
+                        if (finalScore > 0) {
+                            results.Collect(docBase + doc, finalScore);
+                            if (results.Threshold() != threshold) {
+                                threshold = results.Threshold();
+                                int newFirstEssential = scratch.FirstEssential(numCursors, threshold);
+                                rebuildHeap = newFirstEssential != firstEssential;
+                                firstEssential = newFirstEssential;
+                            }
+                        }
+                    }
+                }
+
+                // Move the lists on the candidate past it
+                for (int j = 0; j < numAtDoc; j++) {
+                    int c = atDoc[j];
+                    InvertedIndex.PostingsIterator postings = scratch.cursorPostings[s][c];
+                    scratch.cursorDocs[c] = postings.Next() ? postings.Doc() : NO_MORE_DOCS;
+                    if (!rebuildHeap && scratch.boundRanks[c] >= firstEssential) {
+                        scratch.PushHeap(c);
+                    }
+                }
+                if (rebuildHeap) {
+                    scratch.BuildHeap(firstEssential, numCursors);
+                }
+            }
+        }
+
+        this.postingsTotal.add(postingsTotal);
+        this.postingsScored.add(postingsScored);
+        if (Metrics.Enabled()) {
+            Metrics.Get().RecordScoring(postingsTotal, docsScored);
+        }
+    }
+
+    // What cursor c adds to the score of the doc it is on
+    private static double PartialScore(int c, int s, double[] fieldScales, Scratch scratch) {
+        return fieldScales[scratch.cursorFields[c]] * scratch.cursorWeights[c]
+                * VectorSpaceModelIR.TF(scratch.cursorPostings[s][c].Tf());
+    }
+
+    /*
+     * Can a document bounded by bound not make the results? The bound is
+     * added up differently from the score, so it is given a little slack
+     * against rounding.
+     */
+    private static boolean CanSkip(double bound, double threshold) {
+        return bound * PRUNING_SLACK < threshold;
+    }
+
+    /*
+     * Number of live documents with query term t in each field, over all
+     * segments, into scratch.termDocFreqs. Segments with deletions have
+     * their postings counted.
+     */
+    private void LiveDocFreqs(Scratch scratch, int t) {
+        int numSegments = this.segments.length;
+        int w = t * InvertedIndex.NUM_FIELDS;
+        Arrays.fill(scratch.termDocFreqs, w, w + InvertedIndex.NUM_FIELDS, 0);
+        for (int s = 0; s < numSegments; s++) {
+            int termID = scratch.termIDs[t * numSegments + s];
+            if (termID < 0) {
+                continue;
+            }
+            BitSet segmentDeleted = this.deleted[s];
+            if (segmentDeleted == null) {
+                for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                    scratch.termDocFreqs[w + field] += this.segments[s].DocFreq(field, termID);
+                }
+                continue;
+            }
+            InvertedIndex.PostingsIterator postings = scratch.postings[s];
+            postings.Reset(termID);
+            while (postings.Next()) {
+                if (!segmentDeleted.get(postings.Doc())) {
+                    for (int fields = postings.Fields(); fields != 0; fields &= fields - 1) {
+                        scratch.termDocFreqs[w + Integer.numberOfTrailingZeros(fields)]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Per-query working state: the query terms, the docs passing its
+     * filters, score accumulators over every document, the list of
+     * documents touched, postings iterators, a tokenizer and a top k
+     * collector. Only one query uses a scratch object at a time.
+     */
+    private final class Scratch {
+        /*
+         * Distinct scored query terms and their Raw TF, in all and per field
+         * (index t * NUM_FIELDS + field). The chars of term t are
+         * termChars[termStarts[t] .. termStarts[t + 1]), and its term ID in
+         * segment s is termIDs[t * numSegments + s], -1 if it is not there.
+         */
+        char[] termChars = new char[128];
+        int[] termStarts = new int[17];
+        int[] queryTermFreqs = new int[16];
+        int[] fieldTermFreqs = new int[16 * InvertedIndex.NUM_FIELDS];
+        int[] termIDs = new int[16];
+        int[] sortedTerms = new int[16];
+        int numQueryTerms;
+
+        // Per term and field (index t * NUM_FIELDS + field): live df
+        int[] termDocFreqs = new int[16 * InvertedIndex.NUM_FIELDS];
+
+        // How the query clause being analyzed takes part (Query.SHOULD, ...) and its fields
+        int clauseOccur;
+        int clauseFields;
+
+        /*
+         * Required and excluded terms, in the order met: Query.MUST or
+         * MUST_NOT, fields, and term ID in every segment like termIDs
+         */
+        int[] filterOccurs = new int[4];
+        int[] filterFields = new int[4];
+        int[] filterTermIDs = new int[4];
+        int numFilters;
+
+        /*
+         * Filters of the query being scored: with required terms the docs
+         * passing them, those of segment s being allowedDocs[allowedStarts[s]
+         * .. allowedStarts[s + 1]), else the snapshot docs excluded
+         */
+        boolean filtered;
+        int[] allowedDocs = new int[16];
+        final int[] allowedStarts;
+        int numAllowed;
+        boolean excluding;
+        final BitSet excluded;
+        final InvertedIndex.PostingsIterator[][] filterPostings;
+        int[] filterDocs = new int[4];
+
+        // Segment docs and raw TFs (or occurrences) of the term Accumulate is on, per field, not yet added up
+        final int[][] blockDocs = new int[InvertedIndex.NUM_FIELDS][BLOCK_SIZE];
+        final int[][] blockTFs = new int[InvertedIndex.NUM_FIELDS][BLOCK_SIZE];
+        final int[] blockSizes = new int[InvertedIndex.NUM_FIELDS];
+
+        /*
+         * Cursors of ScorePruned over the lists of one segment: field, query
+         * weight times idf, score bound and current doc of each, the cursors
+         * ordered by bound and the running sums of their bounds in that order
+         */
+        int[] cursorFields = new int[16];
+        double[] cursorWeights = new double[16];
+        double[] cursorBounds = new double[16];
+        int[] cursorDocs = new int[16];
+        int[] byBound = new int[16];
+        int[] boundRanks = new int[16];
+        double[] boundSums = new double[16];
+
+        // Min-heap by current doc of the essential cursors, and the cursors on a candidate
+        int[] heap = new int[16];
+        int heapSize;
+        int[] atDoc = new int[16];
+        final InvertedIndex.PostingsIterator[][] cursorPostings;
+
+        final double[][] dotProducts;
+        final double[][] squaredWeights;
+
+        // Final scores Combine adds the field scores up in
+        double[] finalScores = new double[16];
+
+        // Snapshot docs that have at least one posting for a query term
+        final boolean[] touched;
+        int[] touchedDocs = new int[16];
+        int numTouched;
+
+        final InvertedIndex.PostingsIterator[] postings;
+
+        // Tokenizers keep state between calls, so one per scratch object
+        final Analyzer.Tokenizer tokenizer;
+
+        final TopKCollector results = new TopKCollector(10);
+
+        Scratch() {
+            int maxDoc = Searcher.this.maxDoc;
+            this.dotProducts = new double[InvertedIndex.NUM_FIELDS][maxDoc];
+            this.squaredWeights = new double[InvertedIndex.NUM_FIELDS][maxDoc];
+            this.touched = new boolean[maxDoc];
+            this.postings = new InvertedIndex.PostingsIterator[Searcher.this.segments.length];
+            for (int s = 0; s < this.postings.length; s++) {
+                this.postings[s] = new InvertedIndex.PostingsIterator(Searcher.this.segments[s]);
+            }
+            this.tokenizer = Searcher.this.analyzer.NewTokenizer(this::AddQueryTerm);
+            this.cursorPostings = new InvertedIndex.PostingsIterator[Searcher.this.segments.length][0];
+            this.filterPostings = new InvertedIndex.PostingsIterator[Searcher.this.segments.length][0];
+            this.allowedStarts = new int[Searcher.this.segments.length + 1];
+            this.excluded = new BitSet(maxDoc);
+        }
+
+        // Ready to analyze a new query, as free text until told otherwise
+        void StartQuery() {
+            this.numQueryTerms = 0;
+            this.numFilters = 0;
+            this.clauseOccur = Query.SHOULD;
+            this.clauseFields = InvertedIndex.ALL_FIELDS;
+        }
+
+        void AddQueryTerm(char[] term, int length) {
+            if (this.clauseOccur != Query.SHOULD) {
+                AddFilterTerm(term, length);
+            }
+            if (this.clauseOccur == Query.MUST_NOT) {
+                return;
+            }
+
+            for (int t = 0; t < this.numQueryTerms; t++) {
+                if (Compare(t, term, 0, length) == 0) {
+                    this.queryTermFreqs[t]++;
+                    AddFieldTermFreqs(t);
+                    return;
+                }
+            }
+
+            int t = this.numQueryTerms++;
+            if (t == this.queryTermFreqs.length) {
+                this.termStarts = Arrays.copyOf(this.termStarts, t * 2 + 1);
+                this.queryTermFreqs = Arrays.copyOf(this.queryTermFreqs, t * 2);
+                this.fieldTermFreqs = Arrays.copyOf(this.fieldTermFreqs, t * 2 * InvertedIndex.NUM_FIELDS);
+                this.sortedTerms = Arrays.copyOf(this.sortedTerms, t * 2);
+                this.termDocFreqs = Arrays.copyOf(this.termDocFreqs, t * 2 * InvertedIndex.NUM_FIELDS);
+            }
+            int start = this.termStarts[t];
+            if (start + length > this.termChars.length) {
+                this.termChars = Arrays.copyOf(this.termChars, Math.max(start + length, this.termChars.length * 2));
+            }
+            System.arraycopy(term, 0, this.termChars, start, length);
+            this.termStarts[t + 1] = start + length;
+            this.queryTermFreqs[t] = 1;
+            Arrays.fill(this.fieldTermFreqs, t * InvertedIndex.NUM_FIELDS, (t + 1) * InvertedIndex.NUM_FIELDS, 0);
+            AddFieldTermFreqs(t);
+
+            // Terms missing from a segment add nothing to its scores, -1 skips it
+            int numSegments = Searcher.this.segments.length;
+            if ((t + 1) * numSegments > this.termIDs.length) {
+                this.termIDs = Arrays.copyOf(this.termIDs, Math.max((t + 1) * numSegments, this.termIDs.length * 2));
+            }
+            for (int s = 0; s < numSegments; s++) {
+                this.termIDs[t * numSegments + s] = Searcher.this.segments[s].TermID(term, length);
+            }
+        }
+
+        private void AddFieldTermFreqs(int t) {
+            for (int fields = this.clauseFields; fields != 0; fields &= fields - 1) {
+                this.fieldTermFreqs[t * InvertedIndex.NUM_FIELDS + Integer.numberOfTrailingZeros(fields)]++;
+            }
+        }
+
+        private void AddFilterTerm(char[] term, int length) {
+            int numSegments = Searcher.this.segments.length;
+            int r = this.numFilters++;
+            if (r == this.filterOccurs.length) {
+                this.filterOccurs = Arrays.copyOf(this.filterOccurs, r * 2);
+                this.filterFields = Arrays.copyOf(this.filterFields, r * 2);
+            }
+            if ((r + 1) * numSegments > this.filterTermIDs.length) {
+                this.filterTermIDs = Arrays.copyOf(this.filterTermIDs,
+                        Math.max((r + 1) * numSegments, this.filterTermIDs.length * 2));
+            }
+            this.filterOccurs[r] = this.clauseOccur;
+            this.filterFields[r] = this.clauseFields;
+            for (int s = 0; s < numSegments; s++) {
+                this.filterTermIDs[r * numSegments + s] = Searcher.this.segments[s].TermID(term, length);
+            }
+        }
+
+        /*
+         * Terms in sorted order, the order term IDs follow, so every field adds
+         * up its weights in the same order as before
+         */
+        void SortQueryTerms() {
+            for (int t = 0; t < this.numQueryTerms; t++) {
+                int start = this.termStarts[t];
+                int length = this.termStarts[t + 1] - start;
+                int j = t - 1;
+                while (j >= 0 && Compare(this.sortedTerms[j], this.termChars, start, length) > 0) {
+                    this.sortedTerms[j + 1] = this.sortedTerms[j];
+                    j--;
+                }
+                this.sortedTerms[j + 1] = t;
+            }
+        }
+
+        // Compares query term t with a term in a char buffer, by char values
+        private int Compare(int t, char[] term, int offset, int length) {
+            int start = this.termStarts[t];
+            int termLength = this.termStarts[t + 1] - start;
+            int common = Math.min(termLength, length);
+            for (int i = 0; i < common; i++) {
+                int cmp = this.termChars[start + i] - term[offset + i];
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return termLength - length;
+        }
+
+        void EnsureCursors(int numCursors) {
+            if (numCursors > this.cursorFields.length) {
+                int length = Math.max(numCursors, this.cursorFields.length * 2);
+                this.cursorFields = Arrays.copyOf(this.cursorFields, length);
+                this.cursorWeights = Arrays.copyOf(this.cursorWeights, length);
+                this.cursorBounds = Arrays.copyOf(this.cursorBounds, length);
+                this.cursorDocs = Arrays.copyOf(this.cursorDocs, length);
+                this.byBound = Arrays.copyOf(this.byBound, length);
+                this.boundRanks = Arrays.copyOf(this.boundRanks, length);
+                this.boundSums = Arrays.copyOf(this.boundSums, length);
+                this.heap = Arrays.copyOf(this.heap, length);
+                this.atDoc = Arrays.copyOf(this.atDoc, length);
+            }
+        }
+
+        // Postings iterator of filter term r over segment s, made on first use
+        InvertedIndex.PostingsIterator FilterPostings(int s, int r) {
+            InvertedIndex.PostingsIterator[] postings = this.filterPostings[s];
+            if (r >= postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(r + 1, postings.length * 2));
+                this.filterPostings[s] = postings;
+            }
+            if (postings[r] == null) {
+                postings[r] = new InvertedIndex.PostingsIterator(Searcher.this.segments[s]);
+            }
+            return postings[r];
+        }
+
+        // Current doc of every filter list, room for numFilters
+        int[] FilterDocs(int numFilters) {
+            if (numFilters > this.filterDocs.length) {
+                this.filterDocs = new int[Math.max(numFilters, this.filterDocs.length * 2)];
+            }
+            return this.filterDocs;
+        }
+
+        void Allow(int doc) {
+            if (this.numAllowed == this.allowedDocs.length) {
+                this.allowedDocs = Arrays.copyOf(this.allowedDocs, this.numAllowed * 2);
+            }
+            this.allowedDocs[this.numAllowed++] = doc;
+        }
+
+        void ClearFilters() {
+            if (this.excluding) {
+                this.excluded.clear();
+            }
+            this.filtered = false;
+            this.excluding = false;
+        }
+
+        // Postings iterator of cursor c over segment s, made on first use
+        InvertedIndex.PostingsIterator CursorPostings(int s, int c) {
+            InvertedIndex.PostingsIterator[] postings = this.cursorPostings[s];
+            if (c >= postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(c + 1, postings.length * 2));
+                this.cursorPostings[s] = postings;
+            }
+            if (postings[c] == null) {
+                postings[c] = new InvertedIndex.PostingsIterator(Searcher.this.segments[s]);
+            }
+            return postings[c];
+        }
+
+        void SortCursorsByBound(int numCursors) {
+            for (int c = 0; c < numCursors; c++) {
+                int j = c - 1;
+                while (j >= 0 && this.cursorBounds[this.byBound[j]] > this.cursorBounds[c]) {
+                    this.byBound[j + 1] = this.byBound[j];
+                    j--;
+                }
+                this.byBound[j + 1] = c;
+            }
+            double sum = 0;
+            for (int j = 0; j < numCursors; j++) {
+                this.boundRanks[this.byBound[j]] = j;
+                sum += this.cursorBounds[this.byBound[j]];
+                this.boundSums[j] = sum;
+            }
+        }
+
+        // Heap of the essential cursors that are not exhausted
+        void BuildHeap(int firstEssential, int numCursors) {
+            this.heapSize = 0;
+            for (int j = firstEssential; j < numCursors; j++) {
+                int c = this.byBound[j];
+                if (this.cursorDocs[c] != NO_MORE_DOCS) {
+                    PushHeap(c);
+                }
+            }
+        }
+
+        void PushHeap(int c) {
+            if (this.cursorDocs[c] == NO_MORE_DOCS) {
+                return;
+            }
+            int doc = this.cursorDocs[c];
+            int i = this.heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (this.cursorDocs[this.heap[parent]] <= doc) {
+                    break;
+                }
+                this.heap[i] = this.heap[parent];
+                i = parent;
+            }
+            this.heap[i] = c;
+        }
+
+        int PopHeap() {
+            int top = this.heap[0];
+            int last = this.heap[--this.heapSize];
+            int doc = this.cursorDocs[last];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= this.heapSize) {
+                    break;
+                }
+                if (child + 1 < this.heapSize && this.cursorDocs[this.heap[child + 1]] < this.cursorDocs[this.heap[child]]) {
+                    child++;
+                }
+                if (this.cursorDocs[this.heap[child]] >= doc) {
+                    break;
+                }
+                this.heap[i] = this.heap[child];
+                i = child;
+            }
+            this.heap[i] = last;
+            return top;
+        }
+
+        // Number of lowest bound cursors that together cannot reach threshold
+        int FirstEssential(int numCursors, double threshold) {
+            int j = 0;
+            while (j < numCursors && CanSkip(this.boundSums[j], threshold)) {
+                j++;
+            }
+            return j;
+        }
+
+        // finalScores zeroed over the first numDocs
+        double[] FinalScores(int numDocs) {
+            if (numDocs > this.finalScores.length) {
+                this.finalScores = new double[Math.max(numDocs, this.finalScores.length * 2)];
+            } else {
+                Arrays.fill(this.finalScores, 0, numDocs, 0);
+            }
+            return this.finalScores;
+        }
+
+        void Touch(int doc) {
+            if (!this.touched[doc]) {
+                this.touched[doc] = true;
+                if (this.numTouched == this.touchedDocs.length) {
+                    this.touchedDocs = Arrays.copyOf(this.touchedDocs, this.numTouched * 2);
+                }
+                this.touchedDocs[this.numTouched++] = doc;
+            }
+        }
+
+        // Zero only what the last query touched
+        void Clear() {
+            for (int i = 0; i < this.numTouched; i++) {
+                int doc = this.touchedDocs[i];
+                this.touched[doc] = false;
+                for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                    this.dotProducts[field][doc] = 0;
+                    this.squaredWeights[field][doc] = 0;
+                }
+            }
+            this.numTouched = 0;
+        }
+    }
+}
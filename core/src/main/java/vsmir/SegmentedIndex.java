@@ -0,0 +1,358 @@
+/*
+    An index that takes new, updated and deleted documents while it is
+    being searched, without rebuilding what is already indexed.
+
+    Added documents are buffered and, on Refresh(), indexed into a new
+    small segment. Deleting a document (or adding a new version of it)
+    marks it in its segment's deletions instead of rewriting the
+    segment; the TF-IDF weights never go stale because Searcher works
+    them out at query time from the live df and N of the snapshot.
+
+    Every Refresh publishes a new Searcher over an immutable snapshot
+    of the segments, so searches running on an older snapshot carry on
+    undisturbed. When there are too many segments, the smallest ones
+    are merged into one on a background thread, dropping their deleted
+    documents; the merged segment replaces them in the next snapshot.
+*/
+
+package vsmir;
+
+// Java
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+final class SegmentedIndex implements AutoCloseable {
+    // Buffered documents that make Add refresh on its own
+    static final int REFRESH_DOCS = 1000;
+
+    // Merge once there are more segments than this
+    static final int MAX_SEGMENTS = 8;
+
+    // How many of the smallest segments a merge folds together
+    static final int MERGE_FACTOR = 4;
+
+    // Tokenizes and counts new documents exactly like BuildData
+    private final VectorSpaceModelIR model;
+    private final Analyzer analyzer;
+
+    // Segments of the current snapshot and their deletions, guarded by this
+    private final ArrayList<InvertedIndex> segments = new ArrayList<InvertedIndex>();
+    private final ArrayList<BitSet> deleted = new ArrayList<BitSet>();
+
+    // DocID -> record lines added since the last refresh, latest version only
+    private final LinkedHashMap<Integer, ArrayList<String>> pendingAdds = new LinkedHashMap<Integer, ArrayList<String>>();
+    private final TreeSet<Integer> pendingDeletes = new TreeSet<Integer>();
+
+    private volatile Searcher searcher;
+
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vsm-segment-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> runningMerge;
+    // Why the last merge failed, until Refresh or AwaitMerges reports it; guarded by this
+    private Throwable mergeFailure;
+    // Set when close gives up waiting for a merge, whose result is then dropped; guarded by this
+    private boolean abandoned;
+
+    SegmentedIndex(VectorSpaceModelIR model, Analyzer analyzer) {
+        this.model = model;
+        this.analyzer = analyzer;
+        Publish();
+    }
+
+    /*
+     * Start from an index that is already built, e.g. by FreezeIndex or read
+     * from a segment file
+     */
+    SegmentedIndex(VectorSpaceModelIR model, Analyzer analyzer, InvertedIndex base) {
+        this.model = model;
+        this.analyzer = analyzer;
+        this.segments.add(base);
+        this.deleted.add(null);
+        Publish();
+    }
+
+    /*
+     * Add a document given as the lines of its SMART record, starting with
+     * its .I line. A document with the same DocID is replaced. Visible to
+     * searches after the next Refresh. Once REFRESH_DOCS documents are
+     * buffered they are refreshed right away, leaving a failed merge for
+     * the next Refresh to report.
+     */
+    synchronized void Add(List<String> record) {
+        if (record.isEmpty() || VectorSpaceModelIR.SectionOf(record.get(0)) != VectorSpaceModelIR.SECTION_DOCID) {
+            throw new IllegalArgumentException("A record must start with its .I line");
+        }
+        int docID = Integer.parseInt(record.get(0).replaceAll("[^0-9]", ""));
+        this.pendingAdds.remove(docID);
+        this.pendingAdds.put(docID, new ArrayList<String>(record));
+        this.pendingDeletes.add(docID);
+
+        if (this.pendingAdds.size() >= REFRESH_DOCS) {
+            Flush();
+        }
+    }
+
+    // Same as above for a record as one string of lines
+    void Add(String record) {
+        Add(Arrays.asList(record.split("\r?\n")));
+    }
+
+    /*
+     * Delete a document by DocID, whether it is indexed or still buffered.
+     * Visible to searches after the next Refresh.
+     */
+    synchronized void Delete(int docID) {
+        this.pendingAdds.remove(docID);
+        this.pendingDeletes.add(docID);
+    }
+
+    /*
+     * Make every Add and Delete so far visible to searches: index the
+     * buffered documents into a new segment, mark replaced and deleted
+     * documents in the segments holding them, and publish a new snapshot.
+     * If the last background merge failed, throws that failure first
+     * without changing anything; the next Refresh goes ahead and tries the
+     * merge again.
+     */
+    synchronized void Refresh() {
+        ThrowMergeFailure();
+        Flush();
+    }
+
+    // Refresh without reporting a failed merge; holds the lock
+    private void Flush() {
+        if (this.pendingAdds.isEmpty() && this.pendingDeletes.isEmpty()) {
+            return;
+        }
+
+        // Deletion sets are shared with published snapshots, so each is copied once before writing
+        boolean[] copied = new boolean[this.segments.size()];
+        for (int docID : this.pendingDeletes) {
+            for (int s = 0; s < this.segments.size(); s++) {
+                int doc = this.segments.get(s).Doc(docID);
+                if (doc < 0) {
+                    continue;
+                }
+                if (!copied[s]) {
+                    BitSet segmentDeleted = this.deleted.get(s);
+                    this.deleted.set(s, segmentDeleted == null ? new BitSet(this.segments.get(s).NumDocs())
+                            : (BitSet) segmentDeleted.clone());
+                    copied[s] = true;
+                }
+                this.deleted.get(s).set(doc);
+            }
+        }
+        this.pendingDeletes.clear();
+
+        if (!this.pendingAdds.isEmpty()) {
+            ArrayList<ArrayList<String>> batch = new ArrayList<ArrayList<String>>(this.pendingAdds.values());
+            this.pendingAdds.clear();
+
+            VectorSpaceModelIR.IndexShard shard = new VectorSpaceModelIR.IndexShard();
+            this.model.IndexRecords(batch, shard);
+            this.segments.add(InvertedIndex.Build(shard.documents, shard.termFreqs, shard.occurrences));
+            this.deleted.add(null);
+        }
+
+        DropEmptySegments();
+        Publish();
+        MaybeMerge();
+    }
+
+    // Searcher over the snapshot published by the last Refresh or merge
+    Searcher GetSearcher() {
+        return this.searcher;
+    }
+
+    synchronized int NumSegments() {
+        return this.segments.size();
+    }
+
+    /*
+     * Wait for a running merge, if any, to finish and be published. Throws
+     * the failure of the last merge if it failed and Refresh has not
+     * thrown it already.
+     */
+    void AwaitMerges() throws InterruptedException {
+        while (true) {
+            Future<?> merge;
+            synchronized (this) {
+                merge = this.runningMerge;
+                if (merge == null) {
+                    ThrowMergeFailure();
+                    return;
+                }
+            }
+            try {
+                merge.get();
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Segment merge failed", ex.getCause());
+            }
+        }
+    }
+
+    /*
+     * Stop taking merges and wait up to a minute for a running one. One
+     * still running after that is interrupted and its result dropped when
+     * it finishes, leaving the segments as they are.
+     */
+    @Override
+    public void close() {
+        this.merger.shutdown();
+        try {
+            if (!this.merger.awaitTermination(1, TimeUnit.MINUTES)) {
+                Abandon();
+                System.err.println("Segment merge still running after a minute, abandoned on close");
+            }
+        } catch (InterruptedException ex) {
+            Abandon();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void Abandon() {
+        this.abandoned = true;
+        this.merger.shutdownNow();
+    }
+
+    // Report a failed merge once, clearing it so the merge is tried again
+    private synchronized void ThrowMergeFailure() {
+        Throwable failure = this.mergeFailure;
+        if (failure != null) {
+            this.mergeFailure = null;
+            throw new IllegalStateException("Segment merge failed", failure);
+        }
+    }
+
+    private void DropEmptySegments() {
+        for (int s = this.segments.size() - 1; s >= 0; s--) {
+            BitSet segmentDeleted = this.deleted.get(s);
+            int numLive = this.segments.get(s).NumDocs() - (segmentDeleted == null ? 0 : segmentDeleted.cardinality());
+            if (numLive == 0 && !IsMerging(this.segments.get(s))) {
+                this.segments.remove(s);
+                this.deleted.remove(s);
+            }
+        }
+    }
+
+    private void Publish() {
+        this.searcher = new Searcher(this.segments.toArray(new InvertedIndex[0]),
+                this.deleted.toArray(new BitSet[0]), this.analyzer);
+    }
+
+    /*
+     *
+     * MERGES
+     *
+     */
+
+    // Segments being merged right now, guarded by this
+    private InvertedIndex[] merging = new InvertedIndex[0];
+
+    private boolean IsMerging(InvertedIndex segment) {
+        for (InvertedIndex source : this.merging) {
+            if (source == segment) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Hand the MERGE_FACTOR smallest segments to the merge thread when there
+     * are too many segments and no merge is running
+     */
+    private void MaybeMerge() {
+        if (this.runningMerge != null || this.segments.size() <= MAX_SEGMENTS || this.merger.isShutdown()) {
+            return;
+        }
+
+        Integer[] bySize = new Integer[this.segments.size()];
+        for (int s = 0; s < bySize.length; s++) {
+            bySize[s] = s;
+        }
+        Arrays.sort(bySize, (a, b) -> Integer.compare(this.segments.get(a).NumDocs(), this.segments.get(b).NumDocs()));
+
+        InvertedIndex[] sources = new InvertedIndex[MERGE_FACTOR];
+        BitSet[] sourceDeleted = new BitSet[MERGE_FACTOR];
+        for (int i = 0; i < MERGE_FACTOR; i++) {
+            sources[i] = this.segments.get(bySize[i]);
+            sourceDeleted[i] = this.deleted.get(bySize[i]);
+        }
+        this.merging = sources;
+
+        this.runningMerge = this.merger.submit(() -> {
+            InvertedIndex merged = null;
+            Throwable failure = null;
+            try {
+                merged = InvertedIndex.Merge(sources, sourceDeleted);
+            } catch (RuntimeException | Error ex) {
+                failure = ex;
+            }
+            FinishMerge(sources, sourceDeleted, merged, failure);
+        });
+    }
+
+    /*
+     * Swap a finished merge into the segment list. Documents deleted from
+     * the sources while the merge ran are deleted from the merged segment.
+     * A failed merge leaves the sources as they are and keeps the failure
+     * for Refresh or AwaitMerges to throw. One abandoned by close is dropped.
+     */
+    private synchronized void FinishMerge(InvertedIndex[] sources, BitSet[] sourceDeleted, InvertedIndex merged,
+            Throwable failure) {
+        this.merging = new InvertedIndex[0];
+        this.runningMerge = null;
+        if (this.abandoned) {
+            return;
+        }
+        if (merged == null) {
+            this.mergeFailure = failure;
+            return;
+        }
+
+        int first = this.segments.size();
+        BitSet mergedDeleted = null;
+        for (int i = 0; i < sources.length; i++) {
+            int s = this.segments.indexOf(sources[i]);
+            first = Math.min(first, s);
+            BitSet now = this.deleted.get(s);
+            if (now == null) {
+                continue;
+            }
+            for (int doc = now.nextSetBit(0); doc >= 0; doc = now.nextSetBit(doc + 1)) {
+                if (sourceDeleted[i] == null || !sourceDeleted[i].get(doc)) {
+                    if (mergedDeleted == null) {
+                        mergedDeleted = new BitSet(merged.NumDocs());
+                    }
+                    mergedDeleted.set(merged.Doc(sources[i].DocID(doc)));
+                }
+            }
+        }
+
+        // The merged segment takes the place of the first of its sources
+        for (InvertedIndex source : sources) {
+            int s = this.segments.indexOf(source);
+            this.segments.remove(s);
+            this.deleted.remove(s);
+        }
+        this.segments.add(Math.min(first, this.segments.size()), merged);
+        this.deleted.add(Math.min(first, this.deleted.size()), mergedDeleted);
+
+        DropEmptySegments();
+        Publish();
+        MaybeMerge();
+    }
+}
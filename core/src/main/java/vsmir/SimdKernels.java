@@ -0,0 +1,111 @@
+/*
+    VectorKernels on the JDK Vector API, at the widest vector shape the
+    CPU prefers. Main loops step a whole vector at a time; the tail that
+    does not fill a vector runs the scalar loop.
+
+    Only loaded through VectorKernels.Simd(), by name, so that the rest
+    of the program runs without the jdk.incubator.vector module.
+*/
+
+package vsmir;
+
+// Java Vector API (incubator)
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class SimdKernels extends VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    int Lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    double Dot(double[] a, double[] b, int length) {
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            sums = DoubleVector.fromArray(SPECIES, a, i).fma(DoubleVector.fromArray(SPECIES, b, i), sums);
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    @Override
+    double SumOfSquares(double[] a, int length) {
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+            sums = va.fma(va, sums);
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[i] * a[i];
+        }
+        return sum;
+    }
+
+    @Override
+    double Cosine(double[] a, double[] b, int length) {
+        DoubleVector dotProducts = DoubleVector.zero(SPECIES);
+        DoubleVector squaresA = DoubleVector.zero(SPECIES);
+        DoubleVector squaresB = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+            dotProducts = va.fma(vb, dotProducts);
+            squaresA = va.fma(va, squaresA);
+            squaresB = vb.fma(vb, squaresB);
+        }
+        double dotProduct = dotProducts.reduceLanes(VectorOperators.ADD);
+        double squaredA = squaresA.reduceLanes(VectorOperators.ADD);
+        double squaredB = squaresB.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            dotProduct += a[i] * b[i];
+            squaredA += a[i] * a[i];
+            squaredB += b[i] * b[i];
+        }
+        return CosineOf(dotProduct, squaredA, squaredB);
+    }
+
+    // Multiply then add, no fma, so every element rounds as in the scalar loop
+    @Override
+    void AddScaled(double[] dst, double[] src, double scale, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, src, i).mul(scale).add(DoubleVector.fromArray(SPECIES, dst, i))
+                    .intoArray(dst, i);
+        }
+        for (; i < length; i++) {
+            dst[i] += scale * src[i];
+        }
+    }
+
+    @Override
+    void Sqrt(double[] a, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).sqrt().intoArray(a, i);
+        }
+        for (; i < length; i++) {
+            a[i] = Math.sqrt(a[i]);
+        }
+    }
+
+    @Override
+    String Name() {
+        return "simd-" + SPECIES.vectorBitSize();
+    }
+}
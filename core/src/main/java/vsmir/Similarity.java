@@ -0,0 +1,401 @@
+/*
+    Ranking function a query is scored with, chosen per query over the
+    same index: the index keeps the raw TF of every posting, how often
+    the term really occurs there and the length of every document field,
+    and each Similarity turns those into scores its own way.
+
+    COSINE_QUERY_TERMS and COSINE_FULL are the lnc.ltc Cosine Similarity
+    Score CalcCSS has always given, with the document norm taken over the
+    query terms or over the whole document. BM25() is Okapi BM25 and
+    Pivoted() the pivoted document length normalization of Singhal,
+    Buckley and Mitra; both divide by the average field length of the
+    live documents, which the Searcher works out once per snapshot.
+    The cosines keep the raw TF the corpus reader always counted, which
+    for the title and abstract counts a term again for every later line
+    of the section; BM25 and the pivoted normalization take the true
+    occurrences and field lengths instead.
+
+    The Searcher gathers the postings of a term in a field into blocks
+    and hands each block to Accumulate, so there is one virtual call per
+    block rather than per posting, and every implementation runs its own
+    plain loop over the block that the JIT compiles on its own. Scores
+    are added up per field (see FieldScore) and boosted like the cosine.
+    Implementations are stateless and shared by all searches.
+*/
+
+package vsmir;
+
+public abstract class Similarity {
+    public static final Similarity COSINE_QUERY_TERMS = new QueryTermsCosine();
+    public static final Similarity COSINE_FULL = new FullCosine();
+
+    // Usual BM25 parameters: TF saturation and how much of the field length is normalized away
+    static final double BM25_K1 = 1.2;
+    static final double BM25_B = 0.75;
+
+    // Usual slope of the pivoted normalization, the average length being the pivot
+    static final double PIVOTED_SLOPE = 0.2;
+
+    // Only the implementations in this package, which know the index they score
+    Similarity() {
+    }
+
+    // COSINE_QUERY_TERMS or COSINE_FULL for Searcher.COSINE_QUERY_TERMS or COSINE_FULL
+    public static Similarity Of(int cosine) {
+        if (cosine == Searcher.COSINE_QUERY_TERMS) {
+            return COSINE_QUERY_TERMS;
+        } else if (cosine == Searcher.COSINE_FULL) {
+            return COSINE_FULL;
+        }
+        throw new IllegalArgumentException("Unknown cosine normalization " + cosine);
+    }
+
+    public static Similarity BM25() {
+        return new BM25Similarity(BM25_K1, BM25_B);
+    }
+
+    public static Similarity BM25(double k1, double b) {
+        if (!(k1 >= 0) || !(b >= 0 && b <= 1)) {
+            throw new IllegalArgumentException("BM25 needs k1 >= 0 and b from 0 to 1, got " + k1 + " and " + b);
+        }
+        return new BM25Similarity(k1, b);
+    }
+
+    public static Similarity Pivoted() {
+        return new PivotedSimilarity(PIVOTED_SLOPE);
+    }
+
+    public static Similarity Pivoted(double slope) {
+        if (!(slope >= 0 && slope < 1)) {
+            throw new IllegalArgumentException("Pivoted normalization needs a slope from 0 to below 1, got " + slope);
+        }
+        return new PivotedSimilarity(slope);
+    }
+
+    /*
+     * Query side weight of a term with raw_tf occurrences in the query and
+     * termDocFreq live documents having it in the field being scored
+     */
+    abstract double QueryWeight(int raw_tf, int termDocFreq, int collectionSize);
+
+    // Document side weight of the term, the same for every document: its idf
+    abstract double TermWeight(int termDocFreq, int collectionSize);
+
+    /*
+     * Add a block of postings of one term in one field to the accumulators
+     * of that field. docs[0 .. length) are docs of segment s of searcher,
+     * ascending, and tfs their raw TFs, or their true occurrences if
+     * Occurrences() says so; dotProducts and squaredWeights are
+     * indexed by snapshot doc. queryWeight and termWeight come from the
+     * methods above.
+     */
+    abstract void Accumulate(Searcher searcher, int s, int field, double queryWeight, double termWeight, int[] docs,
+            int[] tfs, int length, double[] dotProducts, double[] squaredWeights);
+
+    /*
+     * The same sums one posting at a time, for BatchSearcher, which adds a
+     * posting to every query of a block having the term: Accumulate adds
+     * QueryFactor(queryWeight, termWeight) * DocFactor(...) to the dot
+     * product of the doc, and the square of DocFactor to its squared
+     * weights if SumsSquares(). doc is a doc of segment s, tf as above.
+     */
+    abstract double QueryFactor(double queryWeight, double termWeight);
+
+    abstract double DocFactor(Searcher searcher, int s, int field, double termWeight, int doc, int tf);
+
+    boolean SumsSquares() {
+        return false;
+    }
+
+    /*
+     * Score of one field of an accumulated snapshot doc, from its dot
+     * product and squared weights and the squared length of the query
+     * vector of the field
+     */
+    abstract double FieldScore(Searcher searcher, int field, int doc, double dotProduct, double squaredWeight,
+            double querySquaredWeight);
+
+    // Searcher.COSINE_QUERY_TERMS or COSINE_FULL if this is one of the cosines, else -1
+    int Cosine() {
+        return -1;
+    }
+
+    // Does Accumulate take the true occurrences of the terms instead of their raw TFs?
+    boolean Occurrences() {
+        return false;
+    }
+
+    // Says what is scored with which parameters; equal names score alike
+    public abstract String Name();
+
+    @Override
+    public String toString() {
+        return Name();
+    }
+
+    // Cosine Similarity Score from a dot product, the same division CalcCSS has always done
+    static double CosineOf(double dotProduct, double querySquaredWeight, double docNorm) {
+        double cssDenominator = Math.sqrt(querySquaredWeight) * docNorm;
+        return cssDenominator == 0 ? 0 : (dotProduct / cssDenominator);
+    }
+
+    /*
+     * lnc.ltc with the document norm over the query terms only: the squared
+     * document weights are added up with the dot product
+     */
+    static final class QueryTermsCosine extends Similarity {
+        @Override
+        double QueryWeight(int raw_tf, int termDocFreq, int collectionSize) {
+            return (1 + Math.log(raw_tf)) * Math.log(collectionSize / termDocFreq);
+        }
+
+        @Override
+        double TermWeight(int termDocFreq, int collectionSize) {
+            return VectorSpaceModelIR.IDF(collectionSize, termDocFreq);
+        }
+
+        @Override
+        void Accumulate(Searcher searcher, int s, int field, double queryWeight, double termWeight, int[] docs,
+                int[] tfs, int length, double[] dotProducts, double[] squaredWeights) {
+            int docBase = searcher.DocBase(s);
+            for (int i = 0; i < length; i++) {
+                int doc = docBase + docs[i];
+                double docWeight = VectorSpaceModelIR.TF(tfs[i]) * termWeight;
+                dotProducts[doc] += queryWeight * docWeight;
+                squaredWeights[doc] += docWeight * docWeight;
+            }
+        }
+
+        @Override
+        double QueryFactor(double queryWeight, double termWeight) {
+            return queryWeight;
+        }
+
+        @Override
+        double DocFactor(Searcher searcher, int s, int field, double termWeight, int doc, int tf) {
+            return VectorSpaceModelIR.TF(tf) * termWeight;
+        }
+
+        @Override
+        boolean SumsSquares() {
+            return true;
+        }
+
+        @Override
+        double FieldScore(Searcher searcher, int field, int doc, double dotProduct, double squaredWeight,
+                double querySquaredWeight) {
+            return CosineOf(dotProduct, querySquaredWeight, Math.sqrt(squaredWeight));
+        }
+
+        @Override
+        int Cosine() {
+            return Searcher.COSINE_QUERY_TERMS;
+        }
+
+        @Override
+        public String Name() {
+            return "query term cosine";
+        }
+    }
+
+    /*
+     * lnc.ltc against the whole document vector, its norm precomputed in the
+     * index: one multiply-add per posting
+     */
+    static final class FullCosine extends Similarity {
+        @Override
+        double QueryWeight(int raw_tf, int termDocFreq, int collectionSize) {
+            return COSINE_QUERY_TERMS.QueryWeight(raw_tf, termDocFreq, collectionSize);
+        }
+
+        @Override
+        double TermWeight(int termDocFreq, int collectionSize) {
+            return VectorSpaceModelIR.IDF(collectionSize, termDocFreq);
+        }
+
+        @Override
+        void Accumulate(Searcher searcher, int s, int field, double queryWeight, double termWeight, int[] docs,
+                int[] tfs, int length, double[] dotProducts, double[] squaredWeights) {
+            int docBase = searcher.DocBase(s);
+            double queryWeightIDF = queryWeight * termWeight;
+            for (int i = 0; i < length; i++) {
+                dotProducts[docBase + docs[i]] += queryWeightIDF * VectorSpaceModelIR.TF(tfs[i]);
+            }
+        }
+
+        @Override
+        double QueryFactor(double queryWeight, double termWeight) {
+            return queryWeight * termWeight;
+        }
+
+        @Override
+        double DocFactor(Searcher searcher, int s, int field, double termWeight, int doc, int tf) {
+            return VectorSpaceModelIR.TF(tf);
+        }
+
+        @Override
+        double FieldScore(Searcher searcher, int field, int doc, double dotProduct, double squaredWeight,
+                double querySquaredWeight) {
+            return CosineOf(dotProduct, querySquaredWeight, searcher.Norm(field, doc));
+        }
+
+        @Override
+        int Cosine() {
+            return Searcher.COSINE_FULL;
+        }
+
+        @Override
+        public String Name() {
+            return "full cosine";
+        }
+    }
+
+    /*
+     * Okapi BM25: idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length /
+     * average length)) per term, tf being the true occurrences, times the
+     * raw TF of the term in the query. Scores are not normalized, so they
+     * only compare within a query.
+     */
+    static final class BM25Similarity extends Similarity {
+        private final double k1;
+        private final double b;
+
+        BM25Similarity(double k1, double b) {
+            this.k1 = k1;
+            this.b = b;
+        }
+
+        @Override
+        double QueryWeight(int raw_tf, int termDocFreq, int collectionSize) {
+            return raw_tf;
+        }
+
+        // Never negative, unlike the original idf for terms in over half the documents
+        @Override
+        double TermWeight(int termDocFreq, int collectionSize) {
+            return Math.log(1 + (collectionSize - termDocFreq + 0.5) / (termDocFreq + 0.5));
+        }
+
+        @Override
+        void Accumulate(Searcher searcher, int s, int field, double queryWeight, double termWeight, int[] docs,
+                int[] tfs, int length, double[] dotProducts, double[] squaredWeights) {
+            InvertedIndex segment = searcher.Segment(s);
+            int docBase = searcher.DocBase(s);
+            double weight = queryWeight * termWeight * (this.k1 + 1);
+            // tf + k1 * (1 - b + b * length / average) as tf + constant + scale * length
+            double constant = this.k1 * (1 - this.b);
+            double scale = this.k1 * this.b / searcher.AverageFieldLength(field);
+            for (int i = 0; i < length; i++) {
+                int tf = tfs[i];
+                double denominator = tf + constant + scale * segment.FieldLength(field, docs[i]);
+                dotProducts[docBase + docs[i]] += weight * (tf / denominator);
+            }
+        }
+
+        @Override
+        double QueryFactor(double queryWeight, double termWeight) {
+            return queryWeight * termWeight * (this.k1 + 1);
+        }
+
+        @Override
+        double DocFactor(Searcher searcher, int s, int field, double termWeight, int doc, int tf) {
+            double constant = this.k1 * (1 - this.b);
+            double scale = this.k1 * this.b / searcher.AverageFieldLength(field);
+            return tf / (tf + constant + scale * searcher.Segment(s).FieldLength(field, doc));
+        }
+
+        @Override
+        boolean Occurrences() {
+            return true;
+        }
+
+        @Override
+        double FieldScore(Searcher searcher, int field, int doc, double dotProduct, double squaredWeight,
+                double querySquaredWeight) {
+            return dotProduct;
+        }
+
+        @Override
+        public String Name() {
+            return "BM25 (k1 " + this.k1 + ", b " + this.b + ")";
+        }
+    }
+
+    /*
+     * Pivoted document length normalization: (1 + ln(1 + ln tf)) / ((1 -
+     * slope) + slope * length / average length) per term, tf being the
+     * true occurrences, times its raw TF in the query and ln((N + 1) /
+     * df). Not normalized either.
+     */
+    static final class PivotedSimilarity extends Similarity {
+        // 1 + ln(1 + ln tf) of the common small counts
+        private static final double[] TF_WEIGHTS = new double[64];
+        static {
+            for (int tf = 1; tf < TF_WEIGHTS.length; tf++) {
+                TF_WEIGHTS[tf] = 1 + Math.log(1 + Math.log(tf));
+            }
+        }
+
+        private final double slope;
+
+        PivotedSimilarity(double slope) {
+            this.slope = slope;
+        }
+
+        @Override
+        double QueryWeight(int raw_tf, int termDocFreq, int collectionSize) {
+            return raw_tf;
+        }
+
+        @Override
+        double TermWeight(int termDocFreq, int collectionSize) {
+            return Math.log((collectionSize + 1.0) / termDocFreq);
+        }
+
+        @Override
+        void Accumulate(Searcher searcher, int s, int field, double queryWeight, double termWeight, int[] docs,
+                int[] tfs, int length, double[] dotProducts, double[] squaredWeights) {
+            InvertedIndex segment = searcher.Segment(s);
+            int docBase = searcher.DocBase(s);
+            double weight = queryWeight * termWeight;
+            double constant = 1 - this.slope;
+            double scale = this.slope / searcher.AverageFieldLength(field);
+            for (int i = 0; i < length; i++) {
+                dotProducts[docBase + docs[i]] += weight
+                        * (TFWeight(tfs[i]) / (constant + scale * segment.FieldLength(field, docs[i])));
+            }
+        }
+
+        @Override
+        double QueryFactor(double queryWeight, double termWeight) {
+            return queryWeight * termWeight;
+        }
+
+        @Override
+        double DocFactor(Searcher searcher, int s, int field, double termWeight, int doc, int tf) {
+            double constant = 1 - this.slope;
+            double scale = this.slope / searcher.AverageFieldLength(field);
+            return TFWeight(tf) / (constant + scale * searcher.Segment(s).FieldLength(field, doc));
+        }
+
+        private static double TFWeight(int tf) {
+            return tf < TF_WEIGHTS.length ? TF_WEIGHTS[tf] : 1 + Math.log(1 + Math.log(tf));
+        }
+
+        @Override
+        boolean Occurrences() {
+            return true;
+        }
+
+        @Override
+        double FieldScore(Searcher searcher, int field, int doc, double dotProduct, double squaredWeight,
+                double querySquaredWeight) {
+            return dotProduct;
+        }
+
+        @Override
+        public String Name() {
+            return "pivoted normalization (slope " + this.slope + ")";
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+    Bounded cache from a word to its Porter stem, shared by every thread.
+
+    Word frequencies follow Zipf's law, so a few thousand entries answer
+    most stemmer calls. The cache is split into segments, each with its
+    own lock, and each segment evicts with the CLOCK algorithm: an entry
+    that was used since the hand last passed it gets a second chance.
+    Hit, miss and eviction counters are kept for sizing the cache.
+*/
+
+package vsmir;
+
+// Java
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+final class StemCache {
+    // Number of independently locked segments, a power of two
+    static final int SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    StemCache(int capacity) {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("Stem cache capacity must be at least " + SEGMENTS);
+        }
+        this.capacity = capacity;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(capacity / SEGMENTS);
+        }
+    }
+
+    /*
+     * Stem of the word in probe, or null if it is not cached. The stem is
+     * shared with other threads and must not be modified.
+     */
+    char[] Get(Key probe) {
+        char[] stem = SegmentFor(probe).Get(probe);
+        if (stem == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        return stem;
+    }
+
+    // Remember the stem of the word in probe, evicting an entry if full
+    void Put(Key probe, char[] stem) {
+        if (SegmentFor(probe).Put(probe, stem)) {
+            this.evictions.increment();
+        }
+    }
+
+    int Capacity() {
+        return this.capacity;
+    }
+
+    long Hits() {
+        return this.hits.sum();
+    }
+
+    long Misses() {
+        return this.misses.sum();
+    }
+
+    long Evictions() {
+        return this.evictions.sum();
+    }
+
+    double HitRate() {
+        long hits = Hits();
+        long lookups = hits + Misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private Segment SegmentFor(Key probe) {
+        // Spread the hash so segments do not just take its low bits
+        int hash = probe.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /*
+     * A word as map key. Keys in the cache own a copy of their chars; a
+     * thread looks words up through its own Key pointed at its buffer.
+     */
+    static final class Key {
+        private char[] chars;
+        private int length;
+        private int hash;
+
+        // A lookup key, Set before each use
+        Key() {
+        }
+
+        private Key(char[] chars, int length, int hash) {
+            this.chars = chars;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        void Set(char[] chars, int length) {
+            this.chars = chars;
+            this.length = length;
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            this.hash = hash;
+        }
+
+        private Key Copy() {
+            return new Key(Arrays.copyOf(this.chars, this.length), this.length, this.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return this.hash == key.hash
+                    && Arrays.equals(this.chars, 0, this.length, key.chars, 0, key.length);
+        }
+    }
+
+    private static final class Segment {
+        // Key -> slot in the clock
+        private final HashMap<Key, Integer> slots;
+
+        // The clock: entries by slot, with a referenced bit each
+        private final Key[] keys;
+        private final char[][] stems;
+        private final boolean[] referenced;
+        private int size;
+        private int hand;
+
+        Segment(int capacity) {
+            this.slots = new HashMap<Key, Integer>(capacity * 2);
+            this.keys = new Key[capacity];
+            this.stems = new char[capacity][];
+            this.referenced = new boolean[capacity];
+        }
+
+        synchronized char[] Get(Key probe) {
+            Integer slot = this.slots.get(probe);
+            if (slot == null) {
+                return null;
+            }
+            this.referenced[slot] = true;
+            return this.stems[slot];
+        }
+
+        // True if an entry was evicted to make room
+        synchronized boolean Put(Key probe, char[] stem) {
+            if (this.slots.containsKey(probe)) {
+                // Another thread stemmed the same word first
+                return false;
+            }
+
+            boolean evicted = false;
+            int slot;
+            if (this.size < this.keys.length) {
+                slot = this.size++;
+            } else {
+                // Sweep, clearing referenced bits, to the first entry not used since the last sweep
+                while (this.referenced[this.hand]) {
+                    this.referenced[this.hand] = false;
+                    this.hand = (this.hand + 1) % this.keys.length;
+                }
+                slot = this.hand;
+                this.hand = (this.hand + 1) % this.keys.length;
+                this.slots.remove(this.keys[slot]);
+                evicted = true;
+            }
+
+            Key key = probe.Copy();
+            this.keys[slot] = key;
+            this.stems[slot] = stem;
+            this.referenced[slot] = false;
+            this.slots.put(key, slot);
+            return evicted;
+        }
+    }
+}
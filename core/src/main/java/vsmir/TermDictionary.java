@@ -0,0 +1,244 @@
+/*
+    Term dictionary of a frozen index: every distinct term, sorted, with
+    its position in that order as its dense term ID.
+
+    Terms are front coded in blocks of TERMS_PER_BLOCK. The first term of
+    a block is kept whole, as its UTF-8 length and bytes; every other term
+    as the length of the prefix it shares with the term before it, the
+    length of the rest, and the rest. Sorted stems share long prefixes, so
+    this takes far fewer bytes than the terms themselves, and the offset
+    table only has an entry per block rather than per term.
+
+    A lookup binary searches the first terms of the blocks and then scans
+    a single block, carrying over how much of the key the previous term
+    matched, so no term is ever decoded to look it up.
+*/
+
+package vsmir;
+
+// Java
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class TermDictionary {
+    static final int TERMS_PER_BLOCK = 16;
+
+    private final int numTerms;
+
+    // Front coded blocks back to back, block b starting at blockOffsets[b]
+    private final ByteBuffer bytes;
+    private final IntBuffer blockOffsets;
+
+    TermDictionary(int numTerms, ByteBuffer bytes, IntBuffer blockOffsets) {
+        this.numTerms = numTerms;
+        this.bytes = bytes;
+        this.blockOffsets = blockOffsets;
+    }
+
+    int NumTerms() {
+        return this.numTerms;
+    }
+
+    // Whether there is one block offset per TERMS_PER_BLOCK terms
+    boolean Matches() {
+        return this.blockOffsets.limit() == NumBlocks(this.numTerms);
+    }
+
+    // The sections of a segment file, as InvertedIndex writes and checksums them
+    ByteBuffer Bytes() {
+        return this.bytes.duplicate().clear();
+    }
+
+    IntBuffer BlockOffsets() {
+        return this.blockOffsets.duplicate().clear();
+    }
+
+    static int NumBlocks(int numTerms) {
+        return (numTerms + TERMS_PER_BLOCK - 1) / TERMS_PER_BLOCK;
+    }
+
+    // Returns the term ID of a term, or -1 if the term is not in the dictionary
+    int TermID(String term) {
+        byte[] utf8 = term.getBytes(StandardCharsets.UTF_8);
+        char[] key = new char[utf8.length];
+        for (int i = 0; i < utf8.length; i++) {
+            key[i] = (char) (utf8[i] & 0xFF);
+        }
+        return Find(key, key.length);
+    }
+
+    /*
+     * Same as above for a term in a char buffer, without making a String.
+     * Terms are compared char by char, which matches their UTF-8 order for
+     * the ASCII terms the analyzer produces.
+     */
+    int TermID(char[] term, int length) {
+        for (int i = 0; i < length; i++) {
+            if (term[i] >= 0x80) {
+                return TermID(new String(term, 0, length));
+            }
+        }
+        return Find(term, length);
+    }
+
+    String Term(int termID) {
+        int block = termID / TERMS_PER_BLOCK;
+        int p = this.blockOffsets.get(block);
+        int length = VIntAt(p);
+        p += VIntLength(length);
+        byte[] term = new byte[Math.max(16, length)];
+        this.bytes.get(p, term, 0, length);
+        p += length;
+
+        for (int t = block * TERMS_PER_BLOCK; t < termID; t++) {
+            int shared = VIntAt(p);
+            p += VIntLength(shared);
+            int suffix = VIntAt(p);
+            p += VIntLength(suffix);
+            length = shared + suffix;
+            if (length > term.length) {
+                term = Arrays.copyOf(term, Math.max(length, term.length * 2));
+            }
+            this.bytes.get(p, term, shared, suffix);
+            p += suffix;
+        }
+        return new String(term, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Term ID of the first length chars of key, each one a UTF-8 byte
+     * value, or -1
+     */
+    private int Find(char[] key, int length) {
+        // Last block whose first term is not after the key
+        int block = -1;
+        int low = 0;
+        int high = NumBlocks(this.numTerms) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = CompareFirstTerm(mid, key, length);
+            if (cmp < 0) {
+                block = mid;
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid * TERMS_PER_BLOCK;
+            }
+        }
+        if (block < 0) {
+            return -1;
+        }
+
+        // The first term is before the key; matched is how much of the key it shares
+        int p = this.blockOffsets.get(block);
+        int termLength = VIntAt(p);
+        p += VIntLength(termLength);
+        int matched = 0;
+        while (matched < termLength && matched < length && (this.bytes.get(p + matched) & 0xFF) == key[matched]) {
+            matched++;
+        }
+        p += termLength;
+
+        int end = Math.min(this.numTerms, (block + 1) * TERMS_PER_BLOCK);
+        for (int termID = block * TERMS_PER_BLOCK + 1; termID < end; termID++) {
+            int shared = VIntAt(p);
+            p += VIntLength(shared);
+            int suffix = VIntAt(p);
+            p += VIntLength(suffix);
+
+            if (shared < matched) {
+                // Differs from the previous term, and so from the key, before where they stopped matching
+                return -1;
+            }
+            if (shared == matched) {
+                int i = 0;
+                while (i < suffix && matched + i < length && (this.bytes.get(p + i) & 0xFF) == key[matched + i]) {
+                    i++;
+                }
+                if (i == suffix) {
+                    if (matched + i == length) {
+                        return termID;
+                    }
+                    // A prefix of the key, so still before it
+                } else if (matched + i == length || (this.bytes.get(p + i) & 0xFF) > key[matched + i]) {
+                    return -1;
+                }
+                matched += i;
+            }
+            // A longer shared prefix keeps the previous term's smaller byte where it left the key
+            p += suffix;
+        }
+        return -1;
+    }
+
+    private int CompareFirstTerm(int block, char[] key, int length) {
+        int p = this.blockOffsets.get(block);
+        int termLength = VIntAt(p);
+        p += VIntLength(termLength);
+        int common = Math.min(termLength, length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (this.bytes.get(p + i) & 0xFF) - key[i];
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return termLength - length;
+    }
+
+    // Same encoding as ByteArrayBuilder.AppendVInt
+    private int VIntAt(int p) {
+        byte b = this.bytes.get(p);
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = this.bytes.get(++p);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private static int VIntLength(int value) {
+        return 1 + (31 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+    }
+
+    /*
+     * Front codes terms given in ascending order. Before each term the
+     * caller records the current size of its output as a block offset if
+     * StartsBlock() says the term opens a new block.
+     */
+    static final class Encoder {
+        private byte[] previous = new byte[64];
+        private int previousLength;
+        private int numTerms;
+
+        boolean StartsBlock() {
+            return this.numTerms % TERMS_PER_BLOCK == 0;
+        }
+
+        void Encode(byte[] term, InvertedIndex.ByteArrayBuilder out) {
+            if (StartsBlock()) {
+                out.AppendVInt(term.length);
+                out.Append(term, 0, term.length);
+            } else {
+                int shared = 0;
+                int common = Math.min(this.previousLength, term.length);
+                while (shared < common && this.previous[shared] == term[shared]) {
+                    shared++;
+                }
+                out.AppendVInt(shared);
+                out.AppendVInt(term.length - shared);
+                out.Append(term, shared, term.length - shared);
+            }
+
+            if (term.length > this.previous.length) {
+                this.previous = Arrays.copyOf(term, Math.max(term.length, this.previous.length * 2));
+            } else {
+                System.arraycopy(term, 0, this.previous, 0, term.length);
+            }
+            this.previousLength = term.length;
+            this.numTerms++;
+        }
+    }
+}
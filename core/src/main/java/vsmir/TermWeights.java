@@ -0,0 +1,138 @@
+/*
+    TF-IDF weights of every posting of one field, in flat arrays.
+
+    Terms are in sorted order; the weights of term t are the slots
+    offsets[t] .. offsets[t + 1] of weights, in DocID order.
+    The arrays are sized from the postings counts up front and filled
+    by a ForkJoin pool, each task weighting a range of terms, with the
+    IDF worked out once per term.
+*/
+
+package vsmir;
+
+// Java
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+final class TermWeights {
+    // Postings a task weights itself rather than splitting its term range
+    static final int POSTINGS_PER_TASK = 8192;
+
+    private final int collectionSize;
+    private final String[] terms;
+    private final int[] offsets;
+    private final double[] weights;
+
+    private TermWeights(int collectionSize, String[] terms, int[] offsets) {
+        this.collectionSize = collectionSize;
+        this.terms = terms;
+        this.offsets = offsets;
+        this.weights = new double[offsets[terms.length]];
+    }
+
+    /*
+     * Weight every field at once on pool, one TermWeights per field, given
+     * as TreeMap<Term, TreeMap<DocID, Raw TF>>
+     */
+    @SafeVarargs
+    static TermWeights[] Compute(int collectionSize, ForkJoinPool pool,
+            TreeMap<String, TreeMap<Integer, Integer>>... fields) {
+        TermWeights[] fieldWeights = new TermWeights[fields.length];
+        WeightTask[] tasks = new WeightTask[fields.length];
+        for (int field = 0; field < fields.length; field++) {
+            // Postings of each term, in term order, and where each one starts
+            int numTerms = fields[field].size();
+            String[] terms = new String[numTerms];
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            TreeMap<Integer, Integer>[] postings = new TreeMap[numTerms];
+            int[] offsets = new int[numTerms + 1];
+            int t = 0;
+            for (Map.Entry<String, TreeMap<Integer, Integer>> term : fields[field].entrySet()) {
+                terms[t] = term.getKey();
+                postings[t] = term.getValue();
+                offsets[t + 1] = offsets[t] + term.getValue().size();
+                t++;
+            }
+
+            fieldWeights[field] = new TermWeights(collectionSize, terms, offsets);
+            tasks[field] = new WeightTask(fieldWeights[field], postings, collectionSize, 0, numTerms);
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return fieldWeights;
+    }
+
+    // Weight of the i-th posting of term t, in DocID order
+    double Weight(int t, int i) {
+        return this.weights[this.offsets[t] + i];
+    }
+
+    /*
+     * Whether these are the weights of a field's TreeMap<Term, TreeMap<DocID,
+     * Raw TF>> as it is now, in a collection of collectionSize documents:
+     * same size, same terms and same number of postings of each
+     */
+    boolean Matches(int collectionSize, TreeMap<String, TreeMap<Integer, Integer>> field) {
+        if (collectionSize != this.collectionSize || field.size() != this.terms.length) {
+            return false;
+        }
+        int t = 0;
+        for (Map.Entry<String, TreeMap<Integer, Integer>> term : field.entrySet()) {
+            if (!term.getKey().equals(this.terms[t]) || term.getValue().size() != this.offsets[t + 1] - this.offsets[t]) {
+                return false;
+            }
+            t++;
+        }
+        return true;
+    }
+
+    /*
+     * Weights the postings of terms [from, to), splitting the range in two
+     * while it holds more than POSTINGS_PER_TASK postings
+     */
+    private static final class WeightTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TermWeights out;
+        private final TreeMap<Integer, Integer>[] postings;
+        private final int collectionSize;
+        private final int from, to;
+
+        WeightTask(TermWeights out, TreeMap<Integer, Integer>[] postings, int collectionSize, int from, int to) {
+            this.out = out;
+            this.postings = postings;
+            this.collectionSize = collectionSize;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int[] offsets = this.out.offsets;
+            if (this.to - this.from > 1 && offsets[this.to] - offsets[this.from] > POSTINGS_PER_TASK) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new WeightTask(this.out, this.postings, this.collectionSize, this.from, middle),
+                        new WeightTask(this.out, this.postings, this.collectionSize, middle, this.to));
+                return;
+            }
+
+            for (int t = this.from; t < this.to; t++) {
+                int termDocFreq = this.postings[t].size();
+                double idf = VectorSpaceModelIR.IDF(this.collectionSize, termDocFreq);
+
+                int i = offsets[t];
+                for (int raw_tf : this.postings[t].values()) {
+                    // Same as TFXIDF(raw_tf, collectionSize, termDocFreq)
+                    this.out.weights[i++] = VectorSpaceModelIR.TF(raw_tf) * idf;
+                }
+            }
+        }
+    }
+}
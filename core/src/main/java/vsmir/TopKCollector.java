@@ -0,0 +1,137 @@
+/*
+    Bounded top k result collector for the Vector Space
+    Information Retrieval model.
+
+    Keeps the k best (score, doc) pairs in a primitive min-heap so
+    every scored document costs at most O(log k) and nothing is boxed.
+    Ties on score are broken by doc, lower doc first, so documents with
+    equal scores are all kept and always come out in the same order.
+*/
+
+package vsmir;
+
+public class TopKCollector {
+    // Heap arrays, the worst collected result sits at index 0
+    private double[] scores;
+    private int[] docs;
+
+    private int k;
+    private int size;
+
+    // True once SortResults() has turned the heap into a ranked list
+    private boolean sorted;
+
+    TopKCollector(int initialCapacity) {
+        this.scores = new double[Math.max(1, initialCapacity)];
+        this.docs = new int[Math.max(1, initialCapacity)];
+    }
+
+    /*
+     * Prepare for a new query; the arrays are only reallocated when k
+     * grows past every k seen before.
+     */
+    void Reset(int k) {
+        if (k > this.scores.length) {
+            this.scores = new double[k];
+            this.docs = new int[k];
+        }
+        this.k = k;
+        this.size = 0;
+        this.sorted = false;
+    }
+
+    void Collect(int doc, double score) {
+        if (this.size < this.k) {
+            // Sift up from the new leaf
+            int i = this.size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!Worse(score, doc, this.scores[parent], this.docs[parent])) {
+                    break;
+                }
+                this.scores[i] = this.scores[parent];
+                this.docs[i] = this.docs[parent];
+                i = parent;
+            }
+            this.scores[i] = score;
+            this.docs[i] = doc;
+        } else if (this.k > 0 && Worse(this.scores[0], this.docs[0], score, doc)) {
+            // Replace the worst result and sift it down
+            SiftDown(score, doc, this.size);
+        }
+    }
+
+    /*
+     * Lowest score that can still enter the results, or negative infinity
+     * while fewer than k results have been collected
+     */
+    double Threshold() {
+        return this.size < this.k ? Double.NEGATIVE_INFINITY : this.scores[0];
+    }
+
+    /*
+     * Sort the collected results from best to worst in place. After this
+     * Doc(rank) and Score(rank) read the ranked list; call Reset() before
+     * collecting again.
+     */
+    void SortResults() {
+        if (this.sorted) {
+            return;
+        }
+        // Heap sort: repeatedly move the worst remaining result to the end
+        for (int end = this.size - 1; end > 0; end--) {
+            double worstScore = this.scores[0];
+            int worstDoc = this.docs[0];
+            SiftDown(this.scores[end], this.docs[end], end);
+            this.scores[end] = worstScore;
+            this.docs[end] = worstDoc;
+        }
+        this.sorted = true;
+    }
+
+    int Size() {
+        return this.size;
+    }
+
+    int Doc(int rank) {
+        return this.docs[rank];
+    }
+
+    double Score(int rank) {
+        return this.scores[rank];
+    }
+
+    /*
+     *
+     * HELPER METHODS
+     *
+     */
+
+    // Places (score, doc) at the root of the heap of the given size
+    private void SiftDown(double score, int doc, int heapSize) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize
+                    && Worse(this.scores[child + 1], this.docs[child + 1], this.scores[child], this.docs[child])) {
+                child++;
+            }
+            if (!Worse(this.scores[child], this.docs[child], score, doc)) {
+                break;
+            }
+            this.scores[i] = this.scores[child];
+            this.docs[i] = this.docs[child];
+            i = child;
+        }
+        this.scores[i] = score;
+        this.docs[i] = doc;
+    }
+
+    // Is (scoreA, docA) ranked below (scoreB, docB)?
+    static boolean Worse(double scoreA, int docA, double scoreB, int docB) {
+        return scoreA < scoreB || (scoreA == scoreB && docA > docB);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+    Loops over primitive double[] vectors that scoring and weighting
+    share: dot product, sum of squares, cosine, scaled add and square
+    root, each over the first length elements.
+
+    Two implementations: ScalarKernels, plain loops that run anywhere,
+    and SimdKernels, written with the JDK Vector API so every step works
+    on as many lanes as the CPU has. The Vector API is an incubator
+    module in Java 17 and is only there when the JVM is started with
+    --add-modules jdk.incubator.vector; DEFAULT picks SimdKernels then,
+    ScalarKernels otherwise. -Dvsm.kernels=scalar forces the plain loops.
+
+    The element-wise kernels (AddScaled, Sqrt) give the same bits either
+    way. The reductions (Dot, SumOfSquares, Cosine) add up in a
+    different order per lane, so they may differ in the last bits.
+*/
+
+package vsmir;
+
+abstract class VectorKernels {
+    // Kernels picked at startup
+    static final VectorKernels DEFAULT = Select();
+
+    // Sum of a[i] * b[i]
+    abstract double Dot(double[] a, double[] b, int length);
+
+    // Sum of a[i] * a[i]
+    abstract double SumOfSquares(double[] a, int length);
+
+    /*
+     * Cosine Similarity of a and b in one pass over both, 0 if either is
+     * all zeros
+     */
+    abstract double Cosine(double[] a, double[] b, int length);
+
+    // dst[i] += scale * src[i]
+    abstract void AddScaled(double[] dst, double[] src, double scale, int length);
+
+    // a[i] = sqrt(a[i]), in place
+    abstract void Sqrt(double[] a, int length);
+
+    // Doubles handled per step
+    abstract int Lanes();
+
+    abstract String Name();
+
+    static VectorKernels Scalar() {
+        return new ScalarKernels();
+    }
+
+    /*
+     * The Vector API kernels, or null if the incubator module is missing or
+     * the CPU has no vector registers wider than one double
+     */
+    static VectorKernels Simd() {
+        try {
+            VectorKernels simd = (VectorKernels) Class.forName("vsmir.SimdKernels").getDeclaredConstructor()
+                    .newInstance();
+            return simd.Lanes() > 1 ? simd : null;
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    private static VectorKernels Select() {
+        if (!"scalar".equals(System.getProperty("vsm.kernels"))) {
+            VectorKernels simd = Simd();
+            if (simd != null) {
+                return simd;
+            }
+        }
+        return Scalar();
+    }
+
+    // Cosine from a dot product and two sums of squares, the way scoring divides
+    static double CosineOf(double dotProduct, double squaredA, double squaredB) {
+        double cssDenominator = Math.sqrt(squaredA) * Math.sqrt(squaredB);
+        return cssDenominator == 0 ? 0 : dotProduct / cssDenominator;
+    }
+
+    static final class ScalarKernels extends VectorKernels {
+        @Override
+        double Dot(double[] a, double[] b, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }
+
+        @Override
+        double SumOfSquares(double[] a, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += a[i] * a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        double Cosine(double[] a, double[] b, int length) {
+            double dotProduct = 0;
+            double squaredA = 0;
+            double squaredB = 0;
+            for (int i = 0; i < length; i++) {
+                dotProduct += a[i] * b[i];
+                squaredA += a[i] * a[i];
+                squaredB += b[i] * b[i];
+            }
+            return CosineOf(dotProduct, squaredA, squaredB);
+        }
+
+        @Override
+        void AddScaled(double[] dst, double[] src, double scale, int length) {
+            for (int i = 0; i < length; i++) {
+                dst[i] += scale * src[i];
+            }
+        }
+
+        @Override
+        void Sqrt(double[] a, int length) {
+            for (int i = 0; i < length; i++) {
+                a[i] = Math.sqrt(a[i]);
+            }
+        }
+
+        @Override
+        int Lanes() {
+            return 1;
+        }
+
+        @Override
+        String Name() {
+            return "scalar";
+        }
+    }
+}
@@ -0,0 +1,1572 @@
+/*
+    This program implements the Vector Space Information 
+    Retrieval model, demonstrated on the Cranfield corpus.
+
+    Authors: Abelson Abueg
+    Date Created: 4 Apr 2022
+    Last Updated: 19 Apr 2022
+*/
+
+package vsmir;
+
+// Java
+import java.io.File;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.regex.Pattern;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+
+public class VectorSpaceModelIR {
+    /*
+     *
+     * CONSTRUCTOR AND CLASS METHODS
+     * 
+     */
+
+    // Stored fields of every document read, by DocID, kept off the heap
+    private DocumentStore.Builder documents;
+
+    // TreeMap<Term, TreeMap<DocID, Term Frequency>> per field (InvertedIndex.TITLE, ABSTRACT, ...)
+    private TreeMap<String, TreeMap<Integer, Integer>>[] termFieldFreqs;
+
+    // Same, holding how often the term really occurs where that is counted differently (see IndexShard)
+    private TreeMap<String, TreeMap<Integer, Integer>>[] termFieldOccurrences;
+
+    // TF-IDF weights of every posting per field, set by CalcTFXIDF for FreezeIndex to take the norms from
+    private TermWeights[] fieldWeights;
+
+    // Top k (DocID, Final Cosine Similarity Score) pairs of the last CalcCSS call
+    private SearchResult lastResults;
+
+    // TreeMap<QueryID, Query>
+    private TreeMap<String, String> queryList;
+
+    // Frozen index built from the maps above by FreezeIndex()
+    private InvertedIndex index;
+
+    // Answers queries over the frozen index, published once the index is complete
+    private volatile Searcher searcher;
+
+    // Ranking function CalcCSS and CalcQuery score with, the query term cosine unless set otherwise
+    private Similarity similarity = Similarity.COSINE_QUERY_TERMS;
+
+    // Whether COSINE_FULL searches skip documents that cannot make the top k; results are the same
+    private boolean pruning = true;
+
+    // Results and field scores of recent queries, null to search every query afresh
+    private volatile QueryCache queryCache;
+
+    // Sections of a corpus record, as BuildData walks through them
+    static final int SECTION_NONE = 0;
+    static final int SECTION_DOCID = 1;
+    static final int SECTION_TITLE = 2;
+    static final int SECTION_AUTHORS = 3;
+    static final int SECTION_BIBLIOGRAPHY = 4;
+    static final int SECTION_ABSTRACT = 5;
+
+    // Number of records a stream is indexed in at a time
+    static final int RECORDS_PER_BATCH = 64;
+
+    // Bytes of records BuildData hands to a worker at a time
+    static final int CHUNK_BYTES = 64 * 1024;
+
+    // Timed passes over all queries in eval mode
+    static final int EVAL_TIMED_ROUNDS = 5;
+
+    // Words whose stems are cached
+    static final int STEM_CACHE_SIZE = 16384;
+
+    // Queries, and bytes of them, each tier of the query cache of the search loop holds
+    static final int QUERY_CACHE_SIZE = 256;
+    static final long QUERY_CACHE_BYTES = 64L * 1024 * 1024;
+
+    // TF(raw_tf) for raw_tf below 1024, 0 for a term that does not occur
+    private static final double[] TF_WEIGHTS = new double[1024];
+    static {
+        for (int raw_tf = 1; raw_tf < TF_WEIGHTS.length; raw_tf++) {
+            TF_WEIGHTS[raw_tf] = 1 + Math.log10(raw_tf);
+        }
+    }
+
+    // Stop words from here: https://www.ranks.nl/stopwords
+    private ArrayList<String> stopwords = new ArrayList<String>(Arrays.asList(
+            "a", "about", "above", "after", "again", "against", "all", "am", "an", "and", "any", "are", "arent", "as",
+            "at", "be", "because", "been", "before", "being", "below", "between", "both", "but", "by", "cant", "cannot",
+            "could", "couldnt", "did", "didnt", "do", "does", "doesnt", "doing", "dont", "down", "during", "each",
+            "few", "for", "from", "further", "had", "hadnt", "has", "hasnt", "have", "havent", "having", "he", "hed",
+            "hell", "hes", "her", "here", "heres", "hers", "herself", "him", "himself", "his", "how", "hows", "i", "id",
+            "ill", "im", "ive", "if", "in", "into", "is", "isnt", "it", "its", "its", "itself", "lets", "me", "more",
+            "most", "mustnt", "my", "myself", "no", "nor", "not", "of", "off", "on", "once", "only", "or", "other",
+            "ought", "our", "ours 	ourselves", "out", "over", "own", "same", "shant", "she", "shed", "shell", "shes",
+            "should", "shouldnt", "so", "some", "such", "than", "that", "thats", "the", "their", "theirs", "them",
+            "themselves", "then", "there", "theres", "these", "they", "theyd", "theyll", "theyre", "theyve", "this",
+            "those", "through", "to", "too", "under", "until", "up", "very", "was", "wasnt", "we", "wed", "well",
+            "were", "weve", "were", "werent", "what", "whats", "when", "whens", "where", "wheres", "which", "while",
+            "who", "whos", "whom", "why", "whys", "with", "wont", "would", "wouldnt", "you", "youd", "youll", "youre",
+            "youve", "your", "yours", "yourself", "yourselves"));
+
+    // Stems of the most used words, shared by every indexing and query thread
+    private final StemCache stemCache = new StemCache(STEM_CACHE_SIZE);
+
+    // Tokenizes, filters and stems documents and queries alike
+    private final Analyzer analyzer = Analyzer.Standard(this.stopwords, this.stemCache);
+
+    // Default Constructor; it's all you really need.
+    public VectorSpaceModelIR() {
+        // For storing data
+        this.documents = new DocumentStore.Builder(true);
+        this.termFieldFreqs = InvertedIndex.NewTermFreqs();
+        this.termFieldOccurrences = InvertedIndex.NewTermFreqs();
+
+        // For storing QueryID and the Query
+        this.queryList = new TreeMap<String, String>();
+    }
+
+    /*
+     * 
+     * Read the document and keep track of the stored fields and
+     * term and document frequencies of every field
+     * 
+     */
+    void BuildData(String inputPath) {
+        BuildData(inputPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /*
+     * Same as above, using numThreads workers. The file is mapped and cut
+     * into chunks of whole records (see CorpusReader), which the workers
+     * tokenize and stem straight from the mapped bytes into their own
+     * partial maps (shards). The shards are merged back in file order, so
+     * the result is identical to reading the file on a single thread.
+     */
+    void BuildData(String inputPath, int numThreads) {
+        long start = Metrics.Enabled() ? System.nanoTime() : 0;
+
+        // The maps of this object, filled directly when running single threaded
+        IndexShard index = new IndexShard(this.documents, this.termFieldFreqs, this.termFieldOccurrences);
+
+        ExecutorService workers = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+
+        // Chunks handed to the workers but not merged yet, in file order
+        ArrayDeque<Future<IndexShard>> pending = new ArrayDeque<Future<IndexShard>>();
+
+        try {
+            CorpusReader.ReadChunks(inputPath, CHUNK_BYTES, (bytes, from, to) -> {
+                if (workers == null) {
+                    IndexRecords(bytes, from, to, index);
+                } else {
+                    SubmitBatch(() -> {
+                        IndexShard shard = new IndexShard();
+                        IndexRecords(bytes, from, to, shard);
+                        return shard;
+                    }, workers, pending, numThreads, index);
+                }
+            });
+
+            if (workers != null) {
+                MergePending(pending, 0, index);
+            }
+
+        } catch (IOException ex) {
+            System.err.println("File " + inputPath + " not found. Program terminated.\n");
+            System.exit(1);
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+        }
+
+        if (start != 0) {
+            Metrics.Get().RecordPhase(Metrics.PHASE_BUILD_DATA, System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Hands a batch of records to the workers, then merges finished batches
+     * in file order until at most maxPending are still in flight.
+     */
+    private static void SubmitBatch(Callable<IndexShard> batch, ExecutorService workers,
+            ArrayDeque<Future<IndexShard>> pending, int maxPending, IndexShard index) {
+        pending.add(workers.submit(batch));
+        MergePending(pending, maxPending, index);
+    }
+
+    private static void MergePending(ArrayDeque<Future<IndexShard>> pending, int maxPending, IndexShard index) {
+        while (pending.size() > maxPending) {
+            try {
+                index.Merge(pending.poll().get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building the index", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Failed to index a batch of records", ex.getCause());
+            }
+        }
+    }
+
+    /*
+     * Same as below for records given as their lines, each record starting
+     * with its .I line, as streams and added documents come in
+     */
+    void IndexRecords(ArrayList<ArrayList<String>> batch, IndexShard shard) {
+        StringBuilder text = new StringBuilder();
+        for (ArrayList<String> record : batch) {
+            for (String line : record) {
+                text.append(line).append('\n');
+            }
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        IndexRecords(ByteBuffer.wrap(bytes), 0, bytes.length, shard);
+    }
+
+    /*
+     * Tokenize, stem and count the terms of the records in bytes[from .. to)
+     * into a shard. Each record is walked section by section exactly as the
+     * corpus reader always has: .T lines go to the title, .W lines to the
+     * abstract, .A lines to the authors and .B lines to the bibliography.
+     * Title and abstract terms are counted cumulatively (see
+     * CountSectionTerms), their true occurrences being kept on the side for
+     * BM25 and the pivoted normalization, the authors and bibliography,
+     * which the reader never counted, once per occurrence. Every section's
+     * text goes to the document store when the record ends. Lines are
+     * never made into Strings; only the title of each document is.
+     */
+    void IndexRecords(ByteBuffer bytes, int from, int to, IndexShard shard) {
+        // One String per distinct term of the batch, shared by every posting
+        Analyzer.TermTable terms = new Analyzer.TermTable();
+
+        // Terms of the current section, and where each of its lines ends in that list
+        ArrayList<String> sectionTerms = new ArrayList<String>();
+        int[] lineEnds = new int[64];
+
+        Analyzer.Tokenizer termTokenizer = this.analyzer
+                .NewTokenizer((term, length) -> sectionTerms.add(terms.Intern(term, length)));
+
+        // The title is kept as its words, with their case, separated by spaces
+        StringBuilder title = new StringBuilder();
+        Analyzer.Tokenizer titleTokenizer = new Analyzer.Tokenizer(
+                (word, length) -> title.append(' ').append(word, 0, length));
+
+        // Terms the fields were analyzed into, for Metrics
+        long numTokens = 0;
+        int numRecords = 0;
+
+        /*
+         * Stores the document ID
+         */
+        int docID = 0;
+
+        int numLines = 0;
+
+        // Where the text of the current section starts and ends in bytes
+        int textStart = from;
+        int textEnd = from;
+
+        int section = SECTION_NONE;
+        for (int lineStart = from; lineStart < to;) {
+            int lineEnd = CorpusReader.LineEnd(bytes, lineStart, to);
+            int marker = CorpusReader.SectionAt(bytes, lineStart, lineEnd);
+
+            if (marker != SECTION_NONE && EndsSection(section, marker)) {
+                if (FieldOf(section) >= 0) {
+                    numTokens += sectionTerms.size();
+                    CountSectionTerms(shard, FieldOf(section), docID, sectionTerms, lineEnds, numLines);
+                }
+                StoreSection(shard.documents, section, bytes, textStart, textEnd, title);
+
+                section = marker;
+                sectionTerms.clear();
+                numLines = 0;
+                textStart = textEnd = lineEnd + 1;
+                if (section == SECTION_DOCID) {
+                    shard.documents.FinishDoc(docID);
+                    docID = CorpusReader.ParseID(bytes, lineStart, lineEnd);
+                    numRecords++;
+                    section = SECTION_NONE;
+                } else if (section == SECTION_TITLE) {
+                    title.setLength(0);
+                }
+            } else if (FieldOf(section) >= 0) {
+                if (section == SECTION_TITLE) {
+                    titleTokenizer.Analyze(bytes, lineStart, lineEnd);
+                }
+                termTokenizer.Analyze(bytes, lineStart, lineEnd);
+
+                if (section == SECTION_AUTHORS || section == SECTION_BIBLIOGRAPHY) {
+                    // Counted as a single line, so once per occurrence
+                    numLines = 1;
+                    lineEnds[0] = sectionTerms.size();
+                } else {
+                    if (numLines == lineEnds.length) {
+                        lineEnds = Arrays.copyOf(lineEnds, numLines * 2);
+                    }
+                    lineEnds[numLines++] = sectionTerms.size();
+                }
+                textEnd = lineEnd;
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        // The last record ends inside an indexed section
+        if (FieldOf(section) >= 0) {
+            numTokens += sectionTerms.size();
+            CountSectionTerms(shard, FieldOf(section), docID, sectionTerms, lineEnds, numLines);
+        }
+        StoreSection(shard.documents, section, bytes, textStart, textEnd, title);
+        shard.documents.FinishDoc(docID);
+
+        if (Metrics.Enabled()) {
+            Metrics.Get().RecordIndexed(numRecords, numTokens);
+        }
+    }
+
+    /*
+     * Keep the text of a finished section as a stored field of the record:
+     * the title as its words, other fields as the section's lines
+     */
+    private static void StoreSection(DocumentStore.Builder documents, int section, ByteBuffer bytes, int textStart,
+            int textEnd, StringBuilder title) {
+        if (section == SECTION_TITLE) {
+            documents.SetField(InvertedIndex.TITLE, title.toString().trim());
+        } else if (FieldOf(section) >= 0) {
+            documents.SetField(FieldOf(section), bytes, textStart, textEnd);
+        }
+    }
+
+    /*
+     * Add the terms of a finished section to the term frequencies of a document.
+     *
+     * The corpus reader has always counted a section cumulatively: after each
+     * line, every word of the section so far is counted again. So a term is
+     * counted once for its own line and once for each later line of the
+     * section, which is what is added here in one go instead of recounting.
+     * Sections counted that way also get every occurrence counted once in
+     * the occurrences of the shard.
+     */
+    private static void CountSectionTerms(IndexShard shard, int field, int docID, ArrayList<String> sectionTerms,
+            int[] lineEnds, int numLines) {
+        TreeMap<String, TreeMap<Integer, Integer>> termFreq = shard.termFreqs[field];
+        TreeMap<String, TreeMap<Integer, Integer>> occurrences = CountsCumulatively(field)
+                ? shard.occurrences[field]
+                : null;
+        int start = 0;
+        for (int line = 0; line < numLines; line++) {
+            int count = numLines - line;
+            for (int i = start; i < lineEnds[line]; i++) {
+                String term = sectionTerms.get(i);
+                termFreq.computeIfAbsent(term, key -> new TreeMap<Integer, Integer>()).merge(docID, count,
+                        Integer::sum);
+                if (occurrences != null) {
+                    occurrences.computeIfAbsent(term, key -> new TreeMap<Integer, Integer>()).merge(docID, 1,
+                            Integer::sum);
+                }
+            }
+            start = lineEnds[line];
+        }
+    }
+
+    // Are the terms of a field counted cumulatively, as the corpus reader counted the title and abstract?
+    static boolean CountsCumulatively(int field) {
+        return field == InvertedIndex.TITLE || field == InvertedIndex.ABSTRACT;
+    }
+
+    // The InvertedIndex field a section is indexed into, -1 for none
+    static int FieldOf(int section) {
+        switch (section) {
+            case SECTION_TITLE:
+                return InvertedIndex.TITLE;
+            case SECTION_AUTHORS:
+                return InvertedIndex.AUTHORS;
+            case SECTION_BIBLIOGRAPHY:
+                return InvertedIndex.BIBLIOGRAPHY;
+            case SECTION_ABSTRACT:
+                return InvertedIndex.ABSTRACT;
+            default:
+                return -1;
+        }
+    }
+
+    /*
+     * Does a marker line close the current section? Titles, authors and
+     * bibliographies run up to the marker that follows them, the abstract
+     * up to the next .I line, as the corpus reader always has; a marker
+     * out of that order is part of the section's text. A .I line always
+     * starts a new record.
+     */
+    static boolean EndsSection(int section, int marker) {
+        switch (section) {
+            case SECTION_TITLE:
+                return marker == SECTION_AUTHORS || marker == SECTION_DOCID;
+            case SECTION_AUTHORS:
+                return marker == SECTION_BIBLIOGRAPHY || marker == SECTION_DOCID;
+            case SECTION_BIBLIOGRAPHY:
+                return marker == SECTION_ABSTRACT || marker == SECTION_DOCID;
+            case SECTION_ABSTRACT:
+                return marker == SECTION_DOCID;
+            default:
+                return true;
+        }
+    }
+
+    /*
+     * Which section a line opens, SECTION_NONE if it is not a marker line:
+     * one starting with .I, .T, .A, .B or .W, on its own or followed by
+     * white space. The same rule as CorpusReader.SectionAt.
+     */
+    static int SectionOf(String line) {
+        if (line.length() < 2 || line.charAt(0) != '.') {
+            return SECTION_NONE;
+        }
+        if (line.length() > 2 && !Character.isWhitespace(line.charAt(2))) {
+            return SECTION_NONE;
+        }
+        return SectionOfMarker(line.charAt(1));
+    }
+
+    // Section of the letter of a marker, SECTION_NONE for any other letter
+    static int SectionOfMarker(char marker) {
+        switch (marker) {
+            case 'I':
+                return SECTION_DOCID;
+            case 'T':
+                return SECTION_TITLE;
+            case 'A':
+                return SECTION_AUTHORS;
+            case 'B':
+                return SECTION_BIBLIOGRAPHY;
+            case 'W':
+                return SECTION_ABSTRACT;
+            default:
+                return SECTION_NONE;
+        }
+    }
+
+    /*
+     * Splits a stream into records on its .I lines, reading one record at
+     * a time. Lines before the first .I line are skipped. For files,
+     * CorpusReader does the same without making lines into Strings.
+     */
+    static final class RecordReader {
+        private final BufferedReader reader;
+
+        // The .I line of the next record, read ahead; null at the end of input
+        private String nextDocLine;
+
+        RecordReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            this.nextDocLine = ReadUpToRecord(null);
+        }
+
+        // The lines of the next record, starting with its .I line, or null after the last one
+        ArrayList<String> Next() throws IOException {
+            if (this.nextDocLine == null) {
+                return null;
+            }
+            ArrayList<String> record = new ArrayList<String>();
+            record.add(this.nextDocLine);
+            this.nextDocLine = ReadUpToRecord(record);
+            return record;
+        }
+
+        // Add lines to record, if not null, until the .I line that opens the next record
+        private String ReadUpToRecord(ArrayList<String> record) throws IOException {
+            for (String line = this.reader.readLine(); line != null; line = this.reader.readLine()) {
+                if (SectionOf(line) == SECTION_DOCID) {
+                    return line;
+                }
+                if (record != null) {
+                    record.add(line);
+                }
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Documents and per field term frequency maps for part of the corpus.
+     * Workers each fill their own shard, which are then merged.
+     */
+    static class IndexShard {
+        final DocumentStore.Builder documents;
+        // Indexed by InvertedIndex field
+        final TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs;
+        /*
+         * True number of occurrences of the terms of the fields counted
+         * cumulatively, shaped like termFreqs; a (term, DocID) left out
+         * occurs as often as termFreqs counts it
+         */
+        final TreeMap<String, TreeMap<Integer, Integer>>[] occurrences;
+
+        IndexShard() {
+            this(new DocumentStore.Builder(false), InvertedIndex.NewTermFreqs(), InvertedIndex.NewTermFreqs());
+        }
+
+        IndexShard(DocumentStore.Builder documents, TreeMap<String, TreeMap<Integer, Integer>>[] termFreqs,
+                TreeMap<String, TreeMap<Integer, Integer>>[] occurrences) {
+            this.documents = documents;
+            this.termFreqs = termFreqs;
+            this.occurrences = occurrences;
+        }
+
+        // Fold a shard covering later records into this one
+        void Merge(IndexShard shard) {
+            this.documents.Merge(shard.documents);
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                MergeTermFreq(this.termFreqs[field], shard.termFreqs[field]);
+                MergeTermFreq(this.occurrences[field], shard.occurrences[field]);
+            }
+        }
+
+        boolean IsEmpty() {
+            boolean empty = this.documents.IsEmpty();
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                empty &= this.termFreqs[field].isEmpty();
+            }
+            return empty;
+        }
+
+        private static void MergeTermFreq(TreeMap<String, TreeMap<Integer, Integer>> termFreq,
+                TreeMap<String, TreeMap<Integer, Integer>> shardTermFreq) {
+            for (Map.Entry<String, TreeMap<Integer, Integer>> term : shardTermFreq.entrySet()) {
+                TreeMap<Integer, Integer> termDocFreq = termFreq.get(term.getKey());
+                if (termDocFreq == null) {
+                    // The shard is thrown away after merging, so take its map as is
+                    termFreq.put(term.getKey(), term.getValue());
+                } else {
+                    for (Map.Entry<Integer, Integer> doc : term.getValue().entrySet()) {
+                        termDocFreq.merge(doc.getKey(), doc.getValue(), Integer::sum);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     *
+     * Calculate and store TF-IDF weights for each term in each
+     * document for every field, which FreezeIndex then adds up
+     * into the document norms
+     * 
+     */
+    void CalcTFXIDF() {
+        CalcTFXIDF(Runtime.getRuntime().availableProcessors());
+    }
+
+    /*
+     * Same as above on numThreads threads. Every field is weighted the same
+     * way, split by term ranges across a ForkJoin pool; see TermWeights.
+     */
+    void CalcTFXIDF(int numThreads) {
+        long start = Metrics.Enabled() ? System.nanoTime() : 0;
+        int collectionSize = this.documents.Size();
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            this.fieldWeights = TermWeights.Compute(collectionSize, pool, this.termFieldFreqs);
+        } finally {
+            pool.shutdown();
+        }
+
+        if (start != 0) {
+            Metrics.Get().RecordPhase(Metrics.PHASE_CALC_TFXIDF, System.nanoTime() - start);
+        }
+    }
+
+    /*
+     *
+     * Freeze the documents and term frequency maps into the compact
+     * InvertedIndex used for scoring, then release the maps
+     *
+     */
+    void FreezeIndex() {
+        long start = Metrics.Enabled() ? System.nanoTime() : 0;
+        this.index = InvertedIndex.Build(this.documents, this.termFieldFreqs, this.termFieldOccurrences,
+                this.fieldWeights);
+        this.searcher = new Searcher(this.index, this.analyzer);
+
+        this.documents = new DocumentStore.Builder(true);
+        this.termFieldFreqs = InvertedIndex.NewTermFreqs();
+        this.termFieldOccurrences = InvertedIndex.NewTermFreqs();
+        this.fieldWeights = null;
+
+        if (start != 0) {
+            Metrics.Get().RecordPhase(Metrics.PHASE_FREEZE_INDEX, System.nanoTime() - start);
+            Metrics.Get().SetDictionaryTerms(this.index.NumTerms());
+        }
+    }
+
+    /*
+     * Prints how well the stem cache is doing, for sizing STEM_CACHE_SIZE
+     */
+    void PrintStemCacheStats() {
+        StemCache cache = this.stemCache;
+        System.out.format("Stem cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, capacity %d\n\n",
+                cache.Hits(), cache.Misses(), 100 * cache.HitRate(), cache.Evictions(), cache.Capacity());
+    }
+
+    // How well each tier of the query cache is doing, if there is one
+    void PrintQueryCacheStats() {
+        QueryCache cache = this.queryCache;
+        if (cache == null) {
+            return;
+        }
+        PrintQueryCacheTier("Query cache, field scores", cache.FieldScoresTier());
+        PrintQueryCacheTier("Query cache, results", cache.ResultsTier());
+        System.out.println();
+    }
+
+    private static void PrintQueryCacheTier(String name, QueryCache.Tier<?> tier) {
+        System.out.format("%s: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations, "
+                + "%d entries of %d KB\n", name, tier.Hits(), tier.Misses(), 100 * tier.HitRate(), tier.Evictions(),
+                tier.Invalidations(), tier.Size(), tier.Bytes() / 1024);
+    }
+
+    // Indexing and search metrics of the process, when recording them; see Metrics
+    static void PrintMetrics() {
+        if (Metrics.Enabled()) {
+            System.out.println(Metrics.Get().Dump());
+        }
+    }
+
+    // Postings of query terms the searches so far have scored and skipped
+    void PrintPruningStats() {
+        Searcher searcher = this.searcher;
+        long total = searcher.PostingsTotal();
+        System.out.format("Postings: %d scored, %d skipped (%.1f%% of %d)\n\n", searcher.PostingsScored(),
+                searcher.PostingsSkipped(), total == 0 ? 0 : 100.0 * searcher.PostingsSkipped() / total, total);
+    }
+
+    /*
+     * An index that takes added, updated and deleted documents from here on,
+     * starting from the frozen index if there is one
+     */
+    SegmentedIndex NewSegmentedIndex() {
+        if (this.index == null) {
+            return new SegmentedIndex(this, this.analyzer);
+        }
+        return new SegmentedIndex(this, this.analyzer, this.index);
+    }
+
+    /*
+     * Write the frozen index to a segment file
+     */
+    void SaveIndex(String indexPath) throws IOException {
+        this.index.Write(indexPath);
+    }
+
+    /*
+     * Use the index in a segment file written by SaveIndex instead of
+     * building one from the corpus. The file is mapped, not read in, and
+     * only its header is checked unless -Dvsm.verify=true asks for the
+     * checksum of the whole file as well.
+     */
+    void LoadIndex(String indexPath) throws IOException {
+        LoadIndex(indexPath, Boolean.getBoolean("vsm.verify"));
+    }
+
+    // Same as above, reading the whole file to check its checksum if verify is set
+    void LoadIndex(String indexPath, boolean verify) throws IOException {
+        long start = Metrics.Enabled() ? System.nanoTime() : 0;
+        InvertedIndex segment = InvertedIndex.Open(indexPath);
+        if (verify && !segment.Verify()) {
+            throw new IOException("checksum mismatch, the index file is corrupt");
+        }
+        this.index = segment;
+        this.searcher = new Searcher(segment, this.analyzer);
+
+        if (start != 0) {
+            Metrics.Get().RecordPhase(Metrics.PHASE_LOAD_INDEX, System.nanoTime() - start);
+            Metrics.Get().SetDictionaryTerms(segment.NumTerms());
+        }
+    }
+
+    /*
+     *
+     * Calculate and store Cosine Similarity Scores for each
+     * document for both title and abstract then calculate final
+     * Cosine Similarity Score for each document.
+     *
+     */
+
+    void CalcCSS(String query, float boost_a, float boost_b, int k) {
+        CalcCSS(query, new float[] { boost_a, boost_b }, k);
+    }
+
+    /*
+     * Same as above with a boost per field, in InvertedIndex field order
+     * (title, abstract, authors, bibliography); missing fields weigh 0
+     */
+    void CalcCSS(String query, float[] boosts, int k) {
+        QueryCache cache = this.queryCache;
+        // The query cache keeps cosine field scores only
+        if (cache != null && this.similarity.Cosine() >= 0) {
+            this.lastResults = cache.Search(this.searcher, query, boosts, k, this.similarity.Cosine());
+        } else {
+            this.lastResults = this.searcher.Search(query, boosts, k, this.similarity, this.pruning);
+        }
+    }
+
+    /*
+     * Same as CalcCSS for an ad-hoc query in the syntax of Query.Parse:
+     * free text, +required and -excluded words, and title:, abstract:,
+     * authors: or bibliography: to look for a word in that field only
+     */
+    void CalcQuery(String query, float[] boosts, int k) {
+        this.lastResults = this.searcher.Search(Query.Parse(query), boosts, k, this.similarity, this.pruning);
+    }
+
+    // Score with Searcher.COSINE_QUERY_TERMS or COSINE_FULL
+    void SetCosine(int cosine) {
+        this.similarity = Similarity.Of(cosine);
+    }
+
+    // Searcher.COSINE_QUERY_TERMS or COSINE_FULL, -1 when scoring with BM25 or pivoted normalization
+    int GetCosine() {
+        return this.similarity.Cosine();
+    }
+
+    // Score CalcCSS and CalcQuery with any ranking function, e.g. Similarity.BM25()
+    void SetSimilarity(Similarity similarity) {
+        this.similarity = similarity;
+    }
+
+    Similarity GetSimilarity() {
+        return this.similarity;
+    }
+
+    void SetPruning(boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    /*
+     * Serve CalcCSS and Search from a query cache, or from none with null.
+     * Off by default, so timings measure the search itself.
+     */
+    void SetQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    QueryCache GetQueryCache() {
+        return this.queryCache;
+    }
+
+    /*
+     * Score a query against the frozen index and return its top k results.
+     * Safe to call from many threads at once, see Searcher.
+     */
+    SearchResult Search(String query, float[] boosts, int k) {
+        QueryCache cache = this.queryCache;
+        if (cache != null) {
+            return cache.Search(this.searcher, query, boosts, k, Searcher.COSINE_QUERY_TERMS);
+        }
+        return this.searcher.Search(query, boosts, k);
+    }
+
+    // Same as above for an ad-hoc query, see CalcQuery
+    SearchResult SearchQuery(String query, float[] boosts, int k) {
+        return this.searcher.Search(Query.Parse(query), boosts, k);
+    }
+
+    /*
+     * Top k results of many queries at once, in order, scored in blocks on
+     * numThreads threads; see BatchSearcher. The same results as calling
+     * Search on each query, under the similarity set with SetSimilarity.
+     */
+    SearchResult[] SearchBatch(List<String> queries, float[] boosts, int k, int numThreads) {
+        return new BatchSearcher(this.searcher, boosts, k, this.similarity).Search(queries, numThreads);
+    }
+
+    // Searcher over the current index, for callers that serve queries concurrently
+    Searcher GetSearcher() {
+        return this.searcher;
+    }
+
+    /*
+     * Prints out top k results
+     */
+    void DisplayTopKDocs(int k, String queryID) {
+        System.out.println("\nYour top " + k + " results for query " + queryID + ":\n");
+
+        SearchResult results = this.lastResults;
+        int count = Math.min(k, results.Size());
+        for (int rank = 1; rank <= count; rank++) {
+            int DocID = results.DocID(rank - 1);
+            System.out.println("Title: " + this.searcher.Title(results.Doc(rank - 1)));
+            System.out.format("%-4s \t %5s \t %23s\n", "Rank", "DocID", "Cosine Similarity Score");
+            System.out.format("%-4d \t %-5s \t %-23f\n", rank, DocID, results.Score(rank - 1));
+            System.out.println();
+        }
+    }
+
+    void BuildQueryList(String queryPath) {
+        long start = Metrics.Enabled() ? System.nanoTime() : 0;
+
+        // The words of the current query's .W text, each after a space
+        StringBuilder query = new StringBuilder();
+        Analyzer.Tokenizer wordTokenizer = new Analyzer.Tokenizer(
+                (word, length) -> query.append(' ').append(word, 0, length));
+
+        try {
+            // Chunks are whole records, so each query is read within one
+            CorpusReader.ReadChunks(queryPath, Integer.MAX_VALUE, (bytes, from, to) -> {
+                String queryID = null;
+                int section = SECTION_NONE;
+                for (int lineStart = from; lineStart < to;) {
+                    int lineEnd = CorpusReader.LineEnd(bytes, lineStart, to);
+                    int marker = CorpusReader.SectionAt(bytes, lineStart, lineEnd);
+                    if (marker == SECTION_DOCID) {
+                        if (queryID != null) {
+                            this.queryList.put(queryID, query.toString().trim());
+                        }
+                        queryID = CorpusReader.IDText(bytes, lineStart, lineEnd);
+                        query.setLength(0);
+                    }
+                    if (marker != SECTION_NONE) {
+                        section = marker;
+                    } else if (section == SECTION_ABSTRACT) {
+                        wordTokenizer.Analyze(bytes, lineStart, lineEnd);
+                    }
+                    lineStart = lineEnd + 1;
+                }
+                if (queryID != null) {
+                    this.queryList.put(queryID, query.toString().trim());
+                }
+            });
+
+        } catch (IOException ex) {
+            System.err.println("File " + queryPath + " not found. Program terminated.\n");
+            System.exit(1);
+        }
+
+        if (start != 0) {
+            Metrics.Get().RecordPhase(Metrics.PHASE_BUILD_QUERY_LIST, System.nanoTime() - start);
+        }
+    }
+
+    String GetQuery(String ID) {
+        return this.queryList.get(ID);
+    }
+
+    // Query IDs in the order they appear in the query file
+    Set<String> GetQueryIDs() {
+        return this.queryList.keySet();
+    }
+
+    int NumDocs() {
+        return this.index.NumDocs();
+    }
+
+    // Results of the last CalcCSS call, best first
+    int NumResults() {
+        return this.lastResults.Size();
+    }
+
+    int ResultDocID(int rank) {
+        return this.lastResults.DocID(rank);
+    }
+
+    String GetTitle(int ID) {
+        int doc = this.index.Doc(ID);
+        return doc < 0 ? null : this.index.Title(doc);
+    }
+
+    /*
+     *
+     * HELPER METHODS
+     *
+     */
+
+    static double TFXIDF(int raw_tf, int collectionSize, int termDocFreq) {
+        return TF(raw_tf) * IDF(collectionSize, termDocFreq);
+    }
+
+    // 1 + log10(Raw TF), looked up for the common small counts
+    static double TF(int raw_tf) {
+        if (raw_tf < TF_WEIGHTS.length) {
+            return TF_WEIGHTS[raw_tf];
+        }
+        return 1 + Math.log10(raw_tf);
+    }
+
+    static double IDF(int collectionSize, int termDocFreq) {
+        return Math.log10(collectionSize / termDocFreq);
+    }
+
+    double ProdSumTFXIDF(ArrayList<Double> vector_a, ArrayList<Double> vector_b) {
+        double sum = 0;
+        Iterator<Double> iter_a = vector_a.iterator();
+        Iterator<Double> iter_b = vector_b.iterator();
+
+        while (iter_a.hasNext() && iter_b.hasNext()) {
+            sum += iter_a.next() * iter_b.next();
+        }
+
+        return sum;
+    }
+
+    double SumSquaredTFXIDF(ArrayList<Double> vector) {
+        double sum = 0;
+
+        for (double value : vector) {
+            sum += value * value;
+        }
+
+        return sum;
+    }
+
+    double NormalizeVector(ArrayList<Double> vector) {
+        return Math.sqrt(SumSquaredTFXIDF(vector));
+    }
+
+    static double DeltaNanoToSec(long a, long b) {
+        return ((double) (a - b) / 1_000_000_000);
+    }
+
+    static boolean ValidateYN(String yn) {
+        return yn.compareTo("n") == 0 || yn.compareTo("y") == 0;
+    }
+
+    static boolean ValidateQueryID(String queryID) {
+        Pattern three_digit = Pattern.compile("\\d{3}");
+        Matcher matcher = three_digit.matcher(queryID);
+        return matcher.find() && queryID.length() == 3;
+    }
+
+    // Boosts from ParseBoosts that are none of them negative and not all 0
+    static boolean ValidateBoosts(float[] boosts) {
+        if (boosts == null) {
+            return false;
+        }
+        boolean any = false;
+        for (float boost : boosts) {
+            if (boost < 0) {
+                return false;
+            }
+            any |= boost > 0;
+        }
+        return any;
+    }
+
+    /*
+     *
+     * MAIN METHOD
+     *
+     */
+    public static void main(String[] args) {
+        int error = 0;
+
+        // Modes that work with an index file instead of building in memory
+        if (args.length > 0 && args[0].compareTo("index") == 0) {
+            IndexMain(args);
+            return;
+        } else if (args.length > 0 && args[0].compareTo("stream") == 0) {
+            StreamMain(args);
+            return;
+        } else if (args.length > 0 && args[0].compareTo("serve") == 0) {
+            ServeMain(args);
+            return;
+        } else if (args.length > 0 && args[0].compareTo("eval") == 0) {
+            EvalMain(args);
+            return;
+        } else if (args.length > 0 && args[0].compareTo("batch") == 0) {
+            BatchMain(args);
+            return;
+        }
+
+        /*
+         * Did the user provide correct number of command line arguments?
+         * If not, print message and exit
+         */
+
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("\nNumber of command line arguments must be 2 or 3");
+            System.err.println("You have given " + args.length + " command line arguments");
+            System.err.println("Incorrect usage. Program terminated");
+            System.err.println(
+                    "Correct usage: java vsmir.VectorSpaceModelIR <cran.all.1400-filepath> <cran.qry-filepath> [index-threads]");
+            System.exit(1);
+        }
+
+        File corpus = new File(args[0]);
+        File query = new File(args[1]);
+
+        // Number of threads for building the index, defaults to one per core
+        int indexThreads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 3) {
+            try {
+                indexThreads = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                indexThreads = 0;
+            }
+            if (indexThreads < 1) {
+                System.err.println("Error: [index-threads] must be a whole number greater than 0.");
+                error = 1;
+            }
+        }
+
+        if (!(corpus.exists() && corpus.isFile() && corpus.getName().compareTo("cran.all.1400") == 0)) {
+            System.err.println(
+                    "Error: <cran.all.1400-filepath> is not a filepath to the cran.all.1400 corpus file or the file does not exists.");
+            error = 1;
+        }
+        if (!(query.exists() && query.isFile() && query.getName().compareTo("cran.qry") == 0)) {
+            System.err.println(
+                    "Error: <cran.qry-filepath> is not a filepath to the cran.qry file or the file does not exists.");
+            error = 1;
+        }
+        if (error == 1) {
+            System.exit(1);
+        }
+
+        System.out.println("\nPlease wait, now processing the cran.all.1400 corpus and cran.qry file...\n");
+        long startProcessTime = System.nanoTime();
+        VectorSpaceModelIR data = new VectorSpaceModelIR();
+
+        System.out.println("Now building collection title and abstract indexes...");
+        data.BuildData(corpus.getPath(), indexThreads);
+        long checkpoint_BuildData = System.nanoTime();
+        System.out.println("Collection title and abstract indexes built in "
+                + DeltaNanoToSec(checkpoint_BuildData, startProcessTime) + " seconds\n");
+        data.PrintStemCacheStats();
+
+        System.out.println("Now calculating TF-IDF of terms from the title and abstract indexes...");
+        data.CalcTFXIDF(indexThreads);
+        long checkpoint_CalcTFXIDF = System.nanoTime();
+        System.out.println("Collection title and abstract term TF-IDF calculations finished in "
+                + DeltaNanoToSec(checkpoint_CalcTFXIDF, checkpoint_BuildData) + " seconds\n");
+
+        System.out.println("Now freezing the title and abstract indexes...");
+        data.FreezeIndex();
+        long checkpoint_FreezeIndex = System.nanoTime();
+        System.out.println("Title and abstract indexes frozen in "
+                + DeltaNanoToSec(checkpoint_FreezeIndex, checkpoint_CalcTFXIDF) + " seconds\n");
+
+        System.out.println("Now building Query ID index from cran.qry...");
+        data.BuildQueryList(query.getPath());
+        long checkpoint_BuildQueryList = System.nanoTime();
+        System.out.println("Query ID index built in "
+                + DeltaNanoToSec(checkpoint_BuildQueryList, checkpoint_FreezeIndex) + " seconds\n");
+
+        SearchLoop(data);
+    } // main()
+
+    /*
+     * Ask for queries, boosts and the number of results until the user
+     * is done searching
+     */
+    static void SearchLoop(VectorSpaceModelIR data) {
+        System.out.println("Now you can start searching the corpus!\n");
+
+        // The same query is often asked again with other boosts
+        if (data.GetQueryCache() == null) {
+            data.SetQueryCache(new QueryCache(QUERY_CACHE_SIZE, QUERY_CACHE_BYTES));
+        }
+
+        Scanner input = new Scanner(System.in);
+        int count = 1;
+        String response, queryID;
+        boolean adHoc;
+        float[] boosts;
+        int numResultsToDisplay = 0;
+
+        while (true) {
+
+            // Asking to search the corpus or search corpus again
+            do {
+                if (count == 1) {
+                    System.out.println("Would you like to search the corpus? (Y/N)");
+                } else {
+                    System.out.println("Would you like to continue searching the corpus? (Y/N)");
+                }
+
+                System.out.print("Input Y/N: ");
+                response = input.nextLine().toLowerCase().trim();
+                System.out.println();
+
+                switch (response) {
+                    case "n":
+                        data.PrintQueryCacheStats();
+                        PrintMetrics();
+                        System.out.println("Program closed.\n");
+                        input.close();
+                        System.exit(0);
+                        break;
+                    case "y":
+                        break;
+                    default:
+                        System.out.println("Invalid input. Please try again.\n");
+                        break;
+                }
+            } while (!ValidateYN(response));
+
+            // Asking for the query ID, or a query of the user's own
+            do {
+                System.out.println("Input the 3-digit query ID from cran.qry, or type a query of your own.");
+                System.out.println("NOTE: In your own query +word requires a word, -word excludes it, and title:word");
+                System.out.println("      or abstract:word only looks for it in that field.");
+                System.out.print("Input 3-digit query ID (###) or query: ");
+                queryID = input.nextLine().trim();
+                System.out.println();
+
+                adHoc = !queryID.isEmpty() && !ValidateQueryID(queryID);
+                if (queryID.isEmpty()) {
+                    System.out.println("Invalid input, try again.\n");
+                } else if (!adHoc && data.GetQuery(queryID) == null) {
+                    System.out.println("Query ID does not exist, try again.\n");
+                    queryID = "";
+                }
+            } while (queryID.isEmpty());
+
+            // Asking for boost values, title and abstract or one per field
+            do {
+                System.out.println("Input a title boost from 0 to 1 (abstract gets the rest) or a boost per field.");
+                System.out.println("NOTE: Boosts per field are comma separated, in the order title, abstract, authors");
+                System.out.println("      and bibliography, e.g. 0.4,0.4,0.1,0.1; fields left out are not scored.");
+                System.out.print("Input boosts: ");
+                boosts = ParseBoosts(input.nextLine().trim());
+                System.out.println();
+
+                if (!ValidateBoosts(boosts)) {
+                    System.out.println("Invalid input. Boosts must not be negative or all 0, try again.\n");
+                    boosts = null;
+                }
+            } while (boosts == null);
+
+            // Asking for number of documents to display on command prompt
+            do {
+                System.out.println("Input the number of top results you wish to see.");
+                System.out.println(
+                        "NOTE: 1400 is the max, but you may not be able to see the top results in the console.");
+
+                try {
+                    System.out.print("Input # of documents to display: ");
+                    numResultsToDisplay = Integer.parseInt(input.nextLine());
+
+                } catch (NumberFormatException e) {
+                    System.out.println("\nInvalid input, try again.\n");
+                    continue;
+                }
+
+                if (numResultsToDisplay <= 0) {
+                    System.out.println("\nValue cannot be <= 0, try again.\n");
+                    continue;
+                } else if (numResultsToDisplay > 1400) {
+                    System.out.println("\nValue cannot be > 1400, try again.\n");
+                    continue;
+                }
+
+            } while (numResultsToDisplay <= 0 || numResultsToDisplay > 1400);
+
+            System.out.println("\nNow calculating Cosine Similarity Scoring...");
+            long startCSS = System.nanoTime();
+            if (adHoc) {
+                data.CalcQuery(queryID, boosts, numResultsToDisplay);
+            } else {
+                data.CalcCSS(data.GetQuery(queryID), boosts, numResultsToDisplay);
+            }
+            long checkpointCalcCSS = System.nanoTime();
+            System.out.println("Cosine Similarity Scoring completed in "
+                    + DeltaNanoToSec(checkpointCalcCSS, startCSS) + " seconds\n");
+
+            data.DisplayTopKDocs(numResultsToDisplay, adHoc ? "\"" + queryID + "\"" : queryID);
+            count++;
+        }
+    }
+
+    /*
+     * java vsmir.VectorSpaceModelIR index <cran.all.1400-filepath> <index-filepath> [index-threads]
+     *
+     * Build the index once and write it to a segment file for serve mode.
+     */
+    static void IndexMain(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("\nNumber of command line arguments for index mode must be 3 or 4");
+            System.err.println("You have given " + args.length + " command line arguments");
+            System.err.println("Incorrect usage. Program terminated");
+            System.err.println(
+                    "Correct usage: java vsmir.VectorSpaceModelIR index <cran.all.1400-filepath> <index-filepath> [index-threads]");
+            System.exit(1);
+        }
+
+        File corpus = new File(args[1]);
+        if (!(corpus.exists() && corpus.isFile())) {
+            System.err.println("Error: <cran.all.1400-filepath> is not a filepath to a corpus file or the file does not exists.");
+            System.exit(1);
+        }
+
+        int indexThreads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 4) {
+            try {
+                indexThreads = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+                indexThreads = 0;
+            }
+            if (indexThreads < 1) {
+                System.err.println("Error: [index-threads] must be a whole number greater than 0.");
+                System.exit(1);
+            }
+        }
+
+        long startProcessTime = System.nanoTime();
+        VectorSpaceModelIR data = new VectorSpaceModelIR();
+
+        System.out.println("\nNow building collection title and abstract indexes...");
+        data.BuildData(corpus.getPath(), indexThreads);
+        data.CalcTFXIDF(indexThreads);
+        data.FreezeIndex();
+        long checkpoint_BuildIndex = System.nanoTime();
+        System.out.println("Collection title and abstract indexes built in "
+                + DeltaNanoToSec(checkpoint_BuildIndex, startProcessTime) + " seconds\n");
+        data.PrintStemCacheStats();
+
+        System.out.println("Now writing the index to " + args[2] + "...");
+        try {
+            data.SaveIndex(args[2]);
+        } catch (IOException ex) {
+            System.err.println("Could not write index file " + args[2] + ": " + ex.getMessage()
+                    + ". Program terminated.\n");
+            System.exit(1);
+        }
+        long checkpoint_SaveIndex = System.nanoTime();
+        System.out.println("Index written in " + DeltaNanoToSec(checkpoint_SaveIndex, checkpoint_BuildIndex)
+                + " seconds\n");
+        PrintMetrics();
+    }
+
+    /*
+     * java vsmir.VectorSpaceModelIR stream <corpus-filepath|-> <index-filepath> [memory-budget-MB]
+     *
+     * Same as index mode for corpora larger than the heap: reads the corpus,
+     * or standard input for -, in a single pass, spilling sorted runs to
+     * temp files whenever the memory budget is reached, and merges them
+     * into the index file. The heap needs some room above the budget.
+     */
+    static void StreamMain(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("\nNumber of command line arguments for stream mode must be 3 or 4");
+            System.err.println("You have given " + args.length + " command line arguments");
+            System.err.println("Incorrect usage. Program terminated");
+            System.err.println(
+                    "Correct usage: java vsmir.VectorSpaceModelIR stream <corpus-filepath|-> <index-filepath> [memory-budget-MB]");
+            System.exit(1);
+        }
+
+        boolean fromStdin = args[1].compareTo("-") == 0;
+        File corpus = new File(args[1]);
+        if (!fromStdin && !(corpus.exists() && corpus.isFile())) {
+            System.err.println("Error: <corpus-filepath> is not a filepath to a corpus file or the file does not exists.");
+            System.exit(1);
+        }
+
+        long memoryBudget = ExternalIndexer.DEFAULT_MEMORY_BUDGET;
+        if (args.length == 4) {
+            try {
+                memoryBudget = Long.parseLong(args[3]) << 20;
+            } catch (NumberFormatException e) {
+                memoryBudget = 0;
+            }
+            if (memoryBudget < 1) {
+                System.err.println("Error: [memory-budget-MB] must be a whole number greater than 0.");
+                System.exit(1);
+            }
+        }
+
+        long startProcessTime = System.nanoTime();
+        VectorSpaceModelIR data = new VectorSpaceModelIR();
+        ExternalIndexer indexer = new ExternalIndexer(data, memoryBudget,
+                Paths.get(System.getProperty("java.io.tmpdir")));
+
+        System.out.println("\nNow streaming " + (fromStdin ? "standard input" : corpus.getName()) + " into "
+                + args[2] + " with a " + (memoryBudget >> 20) + " MB memory budget...");
+        try (BufferedReader input = new BufferedReader(
+                fromStdin ? new InputStreamReader(System.in) : new FileReader(corpus))) {
+            indexer.Index(input, args[2]);
+        } catch (IOException ex) {
+            System.err.println("Could not build index file " + args[2] + ": " + ex.getMessage()
+                    + ". Program terminated.\n");
+            System.exit(1);
+        }
+        long checkpoint_Index = System.nanoTime();
+        System.out.println(indexer.NumRecords() + " records indexed through " + indexer.NumRuns()
+                + " sorted runs in " + DeltaNanoToSec(checkpoint_Index, startProcessTime) + " seconds\n");
+        data.PrintStemCacheStats();
+        PrintMetrics();
+    }
+
+    /*
+     * java vsmir.VectorSpaceModelIR serve <index-filepath> <cran.qry-filepath>
+     *
+     * Search an index written by index mode without reading the corpus.
+     */
+    static void ServeMain(String[] args) {
+        if (args.length != 3) {
+            System.err.println("\nNumber of command line arguments for serve mode must be 3");
+            System.err.println("You have given " + args.length + " command line arguments");
+            System.err.println("Incorrect usage. Program terminated");
+            System.err.println("Correct usage: java vsmir.VectorSpaceModelIR serve <index-filepath> <cran.qry-filepath>");
+            System.exit(1);
+        }
+
+        File query = new File(args[2]);
+        if (!(query.exists() && query.isFile())) {
+            System.err.println("Error: <cran.qry-filepath> is not a filepath to a query file or the file does not exists.");
+            System.exit(1);
+        }
+
+        long startProcessTime = System.nanoTime();
+        VectorSpaceModelIR data = new VectorSpaceModelIR();
+
+        System.out.println("\nNow opening index " + args[1] + "...");
+        try {
+            data.LoadIndex(args[1]);
+        } catch (IOException ex) {
+            System.err.println("Could not open index file " + args[1] + ": " + ex.getMessage()
+                    + ". Program terminated.\n");
+            System.exit(1);
+        }
+        long checkpoint_LoadIndex = System.nanoTime();
+        System.out.println("Index opened in " + DeltaNanoToSec(checkpoint_LoadIndex, startProcessTime)
+                + " seconds\n");
+
+        System.out.println("Now building Query ID index from " + query.getName() + "...");
+        data.BuildQueryList(query.getPath());
+        long checkpoint_BuildQueryList = System.nanoTime();
+        System.out.println("Query ID index built in "
+                + DeltaNanoToSec(checkpoint_BuildQueryList, checkpoint_LoadIndex) + " seconds\n");
+
+        SearchLoop(data);
+    }
+
+    /*
+     * java vsmir.VectorSpaceModelIR batch <index-filepath> <query-filepath> <run-filepath> [title-boost] [k] [threads] [query|full|bm25|pivoted]
+     *
+     * Score every query of a file against an index file and write the top k
+     * of each to a TREC run file. Queries are numbered from 1 in file order,
+     * as cranqrel numbers them. The abstract boost is 1 - title boost;
+     * title-boost can instead be a comma separated boost per field, e.g.
+     * 0.4,0.4,0.1,0.1 for title, abstract, authors and bibliography.
+     */
+    static void BatchMain(String[] args) {
+        if (args.length < 4 || args.length > 8) {
+            System.err.println("\nNumber of command line arguments for batch mode must be 4 to 8");
+            System.err.println("You have given " + args.length + " command line arguments");
+            System.err.println("Incorrect usage. Program terminated");
+            System.err.println("Correct usage: java vsmir.VectorSpaceModelIR batch <index-filepath> <query-filepath> "
+                    + "<run-filepath> [title-boost] [k] [threads] [query|full|bm25|pivoted]");
+            System.exit(1);
+        }
+
+        float[] boosts = new float[] { 0.5f, 0.5f };
+        if (args.length >= 5) {
+            boosts = ParseBoosts(args[4]);
+            if (boosts == null) {
+                System.err.println("Error: [title-boost] must be from 0 to 1, or 1 to " + InvertedIndex.NUM_FIELDS
+                        + " comma separated field boosts.");
+                System.exit(1);
+            }
+        }
+
+        int k = 1000;
+        if (args.length >= 6) {
+            try {
+                k = Integer.parseInt(args[5]);
+            } catch (NumberFormatException e) {
+                k = 0;
+            }
+            if (k < 1) {
+                System.err.println("Error: [k] must be a whole number greater than 0.");
+                System.exit(1);
+            }
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length >= 7) {
+            try {
+                threads = Integer.parseInt(args[6]);
+            } catch (NumberFormatException e) {
+                threads = 0;
+            }
+            if (threads < 1) {
+                System.err.println("Error: [threads] must be a whole number greater than 0.");
+                System.exit(1);
+            }
+        }
+
+        Similarity similarity = Similarity.COSINE_QUERY_TERMS;
+        if (args.length == 8) {
+            if (args[7].compareTo("full") == 0) {
+                similarity = Similarity.COSINE_FULL;
+            } else if (args[7].compareTo("bm25") == 0) {
+                similarity = Similarity.BM25();
+            } else if (args[7].compareTo("pivoted") == 0) {
+                similarity = Similarity.Pivoted();
+            } else if (args[7].compareTo("query") != 0) {
+                System.err.println("Error: [query|full|bm25|pivoted] must be query, full, bm25 or pivoted.");
+                System.exit(1);
+            }
+        }
+
+        long startProcessTime = System.nanoTime();
+        VectorSpaceModelIR data = new VectorSpaceModelIR();
+        ArrayList<String> queries = null;
+        try {
+            data.LoadIndex(args[1]);
+            queries = BatchSearcher.ReadQueries(args[2]);
+        } catch (IOException ex) {
+            System.err.println("Could not read " + args[1] + " or " + args[2] + ": " + ex.getMessage()
+                    + ". Program terminated.\n");
+            System.exit(1);
+        }
+        long checkpoint_Load = System.nanoTime();
+        System.out.println("\nIndex opened and " + queries.size() + " queries read in "
+                + DeltaNanoToSec(checkpoint_Load, startProcessTime) + " seconds");
+
+        BatchSearcher batch = new BatchSearcher(data.GetSearcher(), boosts, k, similarity);
+        try (PrintWriter run = new PrintWriter(new BufferedWriter(new FileWriter(args[3])))) {
+            batch.Run(queries, threads,
+                    (queryNumber, result) -> BatchSearcher.WriteTrec(run, queryNumber, result, "vsmir"));
+            if (run.checkError()) {
+                throw new IOException("write failed");
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not write run file " + args[3] + ": " + ex.getMessage()
+                    + ". Program terminated.\n");
+            System.exit(1);
+        }
+        long checkpoint_Batch = System.nanoTime();
+        double seconds = DeltaNanoToSec(checkpoint_Batch, checkpoint_Load);
+        System.out.format("%d queries scored and written to %s in %.3f seconds (%.1f queries/sec, %d per block)\n\n",
+                queries.size(), args[3], seconds, queries.size() / seconds, BatchSearcher.BLOCK_QUERIES);
+        PrintMetrics();
+    }
+
+    /*
+     * Boosts from the command line: a title boost from 0 to 1, the abstract
+     * getting the rest, or a comma separated boost per field in field order.
+     * Returns null if the text is neither.
+     */
+    static float[] ParseBoosts(String text) {
+        String[] parts = text.split(",");
+        if (parts.length > InvertedIndex.NUM_FIELDS) {
+            return null;
+        }
+        float[] boosts = new float[parts.length];
+        try {
+            for (int field = 0; field < parts.length; field++) {
+                boosts[field] = Float.parseFloat(parts[field].trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (parts.length > 1) {
+            return boosts;
+        }
+        if (boosts[0] < 0 || boosts[0] > 1) {
+            return null;
+        }
+        return new float[] { boosts[0], 1 - boosts[0] };
+    }
+
+    /*
+     * java vsmir.VectorSpaceModelIR eval <cran.all.1400-filepath> <cran.qry-filepath> <cranqrel-filepath> [title-boost] [query|full|full-exhaustive]
+     *
+     * Run every query and report relevance against cranqrel along with
+     * throughput and latency. The abstract boost is 1 - title boost.
+     */
+    static void EvalMain(String[] args) {
+        if (args.length < 4 || args.length > 6) {
+            System.err.println("\nNumber of command line arguments for eval mode must be 4 to 6");
+            System.err.println("You have given " + args.length + " command line arguments");
+            System.err.println("Incorrect usage. Program terminated");
+            System.err.println("Correct usage: java vsmir.VectorSpaceModelIR eval <cran.all.1400-filepath> "
+                    + "<cran.qry-filepath> <cranqrel-filepath> [title-boost] "
+                    + "[query|full|full-exhaustive|bm25|pivoted]");
+            System.exit(1);
+        }
+
+        float boostTitle = 0.5f;
+        if (args.length >= 5) {
+            try {
+                boostTitle = Float.parseFloat(args[4]);
+            } catch (NumberFormatException e) {
+                boostTitle = -1;
+            }
+            if (boostTitle < 0 || boostTitle > 1) {
+                System.err.println("Error: [title-boost] must be from 0 to 1.");
+                System.exit(1);
+            }
+        }
+
+        /*
+         * Document norm over the query terms only (as always) or over the whole
+         * document, the latter pruned or, to compare, scoring every document;
+         * or BM25 or pivoted normalization instead of the cosine
+         */
+        Similarity similarity = Similarity.COSINE_QUERY_TERMS;
+        boolean pruning = true;
+        if (args.length == 6) {
+            if (args[5].compareTo("full") == 0) {
+                similarity = Similarity.COSINE_FULL;
+            } else if (args[5].compareTo("full-exhaustive") == 0) {
+                similarity = Similarity.COSINE_FULL;
+                pruning = false;
+            } else if (args[5].compareTo("bm25") == 0) {
+                similarity = Similarity.BM25();
+            } else if (args[5].compareTo("pivoted") == 0) {
+                similarity = Similarity.Pivoted();
+            } else if (args[5].compareTo("query") != 0) {
+                System.err.println("Error: [query|full|full-exhaustive|bm25|pivoted] must be query, full, "
+                        + "full-exhaustive, bm25 or pivoted.");
+                System.exit(1);
+            }
+        }
+
+        CranfieldEvaluation evaluation = null;
+        try {
+            evaluation = new CranfieldEvaluation(args[3]);
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("Could not read relevance judgements " + args[3] + ": " + ex.getMessage()
+                    + ". Program terminated.\n");
+            System.exit(1);
+        }
+
+        long startProcessTime = System.nanoTime();
+        VectorSpaceModelIR data = new VectorSpaceModelIR();
+        data.BuildData(args[1]);
+        data.CalcTFXIDF();
+        data.FreezeIndex();
+        data.BuildQueryList(args[2]);
+        data.SetSimilarity(similarity);
+        data.SetPruning(pruning);
+        System.out.println("\nIndex and query list built in "
+                + DeltaNanoToSec(System.nanoTime(), startProcessTime) + " seconds");
+        System.out.println("Vector kernels: " + VectorKernels.DEFAULT.Name());
+
+        evaluation.Run(data, boostTitle, 1 - boostTitle, EVAL_TIMED_ROUNDS);
+        data.PrintPruningStats();
+        PrintMetrics();
+    }
+} // class
@@ -0,0 +1,55 @@
+/*
+    Batch search, which walks each posting list once for a whole block of
+    queries, must give every query exactly what Searcher.Search gives it,
+    under every similarity.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+final class BatchSearchTest {
+    private static VectorSpaceModelIR model;
+    private static ArrayList<String> queries;
+
+    @BeforeAll
+    static void Build() {
+        model = Cranfield.Build(1);
+        queries = Cranfield.Queries();
+    }
+
+    @Test
+    void BatchMatchesSearch() {
+        AssertBatchMatchesSearch(model.GetSearcher());
+    }
+
+    @Test
+    void BatchMatchesSearchOverSegments() {
+        try (SegmentedIndex index = Cranfield.Segmented(model)) {
+            AssertBatchMatchesSearch(index.GetSearcher());
+        }
+    }
+
+    private static void AssertBatchMatchesSearch(Searcher searcher) {
+        for (Similarity similarity : new Similarity[] { Similarity.COSINE_QUERY_TERMS, Similarity.COSINE_FULL,
+                Similarity.BM25(), Similarity.Pivoted() }) {
+            for (float[] boosts : Cranfield.BOOSTS) {
+                for (int numThreads : new int[] { 1, 4 }) {
+                    SearchResult[] batch = new BatchSearcher(searcher, boosts, 20, similarity).Search(queries,
+                            numThreads);
+                    assertEquals(queries.size(), batch.length);
+                    for (int q = 0; q < queries.size(); q++) {
+                        Cranfield.AssertSameResults(searcher.Search(queries.get(q), boosts, 20, similarity),
+                                batch[q], similarity + ": " + queries.get(q));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+    Markers only open a section at the start of a line, on their own or
+    followed by white space: a .I or .T in the middle of a line, or
+    starting a word like .Inlet, is text of the section it is in.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class CorpusReaderTest {
+    private static final String CORPUS = "header with .I 9 in it\n"
+            + ".I 1\n.T\nflow past a .T-shaped duct\n.A\nsmith\n.B\njournal .I 7\n.W\nthe wing .I 3 section\n"
+            + ".Inlet flow\n.W2 text\n"
+            + ".I 2\n.T\nwing\n.A\njones\n.B\njournal\n.W\nheat\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void MarkersInsideTextAreText() throws IOException {
+        Path documents = this.dir.resolve("corpus.all");
+        Files.writeString(documents, CORPUS);
+
+        for (int numThreads : new int[] { 1, 2 }) {
+            VectorSpaceModelIR model = new VectorSpaceModelIR();
+            model.BuildData(documents.toString(), numThreads);
+            model.CalcTFXIDF();
+            model.FreezeIndex();
+            Searcher searcher = model.GetSearcher();
+
+            assertEquals(2, searcher.MaxDoc());
+            assertEquals(1, searcher.DocID(0));
+            assertEquals(2, searcher.DocID(1));
+            assertEquals("flow past a T shaped duct", searcher.Title(0));
+            String text = StandardCharsets.UTF_8.decode(searcher.Stored(0, InvertedIndex.ABSTRACT)).toString();
+            assertEquals("the wing .I 3 section\n.Inlet flow\n.W2 text", text);
+
+            // The words after the markers were indexed in the abstract of doc 1
+            for (String word : new String[] { "section", "inlet", "text" }) {
+                SearchResult result = searcher.Search(word, new float[] { 0f, 1f }, 10);
+                assertEquals(1, result.Size(), word);
+                assertEquals(1, result.DocID(0), word);
+            }
+        }
+    }
+
+    @Test
+    void ChunksStartAtRecords() throws IOException {
+        Path documents = this.dir.resolve("corpus.all");
+        Files.writeString(documents, CORPUS);
+
+        /*
+         * One record per chunk, the header before the first .I line skipped,
+         * whether a chunk would end anywhere or right at the .I in the abstract
+         */
+        int midLine = CORPUS.indexOf(".I 3") - CORPUS.indexOf(".I 1");
+        for (int chunkBytes : new int[] { 1, midLine }) {
+            ArrayList<String> chunks = new ArrayList<String>();
+            CorpusReader.ReadChunks(documents.toString(), chunkBytes, (bytes, from, to) -> {
+                byte[] chunk = new byte[to - from];
+                bytes.get(from, chunk);
+                chunks.add(new String(chunk, StandardCharsets.UTF_8));
+            });
+            assertEquals(2, chunks.size(), "chunks of " + chunkBytes + " bytes");
+            assertTrue(chunks.get(0).startsWith(".I 1\n") && chunks.get(0).endsWith(".W2 text\n"), chunks.get(0));
+            assertTrue(chunks.get(1).startsWith(".I 2\n"), chunks.get(1));
+        }
+    }
+
+    @Test
+    void QueryMarkersInsideTextAreText() throws IOException {
+        Path queries = this.dir.resolve("queries.qry");
+        Files.writeString(queries, ".I 001\n.W\nwhat about .I 5 in a query\n.Inlet\n.I 002\n.W\nsecond\n");
+
+        VectorSpaceModelIR model = new VectorSpaceModelIR();
+        model.BuildQueryList(queries.toString());
+        assertEquals(2, model.GetQueryIDs().size());
+        String query = model.GetQuery(model.GetQueryIDs().iterator().next());
+        assertEquals("what about I in a query Inlet", query);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+    The Cranfield collection at the top of the repository, which the
+    tests build their indexes from and take their queries from.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+
+final class Cranfield {
+    // Tests run from the core module directory
+    static final String DOCUMENTS = Paths.get("..", "cranfield-corpus", "cran.all.1400").toString();
+    static final String QUERIES = Paths.get("..", "cranfield-corpus", "cran.qry").toString();
+
+    // Boost mixes the tests score with: title and abstract alike, every field, one field on its own
+    static final float[][] BOOSTS = { { 0.5f, 0.5f }, { 0.4f, 0.4f, 0.1f, 0.1f }, { 0f, 0f, 1f } };
+
+    private Cranfield() {
+    }
+
+    // Read, weight and freeze the collection on numThreads threads
+    static VectorSpaceModelIR Build(int numThreads) {
+        VectorSpaceModelIR model = new VectorSpaceModelIR();
+        model.BuildData(DOCUMENTS, numThreads);
+        model.CalcTFXIDF(numThreads);
+        model.FreezeIndex();
+        return model;
+    }
+
+    // The text of every query in cran.qry
+    static ArrayList<String> Queries() {
+        VectorSpaceModelIR model = new VectorSpaceModelIR();
+        model.BuildQueryList(QUERIES);
+        ArrayList<String> queries = new ArrayList<String>();
+        for (String queryID : model.GetQueryIDs()) {
+            queries.add(model.GetQuery(queryID));
+        }
+        return queries;
+    }
+
+    /*
+     * The collection as a segmented index with 100 random documents deleted
+     * and three new ones added, each refreshed into a segment of its own
+     */
+    static SegmentedIndex Segmented(VectorSpaceModelIR model) {
+        SegmentedIndex index = model.NewSegmentedIndex();
+        InvertedIndex base = index.GetSearcher().Segment(0);
+        Random random = new Random(1400);
+        for (int i = 0; i < 100; i++) {
+            index.Delete(base.DocID(random.nextInt(base.NumDocs())));
+        }
+        for (int i = 0; i < 3; i++) {
+            index.Add(".I " + (100000 + i) + "\n.T\nflow over a wing " + i + "\n.A\nauthor\n.B\njournal\n.W\n"
+                    + "heat transfer in a supersonic boundary layer flow over a wing");
+            index.Refresh();
+        }
+        return index;
+    }
+
+    // Same documents in the same order with exactly the same scores
+    static void AssertSameResults(SearchResult expected, SearchResult actual, String query) {
+        assertEquals(expected.Size(), actual.Size(), query);
+        for (int rank = 0; rank < expected.Size(); rank++) {
+            assertEquals(expected.DocID(rank), actual.DocID(rank), query);
+            assertEquals(expected.Score(rank), actual.Score(rank), 0, query);
+        }
+    }
+}
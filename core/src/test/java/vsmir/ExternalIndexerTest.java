@@ -0,0 +1,49 @@
+/*
+    Streaming the collection through sorted runs on a tiny memory budget
+    must write the segment index mode writes, byte for byte, whether the
+    runs are merged at once or over several passes.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class ExternalIndexerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void StreamedSegmentIsTheBuiltOne() throws IOException {
+        Path built = this.dir.resolve("built.idx");
+        Cranfield.Build(1).SaveIndex(built.toString());
+
+        for (int mergeFanIn : new int[] { 2, 5, ExternalIndexer.MERGE_FAN_IN }) {
+            Path streamed = this.dir.resolve("streamed-" + mergeFanIn + ".idx");
+            // A budget this small ends a run after every batch of records
+            ExternalIndexer indexer = new ExternalIndexer(new VectorSpaceModelIR(), 1 << 10, mergeFanIn, this.dir);
+            try (BufferedReader input = Files.newBufferedReader(Paths.get(Cranfield.DOCUMENTS))) {
+                indexer.Index(input, streamed.toString());
+            }
+            assertTrue(indexer.NumRuns() > 5, "only " + indexer.NumRuns() + " runs");
+            assertEquals(-1L, Files.mismatch(built, streamed), "segment streamed with a fan-in of " + mergeFanIn
+                    + " differs from the built one");
+        }
+
+        // Runs and sections went with the work directory
+        try (Stream<Path> files = Files.list(this.dir)) {
+            assertEquals(4, files.count());
+        }
+    }
+}
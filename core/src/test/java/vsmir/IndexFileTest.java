@@ -0,0 +1,110 @@
+/*
+    An index saved to a segment file and loaded back must search like the
+    one it was saved from, and a file with a byte changed must not load
+    once its checksums are checked.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class IndexFileTest {
+    private static VectorSpaceModelIR model;
+    private static ArrayList<String> queries;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void Build() {
+        model = Cranfield.Build(1);
+        queries = Cranfield.Queries();
+    }
+
+    @Test
+    void LoadedIndexSearchesAlike() throws IOException {
+        Path saved = this.dir.resolve("cran.idx");
+        model.SaveIndex(saved.toString());
+        VectorSpaceModelIR loaded = new VectorSpaceModelIR();
+        loaded.LoadIndex(saved.toString(), true);
+
+        Searcher expected = model.GetSearcher();
+        Searcher actual = loaded.GetSearcher();
+        assertEquals(expected.MaxDoc(), actual.MaxDoc());
+        for (int doc = 0; doc < expected.MaxDoc(); doc++) {
+            assertEquals(expected.DocID(doc), actual.DocID(doc));
+            for (int field = 0; field < InvertedIndex.NUM_FIELDS; field++) {
+                assertEquals(expected.Stored(doc, field), actual.Stored(doc, field));
+            }
+        }
+        for (int cosine : new int[] { Searcher.COSINE_QUERY_TERMS, Searcher.COSINE_FULL }) {
+            for (float[] boosts : Cranfield.BOOSTS) {
+                for (String query : queries) {
+                    Cranfield.AssertSameResults(expected.Search(query, boosts, 20, cosine),
+                            actual.Search(query, boosts, 20, cosine), query);
+                }
+            }
+        }
+
+        // Saved again, the loaded index writes the same file
+        Path resaved = this.dir.resolve("cran-resaved.idx");
+        loaded.SaveIndex(resaved.toString());
+        assertEquals(-1L, Files.mismatch(saved, resaved));
+    }
+
+    @Test
+    void CorruptIndexFailsToLoad() throws IOException {
+        Path saved = this.dir.resolve("cran.idx");
+        model.SaveIndex(saved.toString());
+        byte[] bytes = Files.readAllBytes(saved);
+
+        // A byte of the stored text of the first document, deep inside the file
+        ByteBuffer title = model.GetSearcher().Stored(0, InvertedIndex.TITLE);
+        byte[] text = new byte[title.remaining()];
+        title.get(text);
+        int at = IndexOf(bytes, text);
+        assertTrue(at > 0, "title of the first document not found in the file");
+        bytes[at] ^= 1;
+        Path corrupt = this.dir.resolve("corrupt.idx");
+        Files.write(corrupt, bytes);
+
+        // Only the header is checked unless asked to verify
+        new VectorSpaceModelIR().LoadIndex(corrupt.toString(), false);
+        IOException ex = assertThrows(IOException.class,
+                () -> new VectorSpaceModelIR().LoadIndex(corrupt.toString(), true));
+        assertEquals("checksum mismatch, the index file is corrupt", ex.getMessage());
+
+        // A changed header fails to open at all
+        bytes[at] ^= 1;
+        bytes[8] ^= 1;
+        Files.write(corrupt, bytes);
+        ex = assertThrows(IOException.class, () -> new VectorSpaceModelIR().LoadIndex(corrupt.toString(), false));
+        assertTrue(ex.getMessage().endsWith("is corrupt: header checksum mismatch"), ex.getMessage());
+    }
+
+    private static int IndexOf(byte[] bytes, byte[] text) {
+        for (int i = 0; i + text.length <= bytes.length; i++) {
+            int j = 0;
+            while (j < text.length && bytes[i + j] == text[j]) {
+                j++;
+            }
+            if (j == text.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
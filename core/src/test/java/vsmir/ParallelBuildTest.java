@@ -0,0 +1,34 @@
+/*
+    BuildData and CalcTFXIDF on several threads must give the index a
+    single thread gives, down to the bytes of the segment file.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class ParallelBuildTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void ParallelBuildWritesTheSameSegment() throws IOException {
+        Path sequential = this.dir.resolve("sequential.idx");
+        Cranfield.Build(1).SaveIndex(sequential.toString());
+
+        for (int numThreads : new int[] { 2, 4, 8 }) {
+            Path parallel = this.dir.resolve(numThreads + ".idx");
+            Cranfield.Build(numThreads).SaveIndex(parallel.toString());
+            assertEquals(-1L, Files.mismatch(sequential, parallel),
+                    "segment built on " + numThreads + " threads differs from the single threaded one");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+    MaxScore pruning of the full cosine must give exactly the top k of
+    scoring every document, on one segment and on several with deletions.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+final class PrunedSearchTest {
+    private static VectorSpaceModelIR model;
+    private static ArrayList<String> queries;
+
+    @BeforeAll
+    static void Build() {
+        model = Cranfield.Build(1);
+        queries = Cranfield.Queries();
+    }
+
+    @Test
+    void PrunedMatchesExhaustive() {
+        Searcher searcher = model.GetSearcher();
+        AssertPrunedMatchesExhaustive(searcher);
+        assertTrue(searcher.PostingsSkipped() > 0, "pruning skipped no postings");
+    }
+
+    @Test
+    void PrunedMatchesExhaustiveOverSegments() {
+        try (SegmentedIndex index = Cranfield.Segmented(model)) {
+            AssertPrunedMatchesExhaustive(index.GetSearcher());
+        }
+    }
+
+    private static void AssertPrunedMatchesExhaustive(Searcher searcher) {
+        for (String query : queries) {
+            for (float[] boosts : Cranfield.BOOSTS) {
+                for (int k : new int[] { 1, 10, 100 }) {
+                    Cranfield.AssertSameResults(searcher.Search(query, boosts, k, Searcher.COSINE_FULL, false),
+                            searcher.Search(query, boosts, k, Searcher.COSINE_FULL, true), query);
+                }
+            }
+        }
+    }
+}
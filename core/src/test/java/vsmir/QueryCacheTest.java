@@ -0,0 +1,66 @@
+/*
+    A query answered from the cache, whether recombined from cached field
+    scores with other boosts or taken from the cached results, must be
+    exactly what a fresh search gives, also once the index has changed.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+final class QueryCacheTest {
+    private static VectorSpaceModelIR model;
+    private static ArrayList<String> queries;
+
+    @BeforeAll
+    static void Build() {
+        model = Cranfield.Build(1);
+        queries = Cranfield.Queries();
+    }
+
+    @Test
+    void RecombineMatchesFreshSearch() {
+        Searcher searcher = model.GetSearcher();
+        QueryCache cache = new QueryCache(4096, 64L << 20);
+        for (int cosine : new int[] { Searcher.COSINE_QUERY_TERMS, Searcher.COSINE_FULL }) {
+            // Twice over, the second round served from the results tier
+            for (int round = 0; round < 2; round++) {
+                for (String query : queries) {
+                    for (float[] boosts : Cranfield.BOOSTS) {
+                        Cranfield.AssertSameResults(searcher.Search(query, boosts, 20, cosine),
+                                cache.Search(searcher, query, boosts, 20, cosine), query);
+                    }
+                }
+            }
+        }
+        assertTrue(cache.FieldScoresTier().Hits() > 0, "no search was recombined from cached field scores");
+        assertTrue(cache.ResultsTier().Hits() > 0, "no search was served from cached results");
+    }
+
+    @Test
+    void CacheFollowsIndexChanges() {
+        QueryCache cache = new QueryCache(4096, 64L << 20);
+        float[] boosts = Cranfield.BOOSTS[0];
+        try (SegmentedIndex index = model.NewSegmentedIndex()) {
+            for (String query : queries) {
+                cache.Search(index.GetSearcher(), query, boosts, 20, Searcher.COSINE_QUERY_TERMS);
+            }
+
+            index.Delete(index.GetSearcher().DocID(0));
+            index.Add(".I 100000\n.T\nflow over a wing\n.A\nauthor\n.B\njournal\n.W\nboundary layer flow");
+            index.Refresh();
+            Searcher searcher = index.GetSearcher();
+            for (String query : queries) {
+                Cranfield.AssertSameResults(searcher.Search(query, boosts, 20),
+                        cache.Search(searcher, query, boosts, 20, Searcher.COSINE_QUERY_TERMS), query);
+            }
+        }
+        assertTrue(cache.ResultsTier().Invalidations() > 0, "the change did not invalidate the cache");
+    }
+}
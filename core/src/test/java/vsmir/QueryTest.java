@@ -0,0 +1,169 @@
+/*
+    Query.Parse must split a query into the clauses its syntax spells
+    out, and the filters of a parsed query must let through exactly the
+    live documents the posting lists say have every required term and
+    none of the excluded ones, on one segment and on several.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+final class QueryTest {
+    private static VectorSpaceModelIR model;
+
+    @BeforeAll
+    static void Build() {
+        model = Cranfield.Build(1);
+    }
+
+    @Test
+    void FreeTextParsesToOneClause() {
+        Query query = Query.Parse("  boundary  layer flow ");
+        assertEquals(1, query.NumClauses());
+        AssertClause(query, 0, Query.SHOULD, InvertedIndex.ALL_FIELDS, "boundary layer flow");
+        assertEquals(Query.FreeText("boundary layer flow").Key(), query.Key());
+    }
+
+    @Test
+    void RequiredExcludedAndFields() {
+        Query query = Query.Parse("+title:wing -supersonic flow boundary -Authors:smith +heat");
+        assertEquals(5, query.NumClauses());
+        AssertClause(query, 0, Query.MUST, 1 << InvertedIndex.TITLE, "wing");
+        AssertClause(query, 1, Query.MUST_NOT, InvertedIndex.ALL_FIELDS, "supersonic");
+        AssertClause(query, 2, Query.SHOULD, InvertedIndex.ALL_FIELDS, "flow boundary");
+        AssertClause(query, 3, Query.MUST_NOT, 1 << InvertedIndex.AUTHORS, "smith");
+        AssertClause(query, 4, Query.MUST, InvertedIndex.ALL_FIELDS, "heat");
+        assertEquals("+title:wing -supersonic flow boundary -authors:smith +heat", query.toString());
+        assertEquals(query.Key(), Query.Parse(query.toString()).Key());
+
+        // A prefix that names no field is free text
+        Query unknown = Query.Parse("mach:3 flow");
+        assertEquals(1, unknown.NumClauses());
+        AssertClause(unknown, 0, Query.SHOULD, InvertedIndex.ALL_FIELDS, "mach:3 flow");
+    }
+
+    @Test
+    void QuotesAreNotPhrases() {
+        Query query = Query.Parse("\"boundary layer\" +\"wing\"");
+        assertEquals(2, query.NumClauses());
+        AssertClause(query, 0, Query.SHOULD, InvertedIndex.ALL_FIELDS, "\"boundary layer\"");
+        AssertClause(query, 1, Query.MUST, InvertedIndex.ALL_FIELDS, "\"wing\"");
+
+        // The analyzer drops the quotes, so the words are searched as if there were none
+        Searcher searcher = model.GetSearcher();
+        Cranfield.AssertSameResults(searcher.Search(Query.Parse("boundary layer +wing"), Cranfield.BOOSTS[0], 20),
+                searcher.Search(query, Cranfield.BOOSTS[0], 20), query.toString());
+    }
+
+    @Test
+    void EmptyQueryMatchesNothing() {
+        for (String text : new String[] { "", "   ", "\t\n" }) {
+            Query query = Query.Parse(text);
+            assertEquals(1, query.NumClauses());
+            AssertClause(query, 0, Query.SHOULD, InvertedIndex.ALL_FIELDS, "");
+            assertEquals(0, model.GetSearcher().Search(query, Cranfield.BOOSTS[0], 20).Size());
+        }
+    }
+
+    @Test
+    void FiltersMatchPostings() {
+        AssertFiltersMatchPostings(model.GetSearcher());
+    }
+
+    @Test
+    void FiltersMatchPostingsOverSegments() {
+        try (SegmentedIndex index = Cranfield.Segmented(model)) {
+            Searcher searcher = index.GetSearcher();
+            assertTrue(searcher.NumSegments() > 1);
+            AssertFiltersMatchPostings(searcher);
+        }
+    }
+
+    private static void AssertFiltersMatchPostings(Searcher searcher) {
+        int all = InvertedIndex.ALL_FIELDS;
+        int title = 1 << InvertedIndex.TITLE;
+
+        // Required terms: every document with them and nothing else, scored on them too
+        AssertMatches(searcher, "+title:wing flow", Has(searcher, "wing", title));
+        HashSet<Integer> expected = Has(searcher, "wing", all);
+        expected.retainAll(Has(searcher, "supersonic", all));
+        expected.removeAll(Has(searcher, "flow", title));
+        assertFalse(expected.isEmpty());
+        AssertMatches(searcher, "+wing +supersonic -title:flow boundary", expected);
+
+        // A required term no document has
+        AssertMatches(searcher, "+xyzzy flow", new HashSet<Integer>());
+
+        // Excluded terms only: the free text results less the excluded documents, scored the same
+        HashSet<Integer> excluded = Has(searcher, "supersonic", all);
+        excluded.addAll(Has(searcher, "wing", title));
+        SearchResult free = searcher.Search(Query.Parse("boundary layer"), Cranfield.BOOSTS[1], searcher.MaxDoc());
+        SearchResult filtered = searcher.Search(Query.Parse("boundary layer -supersonic -title:wing"),
+                Cranfield.BOOSTS[1], searcher.MaxDoc());
+        HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
+        for (int rank = 0; rank < filtered.Size(); rank++) {
+            scores.put(filtered.DocID(rank), filtered.Score(rank));
+        }
+        int numKept = 0;
+        for (int rank = 0; rank < free.Size(); rank++) {
+            int docID = free.DocID(rank);
+            if (excluded.contains(docID)) {
+                assertFalse(scores.containsKey(docID), "excluded " + docID + " was found");
+            } else {
+                assertEquals(free.Score(rank), scores.get(docID), 0, "score of " + docID);
+                numKept++;
+            }
+        }
+        assertEquals(numKept, filtered.Size());
+        assertTrue(numKept < free.Size(), "the excluded terms ruled out nothing");
+    }
+
+    // Every live document the required terms of query let through, and only those
+    private static void AssertMatches(Searcher searcher, String query, HashSet<Integer> expected) {
+        SearchResult results = searcher.Search(Query.Parse(query), Cranfield.BOOSTS[1], searcher.MaxDoc());
+        HashSet<Integer> found = new HashSet<Integer>();
+        for (int rank = 0; rank < results.Size(); rank++) {
+            found.add(results.DocID(rank));
+        }
+        assertEquals(expected, found, query);
+    }
+
+    // DocIDs of the live documents whose postings have the analyzed word in any of fieldMask
+    private static HashSet<Integer> Has(Searcher searcher, String word, int fieldMask) {
+        String[] stem = new String[1];
+        searcher.GetAnalyzer().NewTokenizer((term, length) -> stem[0] = new String(term, 0, length)).Analyze(word);
+
+        HashSet<Integer> docIDs = new HashSet<Integer>();
+        for (int s = 0; s < searcher.NumSegments(); s++) {
+            InvertedIndex segment = searcher.Segment(s);
+            int termID = segment.TermID(stem[0]);
+            if (termID < 0) {
+                continue;
+            }
+            InvertedIndex.PostingsIterator postings = new InvertedIndex.PostingsIterator(segment);
+            postings.ResetFields(fieldMask, termID);
+            while (postings.Next()) {
+                if (searcher.Deleted(s) == null || !searcher.Deleted(s).get(postings.Doc())) {
+                    docIDs.add(segment.DocID(postings.Doc()));
+                }
+            }
+        }
+        return docIDs;
+    }
+
+    private static void AssertClause(Query query, int clause, int occur, int fieldMask, String text) {
+        assertEquals(occur, query.Occur(clause), "occur of clause " + clause);
+        assertEquals(fieldMask, query.Fields(clause), "fields of clause " + clause);
+        assertEquals(text, query.Text(clause), "text of clause " + clause);
+    }
+}
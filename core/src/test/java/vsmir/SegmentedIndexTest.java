@@ -0,0 +1,111 @@
+/*
+    Deleting and replacing documents while a background merge runs must
+    leave exactly the live documents searchable once the merge is in,
+    with the deletions carried over to the merged segment.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.HashSet;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+final class SegmentedIndexTest {
+    // One made-up word per added segment, so a search finds exactly that segment's documents
+    private static final String[] WORDS = { "aardvark", "bison", "caribou", "dingo", "emu", "ferret", "gazelle",
+            "hyena", "ibex" };
+    private static final int DOCS_PER_SEGMENT = 3;
+
+    private static VectorSpaceModelIR model;
+
+    @BeforeAll
+    static void Build() {
+        model = Cranfield.Build(1);
+    }
+
+    @Test
+    void ChangesDuringMergeAreCarriedOver() throws InterruptedException {
+        try (SegmentedIndex index = model.NewSegmentedIndex()) {
+            int numBase = index.GetSearcher().NumLiveDocs();
+            HashSet<Integer> gone = new HashSet<Integer>();
+
+            /*
+             * FinishMerge takes the index's lock, so holding it keeps the merge
+             * the last segment starts from being swapped in until the changes
+             * below are refreshed, whether or not the merge is done by then
+             */
+            synchronized (index) {
+                for (int s = 0; s < WORDS.length; s++) {
+                    for (int i = 0; i < DOCS_PER_SEGMENT; i++) {
+                        index.Add(Record(DocID(s, i), WORDS[s]));
+                    }
+                    index.Refresh();
+                }
+                assertEquals(1 + WORDS.length, index.NumSegments());
+
+                // The base segment is the largest, so the first MERGE_FACTOR added ones are being merged
+                index.Delete(DocID(0, 0));
+                index.Add(Record(DocID(1, 1), "jackal"));
+                index.Delete(DocID(WORDS.length - 1, 2));
+                index.Delete(1);
+                index.Refresh();
+                gone.add(DocID(0, 0));
+                gone.add(DocID(WORDS.length - 1, 2));
+                gone.add(1);
+            }
+            index.AwaitMerges();
+            assertEquals(1 + WORDS.length + 1 - SegmentedIndex.MERGE_FACTOR + 1, index.NumSegments());
+
+            Searcher searcher = index.GetSearcher();
+            assertEquals(numBase + WORDS.length * DOCS_PER_SEGMENT - gone.size(), searcher.NumLiveDocs());
+            for (int docID : gone) {
+                assertEquals(-1, searcher.Doc(docID), "deleted " + docID + " is still live");
+            }
+
+            // Every added document a search for its segment's word should find, and only those
+            for (int s = 0; s < WORDS.length; s++) {
+                HashSet<Integer> expected = new HashSet<Integer>();
+                for (int i = 0; i < DOCS_PER_SEGMENT; i++) {
+                    if (!gone.contains(DocID(s, i)) && DocID(s, i) != DocID(1, 1)) {
+                        expected.add(DocID(s, i));
+                    }
+                }
+                assertEquals(expected, DocIDs(searcher.Search(WORDS[s], Cranfield.BOOSTS[0], 10)), WORDS[s]);
+            }
+
+            // The replaced document is found by its new text only
+            SearchResult replaced = searcher.Search("jackal", Cranfield.BOOSTS[0], 10);
+            assertEquals(1, replaced.Size());
+            assertEquals(DocID(1, 1), replaced.DocID(0));
+            assertEquals("jackal wing", searcher.Title(searcher.Doc(DocID(1, 1))));
+
+            // Nothing deleted comes back for any Cranfield query
+            for (String query : Cranfield.Queries()) {
+                for (int docID : DocIDs(searcher.Search(query, Cranfield.BOOSTS[0], 100))) {
+                    assertFalse(gone.contains(docID), query + " found deleted " + docID);
+                }
+            }
+        }
+    }
+
+    private static int DocID(int segment, int i) {
+        return 200000 + 10 * segment + i;
+    }
+
+    private static String Record(int docID, String word) {
+        return ".I " + docID + "\n.T\n" + word + " wing\n.A\nauthor\n.B\njournal\n.W\n" + word + " boundary layer";
+    }
+
+    private static HashSet<Integer> DocIDs(SearchResult results) {
+        HashSet<Integer> docIDs = new HashSet<Integer>();
+        for (int rank = 0; rank < results.Size(); rank++) {
+            docIDs.add(results.DocID(rank));
+        }
+        return docIDs;
+    }
+}
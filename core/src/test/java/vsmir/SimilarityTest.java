@@ -0,0 +1,84 @@
+/*
+    BM25 and pivoted normalization scores of a corpus small enough to work
+    out by hand, from Searcher.Search and from batch search alike.
+
+    The abstracts are "wing wing flow", "wing heat flow jet", "heat flow"
+    and "jet", so over the 4 documents the average abstract length is
+    10 / 4 and wing and heat are each in 2 of them. The query has wing
+    twice and heat once.
+*/
+
+package vsmir;
+
+// Java
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class SimilarityTest {
+    private static final String[] ABSTRACTS = { "wing wing flow", "wing heat flow jet", "heat flow", "jet" };
+    private static final String QUERY = "wing wing heat";
+    // The abstract only
+    private static final float[] BOOSTS = { 0f, 1f };
+
+    private static Searcher searcher;
+
+    @BeforeAll
+    static void Build(@TempDir Path dir) throws IOException {
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0; i < ABSTRACTS.length; i++) {
+            corpus.append(".I ").append(i + 1).append("\n.T\nmodel\n.A\nsmith\n.B\njournal\n.W\n")
+                    .append(ABSTRACTS[i]).append('\n');
+        }
+        Path documents = dir.resolve("corpus.all");
+        Files.writeString(documents, corpus);
+
+        VectorSpaceModelIR model = new VectorSpaceModelIR();
+        model.BuildData(documents.toString());
+        model.CalcTFXIDF();
+        model.FreezeIndex();
+        searcher = model.GetSearcher();
+    }
+
+    /*
+     * idf ln(1 + (4 - 2 + 0.5) / (2 + 0.5)) = ln 2 for both terms, each
+     * posting adding raw_tf * ln 2 * 2.2 * tf / (tf + 0.3 + 0.9 * length / 2.5):
+     * doc 1 2 * ln 2 * 2.2 * 2 / 3.38, doc 2 (2 + 1) * ln 2 * 2.2 / 2.74,
+     * doc 3 ln 2 * 2.2 / 2.02
+     */
+    @Test
+    void BM25ScoresByHand() {
+        AssertScores(Similarity.BM25(), 1.804643547019976, 1.6696245955093572, 0.7549127709068711);
+    }
+
+    /*
+     * idf ln(5 / 2) for both terms, each posting adding raw_tf * ln 2.5 *
+     * (1 + ln(1 + ln tf)) / (0.8 + 0.2 * length / 2.5): doc 1 2 * ln 2.5 *
+     * (1 + ln(1 + ln 2)) / 1.04, doc 2 (2 + 1) * ln 2.5 / 1.12, doc 3
+     * ln 2.5 / 0.96
+     */
+    @Test
+    void PivotedScoresByHand() {
+        AssertScores(Similarity.Pivoted(), 2.6899988141583164, 2.454350174662915, 0.9544695123689114);
+    }
+
+    // Docs 1, 2 and 3 score the given scores, in that order, and doc 4 not at all
+    private static void AssertScores(Similarity similarity, double... scores) {
+        SearchResult single = searcher.Search(QUERY, BOOSTS, 10, similarity);
+        SearchResult batch = new BatchSearcher(searcher, BOOSTS, 10, similarity).Search(Arrays.asList(QUERY), 1)[0];
+        for (SearchResult result : new SearchResult[] { single, batch }) {
+            assertEquals(scores.length, result.Size(), similarity.Name());
+            for (int rank = 0; rank < scores.length; rank++) {
+                assertEquals(rank + 1, result.DocID(rank), similarity.Name());
+                assertEquals(scores[rank], result.Score(rank), 1e-12, similarity.Name());
+            }
+        }
+    }
+}